@@ -0,0 +1,61 @@
+package com.geordietait.squadbuilder;
+
+import java.util.Arrays;
+
+/**
+ * Benchmark for the island model: reports the best variance reached after
+ * each wall-clock budget for 1, 2, 4 and 8 islands, along with the number
+ * of generations produced per second across all islands.
+ *
+ * Usage: IslandBenchmark [JSON_location | number_of_players] [squads] [trials]
+ *
+ * @author Geordie Tait
+ *
+ */
+public class IslandBenchmark {
+
+	// island counts to compare
+	private static final int[] ISLANDS = {1, 2, 4, 8};
+
+	// wall-clock budgets in milliseconds
+	private static final int[] BUDGETS = {250, 500, 1000, 2500};
+
+	// population per island
+	private static final int MAX_POPULATION = 500;
+
+	/**
+	 * Benchmark entry point
+	 * @param args Program arguments array
+	 */
+	public static void main(String[] args) {
+		String source = args.length > 0 ? args[0] : "250";
+		int numSquads = args.length > 1 ? Integer.parseInt(args[1]) : 12;
+		int trials = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+		Players players = Rosters.load(source);
+		players.pack();
+		System.out.println("players=" + players.getNumber() + " squads=" + numSquads
+				+ " population=" + MAX_POPULATION + " trials=" + trials
+				+ " processors=" + Runtime.getRuntime().availableProcessors());
+		System.out.println("islands,budget_ms,median_variance,generations_per_second");
+
+		// warm up the JIT before measuring
+		new IslandModel(players, numSquads, MAX_POPULATION, 2, IslandModel.DEFAULT_MIGRATION_INTERVAL).evolve(1000);
+
+		for (int numIslands : ISLANDS) {
+			for (int budget : BUDGETS) {
+				double[] variances = new double[trials];
+				long generations = 0;
+				for (int t = 0; t < trials; t++) {
+					IslandModel model = new IslandModel(players, numSquads, MAX_POPULATION,
+							numIslands, IslandModel.DEFAULT_MIGRATION_INTERVAL);
+					variances[t] = model.evolve(budget).getVariance();
+					generations += model.getGenerations();
+				}
+				Arrays.sort(variances);
+				System.out.format("%d,%d,%.6f,%.1f\n", numIslands, budget, variances[trials / 2],
+						generations * 1000.0 / ((double) budget * trials));
+			}
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package com.geordietait.squadbuilder;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Helper class for building player rosters for benchmarks
+ * @author Geordie Tait
+ *
+ */
+public class Rosters {
+
+	/**
+	 * Load players from JSON, or generate a random roster of the given size
+	 * @param source JSON location or number of players
+	 * @return Players object
+	 */
+	public static Players load(String source) {
+		try {
+			return random(Integer.parseInt(source), 42);
+		}
+		catch (NumberFormatException e) {
+			return new JsonReader(source).getData();
+		}
+	}
+
+	/**
+	 * Generate a roster of players with random ratings
+	 * @param number Number of players
+	 * @param seed Random seed
+	 * @return Players object
+	 */
+	public static Players random(int number, long seed) {
+		Random rand = new Random(seed);
+		Players players = new Players();
+		for (int i = 0; i < number; i++) {
+			ArrayList<Skill> skills = new ArrayList<Skill>();
+			skills.add(new Skill("Skating", rand.nextInt(101)));
+			skills.add(new Skill("Shooting", rand.nextInt(101)));
+			skills.add(new Skill("Checking", rand.nextInt(101)));
+			players.getList().add(new Player(Integer.toString(i), "Player" + i, "Bench", skills));
+		}
+		players.pack();
+		return players;
+	}
+}
@@ -0,0 +1,37 @@
+package com.geordietait.squadbuilder;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point for the JMH benchmarks. Accepts the usual JMH command line
+ * options, but writes the results as JSON (to jmh-result.json) unless a
+ * result format or file is given, so runs can be compared between releases.
+ * @author Geordie Tait
+ *
+ */
+public class BenchmarkMain {
+
+	// default file for machine-readable results
+	private static final String RESULT_FILE = "jmh-result.json";
+
+	/**
+	 * Benchmark entry point
+	 * @param args JMH command line options
+	 * @throws Exception If the options are invalid or the run fails
+	 */
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		OptionsBuilder builder = new OptionsBuilder();
+		builder.parent(cmd);
+		if (!cmd.getResultFormat().hasValue())
+			builder.resultFormat(ResultFormatType.JSON);
+		if (!cmd.getResult().hasValue())
+			builder.result(RESULT_FILE);
+		Options options = builder.build();
+		new Runner(options).run();
+	}
+}
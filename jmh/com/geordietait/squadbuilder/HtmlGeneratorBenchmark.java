@@ -0,0 +1,94 @@
+package com.geordietait.squadbuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark for building a full squads page with HtmlGenerator
+ * @author Geordie Tait
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class HtmlGeneratorBenchmark {
+
+	// number of players in the roster
+	@Param({"50", "250", "2000"})
+	public int rosterSize;
+
+	// number of squads to display (0 for the index page, where all players are waitlisted)
+	@Param({"0", "8"})
+	public int numSquads;
+
+	// the roster being displayed
+	private Players players;
+
+	// the arrangement being displayed
+	private TournamentSnapshot snapshot;
+
+	/**
+	 * Build the roster and a snapshot of a filled tournament
+	 */
+	@Setup(Level.Trial)
+	public void setup() {
+		players = Rosters.random(rosterSize, 42);
+		if (numSquads > 0) {
+			Tournament tournament = new Tournament(players, numSquads);
+			tournament.fillSquadsRandom(new SplittableRandom(42));
+			snapshot = TournamentSnapshot.of(tournament);
+		}
+		else {
+			snapshot = TournamentSnapshot.of(players);
+		}
+	}
+
+	/**
+	 * Benchmark writing the whole page in chunks, as the /make handler does,
+	 * to a stream which only counts the bytes
+	 * @return Number of bytes written
+	 * @throws IOException If writing fails
+	 */
+	@Benchmark
+	public long buildPage() throws IOException {
+		final long[] total = new long[1];
+		OutputStream counter = new OutputStream() {
+			@Override
+			public void write(int b) {
+				total[0]++;
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				total[0] += len;
+			}
+		};
+		HttpResponse response = new HttpResponse("200 OK", true);
+		response.setWriter(new HttpResponse.BodyWriter() {
+			@Override
+			public void writeBody(OutputStream out) throws IOException {
+				new HtmlGenerator(snapshot, out).generatePage();
+			}
+		}, true);
+		response.writeBody(counter);
+		return total[0];
+	}
+}
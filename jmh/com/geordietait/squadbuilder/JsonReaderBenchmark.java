@@ -0,0 +1,91 @@
+package com.geordietait.squadbuilder;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+
+/**
+ * JMH benchmark for reading player data from a JSON file
+ * @author Geordie Tait
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class JsonReaderBenchmark {
+
+	// number of players in the file
+	@Param({"250", "10000", "100000"})
+	public int rosterSize;
+
+	// the generated JSON file
+	private File file;
+
+	/**
+	 * Write a roster of the given size to a temporary file
+	 * @throws IOException If the file cannot be written
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		file = File.createTempFile("players", ".json");
+		Writer out = new FileWriter(file);
+		new Gson().toJson(Rosters.random(rosterSize, 42), out);
+		out.close();
+	}
+
+	/**
+	 * Remove the temporary file
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		file.delete();
+	}
+
+	/**
+	 * Benchmark reading the file with the streaming reader
+	 * @return Players object
+	 */
+	@Benchmark
+	public Players getData() {
+		return new JsonReader(file.getPath()).getData();
+	}
+
+	/**
+	 * Benchmark binding the whole file to objects with Gson, as the reader once did,
+	 * for comparison
+	 * @return Players object
+	 * @throws IOException If the file cannot be read
+	 */
+	@Benchmark
+	public Players bindObjects() throws IOException {
+		FileReader in = new FileReader(file);
+		try {
+			return new Gson().fromJson(in, Players.class);
+		}
+		finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package com.geordietait.squadbuilder;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for the optimiser: fitness evaluation, random fills,
+ * and whole generations at several roster and population sizes. Only
+ * whole generations depend on the population size, so the population
+ * is kept in its own state and the other benchmarks run once per roster.
+ * @author Geordie Tait
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class OptimiserBenchmark {
+
+	// number of players in the roster
+	@Param({"50", "250", "1000"})
+	public int rosterSize;
+
+	// the roster being optimised
+	private Players players;
+
+	// number of squads (about 12 players per squad)
+	private int numSquads;
+
+	// a filled tournament for fitness evaluation
+	private Tournament tournament;
+
+	// random number generator for random fills
+	private SplittableRandom rand;
+
+	/**
+	 * Build the roster and a filled tournament
+	 */
+	@Setup(Level.Trial)
+	public void setupTrial() {
+		players = Rosters.random(rosterSize, 42);
+		numSquads = Math.max(2, rosterSize / 12);
+		rand = new SplittableRandom(42);
+		tournament = new Tournament(players, numSquads);
+		tournament.fillSquadsRandom(rand);
+	}
+
+	/**
+	 * Benchmark recalculating the variance of a tournament from its squads' running
+	 * rating totals (the fitness evaluation after a fill, without summing any ratings)
+	 * @return Total variance
+	 */
+	@Benchmark
+	public double recalculateVariance() {
+		return tournament.recalculateVariance();
+	}
+
+	/**
+	 * Benchmark scoring a candidate swap without applying it
+	 * @return Total variance after the swap
+	 */
+	@Benchmark
+	public double scoreSwap() {
+		return tournament.scoreSwap(0, 0, 1, 0);
+	}
+
+	/**
+	 * Benchmark a random fill of the squads
+	 * @return Total variance of the filled tournament
+	 */
+	@Benchmark
+	public double fillSquadsRandom() {
+		tournament.fillSquadsRandom(rand);
+		return tournament.getVariance();
+	}
+
+	/**
+	 * Benchmark producing one generation
+	 * @param evolution Population being evolved
+	 * @return Best variance in the population
+	 */
+	@Benchmark
+	public double nextGeneration(Evolution evolution) {
+		evolution.population.nextGeneration();
+		return evolution.population.getBestVariance();
+	}
+
+	/**
+	 * State for the population evolved by the nextGeneration benchmark
+	 * @author Geordie Tait
+	 *
+	 */
+	@State(Scope.Thread)
+	public static class Evolution {
+
+		// maximum population per generation
+		@Param({"500", "5000"})
+		public int maxPopulation;
+
+		// the population being evolved
+		private Population population;
+
+		/**
+		 * Start every iteration from a fresh population of the benchmark's roster
+		 * @param roster Benchmark state holding the roster
+		 */
+		@Setup(Level.Iteration)
+		public void setupIteration(OptimiserBenchmark roster) {
+			population = new Population(roster.players, roster.numSquads, maxPopulation, 42L);
+		}
+	}
+}
@@ -0,0 +1,251 @@
+package com.geordietait.squadbuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end JMH benchmark of the web server over loopback: each
+ * invocation opens a connection, sends a request and reads the whole
+ * response, or reuses one persistent connection for the keep-alive
+ * variants. The server reads players.json from the working directory.
+ * @author Geordie Tait
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class WebServerBenchmark {
+
+	// number of squads to request from /make
+	@Param({"2", "6"})
+	public int squads;
+
+	// how the server serves connections
+	@Param({"SELECTOR", "BLOCKING"})
+	public String mode;
+
+	// the server under test
+	private WebServer server;
+
+	// the port the server listens on
+	private int port;
+
+	// buffer for reading responses
+	private byte[] buffer = new byte[65536];
+
+	// persistent connection for the keep-alive benchmarks
+	private Socket keepAliveSock;
+
+	/**
+	 * Start the server on a free port and wait for it to accept connections
+	 * @throws Exception If the server does not start
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		ServerSocket probe = new ServerSocket(0);
+		port = probe.getLocalPort();
+		probe.close();
+
+		server = new WebServer(port, "players.json");
+		server.setMode(WebServer.Mode.valueOf(mode));
+		server.startServer();
+		for (int i = 0; i < 100; i++) {
+			try {
+				new Socket("localhost", port).close();
+				keepAliveSock = new Socket("localhost", port);
+				return;
+			}
+			catch (IOException e) {
+				Thread.sleep(50);
+			}
+		}
+		throw new IllegalStateException("Server did not start on port " + port);
+	}
+
+	/**
+	 * Stop the server
+	 * @throws IOException If the persistent connection cannot be closed
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		keepAliveSock.close();
+		server.shutdown();
+	}
+
+	/**
+	 * Benchmark a request for balanced squads
+	 * @return Number of response bytes
+	 * @throws IOException If the request fails
+	 */
+	@Benchmark
+	public long make() throws IOException {
+		return request("/make?squads=" + squads);
+	}
+
+	/**
+	 * Benchmark a request for the index page
+	 * @return Number of response bytes
+	 * @throws IOException If the request fails
+	 */
+	@Benchmark
+	public long index() throws IOException {
+		return request("/");
+	}
+
+	/**
+	 * Benchmark a request for the stylesheet
+	 * @return Number of response bytes
+	 * @throws IOException If the request fails
+	 */
+	@Benchmark
+	public long stylesheet() throws IOException {
+		return request("/w3.css");
+	}
+
+	/**
+	 * Benchmark a request for the stylesheet over a persistent connection
+	 * @return Number of response bytes
+	 * @throws IOException If the request fails
+	 */
+	@Benchmark
+	public long stylesheetKeepAlive() throws IOException {
+		return requestKeepAlive("/w3.css");
+	}
+
+	/**
+	 * Benchmark a request for the index page over a persistent connection
+	 * @return Number of response bytes
+	 * @throws IOException If the request fails
+	 */
+	@Benchmark
+	public long indexKeepAlive() throws IOException {
+		return requestKeepAlive("/");
+	}
+
+	/**
+	 * Send a request on the persistent connection and read the response,
+	 * using its Content-Length or chunks to find where it ends. The
+	 * connection is reopened when the server closes it.
+	 * @param path Path to request
+	 * @return Number of response bytes
+	 * @throws IOException If the request fails
+	 */
+	private long requestKeepAlive(String path) throws IOException {
+		OutputStream out = keepAliveSock.getOutputStream();
+		out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes("US-ASCII"));
+		out.flush();
+		InputStream in = keepAliveSock.getInputStream();
+
+		// read the header a byte at a time, up to the blank line
+		StringBuilder header = new StringBuilder();
+		while (header.length() < 4 || header.lastIndexOf("\r\n\r\n") != header.length() - 4) {
+			int c = in.read();
+			if (c < 0)
+				throw new IOException("Connection closed");
+			header.append((char) c);
+		}
+		String lower = header.toString().toLowerCase();
+
+		// read the body, chunk by chunk if it is chunked
+		long total = 0;
+		if (lower.contains("transfer-encoding: chunked")) {
+			long size;
+			while ((size = Long.parseLong(readLine(in), 16)) > 0) {
+				total += readFully(in, size);
+				readLine(in);
+			}
+			readLine(in);
+		}
+		else {
+			int start = lower.indexOf("content-length:") + "content-length:".length();
+			total = readFully(in, Long.parseLong(lower.substring(start, lower.indexOf('\r', start)).trim()));
+		}
+		if (lower.contains("connection: close")) {
+			keepAliveSock.close();
+			keepAliveSock = new Socket("localhost", port);
+		}
+		return header.length() + total;
+	}
+
+	/**
+	 * Read a number of body bytes
+	 * @param in Input stream of the connection
+	 * @param length Number of bytes to read
+	 * @return Number of bytes read
+	 * @throws IOException If the connection closes first
+	 */
+	private long readFully(InputStream in, long length) throws IOException {
+		long total = 0;
+		while (total < length) {
+			int n = in.read(buffer, 0, (int) Math.min(buffer.length, length - total));
+			if (n < 0)
+				throw new IOException("Connection closed");
+			total += n;
+		}
+		return total;
+	}
+
+	/**
+	 * Read a line ending with CRLF (such as a chunk size)
+	 * @param in Input stream of the connection
+	 * @return Line without the CRLF
+	 * @throws IOException If the connection closes first
+	 */
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = in.read()) != '\n') {
+			if (c < 0)
+				throw new IOException("Connection closed");
+			if (c != '\r')
+				line.append((char) c);
+		}
+		return line.toString();
+	}
+
+	/**
+	 * Send a request on a new connection and read the whole response
+	 * @param path Path to request
+	 * @return Number of response bytes
+	 * @throws IOException If the request fails
+	 */
+	private long request(String path) throws IOException {
+		Socket sock = new Socket("localhost", port);
+		try {
+			OutputStream out = sock.getOutputStream();
+			out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+					.getBytes("US-ASCII"));
+			out.flush();
+			InputStream in = sock.getInputStream();
+			long total = 0;
+			int n;
+			while ((n = in.read(buffer)) > 0)
+				total += n;
+			return total;
+		}
+		finally {
+			sock.close();
+		}
+	}
+}
@@ -0,0 +1,345 @@
+package com.geordietait.squadbuilder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class for limiting the optimisations running and waiting, so that a
+ * burst of requests is turned away quickly instead of every request getting
+ * a smaller share of the processors and worse squads.
+ *
+ * Each optimisation takes as many processors as it keeps busy: one for a
+ * local search, and one per island for the genetic algorithm (whose
+ * islands run on IslandModel's pool while its own thread waits for them).
+ * Optimisations run only while their processors add up to no more than
+ * the processors given, so with one island per processor a single genetic
+ * run has the machine to itself. The rest wait in the order they arrived,
+ * so a large run is not passed over by a stream of small ones. At most
+ * queueLimit may wait: any beyond that are rejected at once. A request
+ * which is still waiting queueTimeout ms after it arrived is taken out of
+ * the queue at that moment and dropped, without taking any processors,
+ * because its client has likely given up (and in blocking mode is holding
+ * a connection thread while it waits). Rejected and expired requests are
+ * answered with 503 Service Unavailable and a Retry-After header (see
+ * busyResponse).
+ *
+ * Only optimisations which run a solver come here: requests answered from
+ * the result cache, or sharing a running optimisation, never wait for a
+ * turn (see SquadMaker).
+ *
+ * @author Geordie Tait
+ *
+ */
+public class AdmissionControl implements Executor {
+
+	// default most optimisations waiting for processors
+	public static final int DEFAULT_QUEUE_LIMIT = 32;
+
+	// default milliseconds a request may wait for processors
+	public static final long DEFAULT_QUEUE_TIMEOUT = 10000;
+
+	// pool which runs the optimisations, with a thread for each processor
+	private Executor pool;
+
+	// processors the running optimisations may use between them
+	private int processors;
+
+	// processors used by the running optimisations (guarded by this)
+	private int busy;
+
+	// optimisations waiting for processors, in the order they arrived (guarded by this)
+	private ArrayDeque<Waiting> queue = new ArrayDeque<Waiting>();
+
+	// most optimisations waiting for processors
+	private volatile int queueLimit;
+
+	// milliseconds a request may wait for processors
+	private volatile long queueTimeout;
+
+	// drops waiting tasks at their deadlines, on a daemon thread which ends when idle
+	private ScheduledThreadPoolExecutor timer;
+
+	// number of tasks started, turned away because the queue was full,
+	// and dropped because they waited too long
+	private AtomicLong admitted = new AtomicLong();
+	private AtomicLong rejected = new AtomicLong();
+	private AtomicLong expired = new AtomicLong();
+
+	/**
+	 * Constructor with the default queue limit and timeout
+	 * @param pool Pool which runs the optimisations, with at least one thread per processor
+	 * @param processors Processors the running optimisations may use between them
+	 */
+	public AdmissionControl(Executor pool, int processors) {
+		this(pool, processors, DEFAULT_QUEUE_LIMIT, DEFAULT_QUEUE_TIMEOUT);
+	}
+
+	/**
+	 * Main constructor
+	 * @param pool Pool which runs the optimisations, with at least one thread per processor
+	 * @param processors Processors the running optimisations may use between them
+	 * @param queueLimit Most optimisations waiting for processors
+	 * @param queueTimeout Milliseconds a request may wait for processors
+	 */
+	public AdmissionControl(Executor pool, int processors, int queueLimit, long queueTimeout) {
+		this.pool = pool;
+		this.processors = Math.max(1, processors);
+		this.queueLimit = queueLimit;
+		this.queueTimeout = queueTimeout;
+		timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "squadbuilder-admission");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		timer.setKeepAliveTime(30, TimeUnit.SECONDS);
+		timer.allowCoreThreadTimeOut(true);
+		timer.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Run a task on one processor with no deadline, if there is room in the queue
+	 * @param task Task to run
+	 * @throws RejectedExecutionException If the queue is full or the pool is shut down
+	 */
+	@Override
+	public void execute(Runnable task) {
+		execute(task, 1, null);
+	}
+
+	/**
+	 * Run a task once its processors are free, if there is room in the queue, unless it
+	 * waits too long
+	 * @param task Task to run
+	 * @param parallelism Processors the task keeps busy (at most all of them are taken)
+	 * @param onExpired Run instead of the task if it is still waiting when the queue timeout
+	 * has passed (null to run the task however long it waits)
+	 * @throws RejectedExecutionException If the queue is full or the pool is shut down
+	 */
+	public void execute(Runnable task, int parallelism, Runnable onExpired) {
+		Waiting waiting = new Waiting(task, Math.max(1, Math.min(parallelism, processors)), onExpired);
+		synchronized (this) {
+			if (!queue.isEmpty() || busy + waiting.processors > processors) {
+				if (queue.size() >= queueLimit) {
+					rejected.incrementAndGet();
+					throw new RejectedExecutionException("Too many optimisations waiting");
+				}
+				queue.add(waiting);
+				if (waiting.onExpired != null)
+					waiting.deadline = timer.schedule(expiry(waiting), queueTimeout, TimeUnit.MILLISECONDS);
+				return;
+			}
+			busy += waiting.processors;
+		}
+		try {
+			start(waiting);
+		}
+		catch (RejectedExecutionException e) {
+			release(waiting.processors);
+			throw e;
+		}
+	}
+
+	/**
+	 * Make the task which drops a waiting task at its deadline, if it has not started
+	 * @param waiting Task waiting for its processors
+	 * @return Task for the timer
+	 */
+	private Runnable expiry(final Waiting waiting) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				synchronized (AdmissionControl.this) {
+					if (!queue.remove(waiting))
+						return;
+				}
+				expired.incrementAndGet();
+				waiting.onExpired.run();
+				// smaller tasks held up behind this one may fit now
+				release(0);
+			}
+		};
+	}
+
+	/**
+	 * Start a task whose processors have been taken, giving them back when it ends
+	 * @param waiting Task to start
+	 * @throws RejectedExecutionException If the pool is shut down
+	 */
+	private void start(final Waiting waiting) {
+		pool.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					waiting.task.run();
+				}
+				finally {
+					release(waiting.processors);
+				}
+			}
+		});
+		admitted.incrementAndGet();
+	}
+
+	/**
+	 * Give back the processors of a task which has ended, and start the tasks waiting
+	 * at the front of the queue which now fit
+	 * @param released Number of processors given back
+	 */
+	private void release(int released) {
+		ArrayList<Waiting> ready = new ArrayList<Waiting>();
+		synchronized (this) {
+			busy -= released;
+			while (!queue.isEmpty() && busy + queue.peek().processors <= processors) {
+				Waiting next = queue.poll();
+				busy += next.processors;
+				if (next.deadline != null)
+					next.deadline.cancel(false);
+				ready.add(next);
+			}
+		}
+		for (Waiting next : ready) {
+			try {
+				start(next);
+			}
+			catch (RejectedExecutionException e) {
+				// the pool is shutting down, so the task is dropped as if it expired
+				if (next.onExpired != null)
+					next.onExpired.run();
+				release(next.processors);
+			}
+		}
+	}
+
+	/**
+	 * Set the most optimisations waiting for processors
+	 * @param queueLimit Queue limit (0 to run only what the processors can take at once)
+	 */
+	public void setQueueLimit(int queueLimit) {
+		this.queueLimit = queueLimit;
+	}
+
+	/**
+	 * Set the longest a request may wait for processors
+	 * @param queueTimeout Milliseconds
+	 */
+	public void setQueueTimeout(long queueTimeout) {
+		this.queueTimeout = queueTimeout;
+	}
+
+	/**
+	 * Get the number of seconds a turned-away client should wait before trying again
+	 * @return Seconds (at least 1)
+	 */
+	public long getRetryAfter() {
+		return Math.max(1, (queueTimeout + 999) / 1000);
+	}
+
+	/**
+	 * Make the response for a request which was turned away
+	 * @return 503 response which closes the connection
+	 */
+	public HttpResponse busyResponse() {
+		HttpResponse response = new HttpResponse("503 Service Unavailable", false);
+		response.addHeader("Retry-After", Long.toString(getRetryAfter()));
+		return response;
+	}
+
+	/**
+	 * Get the number of tasks waiting for processors
+	 * @return Queue depth
+	 */
+	public synchronized int getWaiting() {
+		return queue.size();
+	}
+
+	/**
+	 * Get the number of processors used by the running tasks
+	 * @return Busy processors
+	 */
+	public synchronized int getBusy() {
+		return busy;
+	}
+
+	/**
+	 * Get the number of tasks started
+	 * @return Number of admitted tasks
+	 */
+	public long getAdmitted() {
+		return admitted.get();
+	}
+
+	/**
+	 * Get the number of tasks turned away because the queue was full
+	 * @return Number of rejections
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * Get the number of tasks dropped because they waited too long
+	 * @return Number of expired tasks
+	 */
+	public long getExpired() {
+		return expired.get();
+	}
+
+	/**
+	 * Get the limits of the queue and how often they were reached
+	 * @return Status report with one "name=value" pair per line
+	 */
+	public synchronized String getStatus() {
+		return "admission.processors=" + processors + "\n"
+				+ "admission.busyProcessors=" + busy + "\n"
+				+ "admission.queueLimit=" + queueLimit + "\n"
+				+ "admission.queueTimeoutMs=" + queueTimeout + "\n"
+				+ "admission.waiting=" + queue.size() + "\n"
+				+ "admission.admitted=" + admitted.get() + "\n"
+				+ "admission.rejected=" + rejected.get() + "\n"
+				+ "admission.expired=" + expired.get() + "\n";
+	}
+
+	/**
+	 * Class for a task waiting for its processors
+	 *
+	 * @author Geordie Tait
+	 *
+	 */
+	private static class Waiting {
+
+		// task to run
+		private final Runnable task;
+
+		// processors the task keeps busy
+		private final int processors;
+
+		// run instead of the task if it waited too long (null for none)
+		private final Runnable onExpired;
+
+		// drops the task if it is still waiting at its deadline (guarded by the
+		// AdmissionControl, null if it has none)
+		private ScheduledFuture<?> deadline;
+
+		/**
+		 * Constructor for Waiting
+		 * @param task Task to run
+		 * @param processors Processors the task keeps busy
+		 * @param onExpired Run instead of the task if it waited too long (null for none)
+		 */
+		Waiting(Runnable task, int processors, Runnable onExpired) {
+			this.task = task;
+			this.processors = processors;
+			this.onExpired = onExpired;
+		}
+	}
+}
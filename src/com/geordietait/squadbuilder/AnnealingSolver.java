@@ -0,0 +1,106 @@
+package com.geordietait.squadbuilder;
+
+/**
+ * Solver using simulated annealing (https://en.wikipedia.org/wiki/Simulated_annealing).
+ *
+ * Each move is a random swap between squads or with the waitlist. Moves
+ * which lower the variance are always accepted, and moves which raise it
+ * are accepted with a probability that shrinks as the temperature cools.
+ * When the temperature has cooled completely, the search restarts from
+ * the best tournament found with the temperature reheated.
+ *
+ * @author Geordie Tait
+ *
+ */
+public class AnnealingSolver extends LocalSearchSolver {
+
+	// factor the temperature is multiplied by after each generation
+	private static final double COOLING_RATE = 0.97;
+
+	// fraction of the initial temperature at which the search reheats
+	private static final double MIN_TEMPERATURE = 1e-4;
+
+	// number of random moves sampled to pick the initial temperature
+	private static final int SAMPLE_MOVES = 100;
+
+	// the initial temperature
+	private double initialTemperature;
+
+	// the current temperature
+	private double temperature;
+
+	// the number of moves per generation
+	private int movesPerGeneration;
+
+	/**
+	 * Constructor for AnnealingSolver
+	 * @param seed Seed for the random number generator
+	 */
+	public AnnealingSolver(long seed) {
+		super(seed);
+	}
+
+	@Override
+	protected void start(Tournament current) {
+		movesPerGeneration = Math.max(100, current.getPlayers().size());
+
+		// start at the average cost of an uphill move, so most are accepted at first
+		double total = 0.0;
+		int uphill = 0;
+		Tournament sample = new Tournament(current);
+		for (int i = 0; i < SAMPLE_MOVES; i++) {
+			double before = sample.getVariance();
+			randomSwap(sample);
+			if (sample.getVariance() > before) {
+				total += sample.getVariance() - before;
+				uphill++;
+			}
+		}
+		initialTemperature = uphill > 0 ? total / uphill : 1.0;
+		temperature = initialTemperature;
+	}
+
+	@Override
+	protected void step(Tournament current) {
+		int numSquads = current.getSquads().size();
+		int maxPlayers = current.getMaxPlayers();
+		int waiting = current.getWaitList().size();
+
+		for (int i = 0; i < movesPerGeneration; i++) {
+			double before = current.getVariance();
+
+			// pick a random move and score it without applying it
+			int squad = rand.nextInt(numSquads);
+			int pos = rand.nextInt(maxPlayers);
+			boolean withWaitlist = waiting > 0 && rand.nextInt(numSquads) == 0;
+			int other = withWaitlist ? rand.nextInt(waiting) 
+					: (squad + 1 + rand.nextInt(numSquads - 1)) % numSquads;
+			int otherPos = withWaitlist ? 0 : rand.nextInt(maxPlayers);
+			double after = withWaitlist ? current.scoreWaitlistSwap(squad, pos, other)
+					: current.scoreSwap(squad, pos, other, otherPos);
+
+			// accept downhill moves, and uphill moves with the Metropolis probability
+			double delta = after - before;
+			if (delta <= 0.0 || rand.nextDouble() < Math.exp(-delta / temperature)) {
+				if (withWaitlist)
+					current.swapWithWaitlist(squad, pos, other);
+				else
+					current.swap(squad, pos, other, otherPos);
+				if (delta < 0.0)
+					updateBest(current);
+			}
+		}
+
+		// cool down, reheating from the best tournament once frozen
+		temperature *= COOLING_RATE;
+		if (temperature < initialTemperature * MIN_TEMPERATURE) {
+			current.copyFrom(best);
+			temperature = initialTemperature;
+		}
+	}
+
+	@Override
+	public String getName() {
+		return ANNEALING;
+	}
+}
@@ -0,0 +1,357 @@
+package com.geordietait.squadbuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Class for the JSON API of the server, for scripts which would otherwise
+ * scrape the HTML pages:
+ *
+ * GET /api/players returns the roster, and GET /api/players/ID one player.
+ * GET /api/make?squads=N makes squads as /make does (with the same solver,
+ * seed and cache options) and returns the squads with the average rating
+ * of each in every skill, the waitlist, and the variance of the squad
+ * averages in every skill and in total.
+ *
+ * Responses are written with Gson's streaming JsonWriter straight to the
+ * connection as they are produced, rather than built as a string first,
+ * and writing waits while the client is slow to take them, so a large
+ * response is never held in memory whole.
+ *
+ * @author Geordie Tait
+ *
+ */
+public class Api {
+
+	// makes squads, reusing recent and running optimisations
+	private SquadMaker squadMaker;
+
+	// stopping criteria for every optimisation
+	private StoppingCriterion[] criteria;
+
+	/**
+	 * Constructor for Api
+	 * @param squadMaker Maker of squads shared with the HTML pages
+	 * @param criteria Stopping criteria for every optimisation
+	 */
+	public Api(SquadMaker squadMaker, StoppingCriterion... criteria) {
+		this.squadMaker = squadMaker;
+		this.criteria = criteria;
+	}
+
+	/**
+	 * Check if a path is served by the API
+	 * @param path Request path (e.g. "api/make")
+	 * @return True if the path is under /api
+	 */
+	public static boolean isApiPath(String path) {
+		return path.equals("api") || path.startsWith("api/");
+	}
+
+	/**
+	 * Make the response to a request under /api. Requests for /api/make wait
+	 * here for their squads, so the front ends call make for them.
+	 * @param request Parsed request
+	 * @param path Request path (e.g. "api/players")
+	 * @param players Players to arrange
+	 * @param keepAlive True if the connection will stay open after the response
+	 * @return Response to send
+	 */
+	public HttpResponse respond(HttpRequest request, String path, final Players players, boolean keepAlive) {
+		String method = request.getMethod();
+		boolean isHead = method.equals("HEAD");
+		HttpResponse response;
+
+		// make squads, on this thread
+		if (path.equals("api/make"))
+			return make(request, players, keepAlive, null).join();
+
+		// read the roster, or one player in it
+		if (path.equals("api/players") || path.startsWith("api/players/")) {
+			if (!method.equals("GET") && !isHead) {
+				response = errorResponse("405 Method Not Allowed", "Players are read with GET.", keepAlive);
+				response.addHeader("Allow", "GET");
+				return response;
+			}
+			if (path.equals("api/players")) {
+				response = streamResponse(new JsonBody() {
+					@Override
+					void write(JsonWriter writer) throws IOException {
+						writer.beginObject();
+						writer.name("count").value(players.getNumber());
+						writer.name("players");
+						writePlayers(writer, players.getList());
+						writer.endObject();
+					}
+				}, request.acceptsChunked(), keepAlive);
+			}
+			else {
+				final Player player = findPlayer(players, path.substring("api/players/".length()));
+				if (player == null)
+					return errorResponse("404 Not Found", "No such player.", keepAlive);
+				response = bufferedResponse(new JsonBody() {
+					@Override
+					void write(JsonWriter writer) throws IOException {
+						writePlayer(writer, player);
+					}
+				}, keepAlive);
+			}
+			response.addHeader("Cache-Control", "no-cache");
+		}
+
+		else {
+			return errorResponse("404 Not Found", "No such API.", keepAlive);
+		}
+		response.setHeadOnly(isHead);
+		return response;
+	}
+
+	/**
+	 * Make the response to a request for /api/make without holding a thread while
+	 * the squads are made (see SquadMaker)
+	 * @param request Parsed request
+	 * @param players Players to arrange
+	 * @param keepAlive True if the connection will stay open after the response
+	 * @param admission Admission to the pool which runs the optimisation (null to run it
+	 * on the calling thread)
+	 * @return Response to send, when it is ready (failing with a RejectedExecutionException
+	 * if the optimisation was turned away)
+	 */
+	public CompletableFuture<HttpResponse> make(final HttpRequest request, Players players,
+			final boolean keepAlive, AdmissionControl admission) {
+		String method = request.getMethod();
+		if (!method.equals("GET") && !method.equals("POST") && !method.equals("HEAD")) {
+			HttpResponse response = errorResponse("405 Method Not Allowed", "Squads are made with GET or POST.",
+					keepAlive);
+			response.addHeader("Allow", "GET, POST");
+			return CompletableFuture.completedFuture(response);
+		}
+		final MakeOptions options;
+		try {
+			options = MakeOptions.parse(request.getParams(), players.getNumber());
+		}
+		catch (IllegalArgumentException e) {
+			return CompletableFuture.completedFuture(errorResponse("400 Bad Request", e.getMessage(), keepAlive));
+		}
+		return squadMaker.make(players, options, admission, criteria).thenApply(
+				new Function<SquadMaker.Result, HttpResponse>() {
+					@Override
+					public HttpResponse apply(SquadMaker.Result made) {
+						final TournamentSnapshot result = made.getSnapshot();
+						HttpResponse response = streamResponse(new JsonBody() {
+							@Override
+							void write(JsonWriter writer) throws IOException {
+								writeSquads(writer, options, result);
+							}
+						}, request.acceptsChunked(), keepAlive);
+						response.addHeader("Cache-Control", "no-store");
+						response.setHeadOnly(request.getMethod().equals("HEAD"));
+						return response;
+					}
+				});
+	}
+
+	/**
+	 * Find a player by ID
+	 * @param players Players object
+	 * @param id Player ID
+	 * @return Player, or null if there is no such player
+	 */
+	private static Player findPlayer(Players players, String id) {
+		for (Player p : players.getList()) {
+			if (p.getID().equals(id))
+				return p;
+		}
+		return null;
+	}
+
+	/**
+	 * Write the squads made for a request
+	 * @param writer Writer of the response
+	 * @param options Options of the request
+	 * @param result Arrangement made
+	 * @throws IOException If the connection closes
+	 */
+	private static void writeSquads(JsonWriter writer, MakeOptions options, TournamentSnapshot result)
+			throws IOException {
+		writer.beginObject();
+		writer.name("numSquads").value(result.getNumSquads());
+		writer.name("solver").value(options.getSolver());
+		writer.name("variance");
+		writeNumber(writer, result.getVariance());
+		writer.name("skillVariances").beginObject();
+		for (int skill = 0; skill < Skill.NUM_TYPES; skill++) {
+			writer.name(Skill.getTypeName(skill));
+			writeNumber(writer, result.getSkillVariance(skill));
+		}
+		writer.endObject();
+		writer.name("squads").beginArray();
+		for (int i = 0; i < result.getNumSquads(); i++) {
+			writer.beginObject();
+			writer.name("number").value(i + 1);
+			writer.name("averages").beginObject();
+			for (int skill = 0; skill < Skill.NUM_TYPES; skill++) {
+				writer.name(Skill.getTypeName(skill));
+				writeNumber(writer, result.getAverage(i, skill));
+			}
+			writer.endObject();
+			writer.name("players");
+			writePlayers(writer, result.getSquad(i));
+			writer.endObject();
+		}
+		writer.endArray();
+		writer.name("waitList");
+		writePlayers(writer, result.getWaitList());
+		writer.endObject();
+	}
+
+	/**
+	 * Write a list of players as an array
+	 * @param writer Writer of the response
+	 * @param list Players to write
+	 * @throws IOException If the connection closes
+	 */
+	private static void writePlayers(JsonWriter writer, List<Player> list) throws IOException {
+		writer.beginArray();
+		for (Player p : list)
+			writePlayer(writer, p);
+		writer.endArray();
+	}
+
+	/**
+	 * Write a player with their ratings
+	 * @param writer Writer of the response
+	 * @param p Player to write
+	 * @throws IOException If the connection closes
+	 */
+	private static void writePlayer(JsonWriter writer, Player p) throws IOException {
+		writer.beginObject();
+		writer.name("id").value(p.getID());
+		writer.name("firstName").value(p.getFirstName());
+		writer.name("lastName").value(p.getLastName());
+		writer.name("ratings").beginObject();
+		for (int skill = 0; skill < Skill.NUM_TYPES; skill++)
+			writer.name(Skill.getTypeName(skill)).value(p.getRating(skill));
+		writer.endObject();
+		writer.endObject();
+	}
+
+	/**
+	 * Write a number, or null if it is not finite (JSON has no NaN)
+	 * @param writer Writer of the response
+	 * @param value Number to write
+	 * @throws IOException If the connection closes
+	 */
+	private static void writeNumber(JsonWriter writer, double value) throws IOException {
+		if (Double.isNaN(value) || Double.isInfinite(value))
+			writer.nullValue();
+		else
+			writer.value(value);
+	}
+
+	/**
+	 * Make a response whose JSON body is written to the connection as it is produced
+	 * @param body Writer of the body
+	 * @param chunked True to send the body in chunks, keeping the connection open
+	 * @param keepAlive True if the client asked to keep the connection open
+	 * @return Response
+	 */
+	private static HttpResponse streamResponse(JsonBody body, boolean chunked, boolean keepAlive) {
+		HttpResponse response = new HttpResponse("200 OK", keepAlive);
+		response.addHeader("Content-Type", "application/json; charset=utf-8");
+		response.setWriter(body, chunked);
+		return response;
+	}
+
+	/**
+	 * Make a response whose JSON body is written in memory first, for a small
+	 * body which is sent with its length
+	 * @param body Writer of the body
+	 * @param keepAlive True if the connection will stay open after the response
+	 * @return Response
+	 */
+	private static HttpResponse bufferedResponse(JsonBody body, boolean keepAlive) {
+		StringWriter json = new StringWriter();
+		try {
+			JsonWriter writer = new JsonWriter(json);
+			body.write(writer);
+			writer.close();
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		HttpResponse response = new HttpResponse("200 OK", keepAlive);
+		response.addHeader("Content-Type", "application/json; charset=utf-8");
+		response.setBody(json.toString().getBytes(StandardCharsets.UTF_8));
+		return response;
+	}
+
+	/**
+	 * Make a response with a JSON body
+	 * @param status Status code and reason
+	 * @param json JSON text
+	 * @param keepAlive True if the connection will stay open after the response
+	 * @return Response
+	 */
+	static HttpResponse jsonResponse(String status, String json, boolean keepAlive) {
+		HttpResponse response = new HttpResponse(status, keepAlive);
+		response.addHeader("Content-Type", "application/json; charset=utf-8");
+		response.addHeader("Cache-Control", "no-store");
+		response.setBody(json.getBytes(StandardCharsets.UTF_8));
+		return response;
+	}
+
+	/**
+	 * Make a response describing an error as JSON
+	 * @param status Status code and reason
+	 * @param message Description of the error
+	 * @param keepAlive True if the connection will stay open after the response
+	 * @return Response
+	 */
+	static HttpResponse errorResponse(String status, String message, boolean keepAlive) {
+		StringWriter json = new StringWriter();
+		try {
+			JsonWriter writer = new JsonWriter(json);
+			writer.beginObject();
+			writer.name("error").value(message);
+			writer.endObject();
+			writer.close();
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return jsonResponse(status, json.toString(), keepAlive);
+	}
+
+	/**
+	 * Class for a JSON body written straight to the connection
+	 *
+	 * @author Geordie Tait
+	 *
+	 */
+	private abstract static class JsonBody implements HttpResponse.BodyWriter {
+
+		/**
+		 * Write the body
+		 * @param writer Writer of the response
+		 * @throws IOException If the connection closes
+		 */
+		abstract void write(JsonWriter writer) throws IOException;
+
+		@Override
+		public void writeBody(OutputStream out) throws IOException {
+			// flushed rather than closed, as the connection may stay open
+			JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+			write(writer);
+			writer.flush();
+		}
+	}
+}
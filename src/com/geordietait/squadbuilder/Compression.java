@@ -0,0 +1,388 @@
+package com.geordietait.squadbuilder;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Class for compressing generated responses (pages, JSON and the status
+ * report) with gzip or deflate, whichever the client accepts from its
+ * Accept-Encoding header. Squad pages are long tables which repeat the
+ * same tags on every row, so they shrink many times over.
+ *
+ * A body held in memory is only compressed if it is at least threshold
+ * bytes, since a small body gains less than the cost of compressing it.
+ * A written body is compressed as it is written, on the thread which
+ * writes it (its length is not known in advance, so streams are kept for
+ * bodies which are always large). Responses which are shared by many
+ * requests, such as the homepage roster or the page for a cached
+ * arrangement, are compressed once: the first request keeps a copy of
+ * the compressed bytes as it sends them, and later ones are sent the
+ * copy from memory. Copies are kept for the most recently used
+ * CACHE_CAPACITY of them.
+ *
+ * Static files are not compressed here, as they have precompressed
+ * variants (see StaticFiles).
+ *
+ * @author Geordie Tait
+ *
+ */
+public class Compression {
+
+	// default smallest body compressed, in bytes
+	public static final int DEFAULT_THRESHOLD = 1024;
+
+	// default compression level (1 is fastest, 9 is smallest)
+	public static final int DEFAULT_LEVEL = 6;
+
+	// most compressed responses kept
+	public static final int CACHE_CAPACITY = 32;
+
+	// size of the buffers of the compressing streams
+	private static final int BUFFER_SIZE = 8192;
+
+	// content types worth compressing
+	private static final String[] COMPRESSIBLE_TYPES = { "text/html", "text/plain", "application/json" };
+
+	// smallest body compressed, in bytes
+	private volatile int threshold;
+
+	// compression level
+	private volatile int level;
+
+	// compressed responses by key and coding, from least to most recently used
+	private LinkedHashMap<List<Object>, byte[]> cache;
+
+	// number of responses sent from the cache, and not
+	private long hits;
+	private long misses;
+
+	/**
+	 * Constructor with the default threshold and level
+	 */
+	public Compression() {
+		this(DEFAULT_THRESHOLD, DEFAULT_LEVEL);
+	}
+
+	/**
+	 * Main constructor
+	 * @param threshold Smallest body compressed, in bytes
+	 * @param level Compression level, from 1 (fastest) to 9 (smallest)
+	 */
+	public Compression(int threshold, int level) {
+		setThreshold(threshold);
+		setLevel(level);
+		cache = new LinkedHashMap<List<Object>, byte[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<List<Object>, byte[]> eldest) {
+				return size() > CACHE_CAPACITY;
+			}
+		};
+	}
+
+	/**
+	 * Set the smallest body compressed
+	 * @param threshold Size in bytes (0 to compress every body)
+	 */
+	public void setThreshold(int threshold) {
+		this.threshold = Math.max(0, threshold);
+	}
+
+	/**
+	 * Set the compression level
+	 * @param level Level from 1 (fastest) to 9 (smallest)
+	 * @throws IllegalArgumentException If the level is out of range
+	 */
+	public void setLevel(int level) {
+		if (level < 1 || level > 9)
+			throw new IllegalArgumentException("The compression level must be from 1 to 9.");
+		this.level = level;
+	}
+
+	/**
+	 * Choose the content coding for a request, preferring gzip
+	 * @param request Parsed request
+	 * @return "gzip", "deflate", or null to send the body as it is
+	 */
+	public static String negotiate(HttpRequest request) {
+		if (request.acceptsEncoding("gzip"))
+			return "gzip";
+		if (request.acceptsEncoding("deflate"))
+			return "deflate";
+		return null;
+	}
+
+	/**
+	 * Compress a response if the client accepts it and it is worth it
+	 * @param request Parsed request
+	 * @param response Response to compress
+	 * @param cacheKey Key of a written body if other requests get the same body, so the
+	 * compressed bytes can be kept, or null if the body is not kept (keys of bodies only
+	 * one request gets would push shared ones out of the cache)
+	 */
+	public void apply(HttpRequest request, HttpResponse response, Object cacheKey) {
+		// a pushed body (such as a job's events) must reach the client as it happens
+		if (!isCompressible(response) || response.getProducer() != null)
+			return;
+		if (response.getWriter() == null && response.getBody().length < threshold)
+			return;
+
+		// the body depends on the Accept-Encoding header, so shared caches must keep one per coding
+		response.addHeader("Vary", "Accept-Encoding");
+		String coding = negotiate(request);
+		if (coding == null)
+			return;
+
+		if (response.getWriter() != null) {
+			List<Object> key = cacheKey != null ? Arrays.asList(cacheKey, coding) : null;
+			byte[] cached = key != null ? getCached(key) : null;
+			if (cached != null)
+				response.setBody(cached);
+			else
+				response.setWriter(new CompressingWriter(response.getWriter(), coding, key), response.isChunked());
+		}
+		else
+			response.setBody(compress(response.getBody(), coding));
+		response.addHeader("Content-Encoding", coding);
+	}
+
+	/**
+	 * Check if a response is a successful one of a type worth compressing, which is not
+	 * already compressed
+	 * @param response Response to check
+	 * @return True if the response may be compressed
+	 */
+	private static boolean isCompressible(HttpResponse response) {
+		if (!response.getStatus().startsWith("200") || response.getFile() != null
+				|| response.getHeader("Content-Encoding") != null)
+			return false;
+		String type = response.getHeader("Content-Type");
+		if (type == null)
+			return false;
+		for (String compressible : COMPRESSIBLE_TYPES) {
+			if (type.startsWith(compressible))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Get the compressed body of a response shared by many requests
+	 * @param key Key of the body and its coding
+	 * @return Compressed body, or null if it has not been kept
+	 */
+	private synchronized byte[] getCached(List<Object> key) {
+		byte[] compressed = cache.get(key);
+		if (compressed != null)
+			hits++;
+		else
+			misses++;
+		return compressed;
+	}
+
+	/**
+	 * Compress a body held in memory
+	 * @param body Body bytes
+	 * @param coding Content coding
+	 * @return Compressed bytes
+	 */
+	byte[] compress(byte[] body, String coding) {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4 + 64);
+		try {
+			DeflaterOutputStream encoder = newEncoder(compressed, coding);
+			encoder.write(body);
+			encoder.close();
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return compressed.toByteArray();
+	}
+
+	/**
+	 * Make a stream which compresses what is written to it
+	 * @param out Where to write the compressed bytes
+	 * @param coding "gzip" or "deflate"
+	 * @return Compressing stream, which releases its compressor when closed
+	 * @throws IOException If writing the gzip header fails
+	 */
+	private DeflaterOutputStream newEncoder(OutputStream out, String coding) throws IOException {
+		final int level = this.level;
+		if (coding.equals("gzip")) {
+			return new GZIPOutputStream(out, BUFFER_SIZE) {
+				{
+					def.setLevel(level);
+				}
+
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					}
+					finally {
+						def.end();
+					}
+				}
+			};
+		}
+		return new DeflaterOutputStream(out, new Deflater(level), BUFFER_SIZE) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				}
+				finally {
+					def.end();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Get the settings and the use of the cache
+	 * @return Status report with one "name=value" pair per line
+	 */
+	public synchronized String getStatus() {
+		return "compression.threshold=" + threshold + "\n"
+				+ "compression.level=" + level + "\n"
+				+ "compression.cached=" + cache.size() + "\n"
+				+ "compression.hits=" + hits + "\n"
+				+ "compression.misses=" + misses + "\n";
+	}
+
+	/**
+	 * Class for a writer which compresses the body of another writer as it is
+	 * written, keeping a copy of the compressed bytes if the body is shared
+	 *
+	 * @author Geordie Tait
+	 *
+	 */
+	private class CompressingWriter implements HttpResponse.BodyWriter {
+
+		// writer of the uncompressed body
+		private HttpResponse.BodyWriter writer;
+
+		// content coding
+		private String coding;
+
+		// key to keep the compressed body under once it is complete (null to keep none)
+		private List<Object> key;
+
+		/**
+		 * Constructor for CompressingWriter
+		 * @param writer Writer of the uncompressed body
+		 * @param coding Content coding
+		 * @param key Key to keep the compressed body under, or null to keep none
+		 */
+		CompressingWriter(HttpResponse.BodyWriter writer, String coding, List<Object> key) {
+			this.writer = writer;
+			this.coding = coding;
+			this.key = key;
+		}
+
+		@Override
+		public void writeBody(OutputStream out) throws IOException {
+			// a shared body is copied as it is sent (two requests may both compress a
+			// new body, but they make the same bytes)
+			ByteArrayOutputStream copy = key != null ? new ByteArrayOutputStream() : null;
+			ConnectionStream connection = new ConnectionStream(out, copy);
+
+			// the body is written in small pieces, which are collected before compressing
+			OutputStream encoder = new BufferedOutputStream(newEncoder(connection, coding), BUFFER_SIZE);
+			boolean complete = false;
+			try {
+				writer.writeBody(encoder);
+				complete = true;
+			}
+			finally {
+				if (!complete) {
+					// the body is incomplete, so the coding must not be ended (which would
+					// make the body look complete): the compressor is only released
+					connection.discard();
+					encoder.close();
+				}
+			}
+
+			// finish the coding and release the compressor
+			encoder.close();
+
+			// keep the body only once it is complete
+			if (copy != null) {
+				synchronized (Compression.this) {
+					cache.put(key, copy.toByteArray());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Class for the stream a compressor writes to: the connection, and a copy
+	 * of the compressed bytes if the body is kept. Closing it leaves the
+	 * connection open.
+	 *
+	 * @author Geordie Tait
+	 *
+	 */
+	private static class ConnectionStream extends FilterOutputStream {
+
+		// copy of the compressed bytes (null to keep none)
+		private ByteArrayOutputStream copy;
+
+		// true once the body has failed, so nothing more is sent
+		private boolean discarding;
+
+		/**
+		 * Constructor for ConnectionStream
+		 * @param out Stream of the connection
+		 * @param copy Where to copy the compressed bytes, or null to keep none
+		 */
+		ConnectionStream(OutputStream out, ByteArrayOutputStream copy) {
+			super(out);
+			this.copy = copy;
+		}
+
+		/**
+		 * Drop everything written from now on, so the compressor can be released
+		 * without anything more reaching the connection
+		 */
+		void discard() {
+			discarding = true;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (discarding)
+				return;
+			out.write(b, off, len);
+			if (copy != null)
+				copy.write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (!discarding)
+				out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package com.geordietait.squadbuilder;
+
+/**
+ * Solver which runs the genetic algorithm on an island model, with one
+ * island per available processor
+ * @author Geordie Tait
+ *
+ */
+public class GeneticSolver implements Solver {
+
+	// default maximum population per generation on each island
+	public static final int DEFAULT_POPULATION = 500;
+
+	// maximum population per generation on each island
+	private int maxPopulation;
+
+	// number of islands to evolve in parallel
+	private int numIslands;
+
+	// seed for the random number generators
+	private long seed;
+
+	// mix of strategies for new individuals
+	private Seeder seeding;
+
+	// the criterion which ended the last run
+	private StoppingCriterion stoppedBy;
+
+	// listener told of the progress of each run (null for none)
+	private ProgressListener listener;
+
+	// number of generations between progress reports
+	private int reportInterval;
+
+	/**
+	 * Constructor with the default population and one island per processor
+	 * @param seed Seed for the random number generators
+	 */
+	public GeneticSolver(long seed) {
+		this(DEFAULT_POPULATION, Runtime.getRuntime().availableProcessors(), seed);
+	}
+
+	/**
+	 * Main constructor
+	 * @param maxPopulation Maximum population per generation on each island
+	 * @param numIslands Number of islands to evolve in parallel
+	 * @param seed Seed for the random number generators
+	 */
+	public GeneticSolver(int maxPopulation, int numIslands, long seed) {
+		this(maxPopulation, numIslands, seed, new Seeder());
+	}
+
+	/**
+	 * Constructor with a given mix of seeding strategies
+	 * @param maxPopulation Maximum population per generation on each island
+	 * @param numIslands Number of islands to evolve in parallel
+	 * @param seed Seed for the random number generators
+	 * @param seeding Mix of strategies for new individuals
+	 */
+	public GeneticSolver(int maxPopulation, int numIslands, long seed, Seeder seeding) {
+		this.maxPopulation = maxPopulation;
+		this.numIslands = numIslands;
+		this.seed = seed;
+		this.seeding = seeding;
+	}
+
+	@Override
+	public Tournament solve(Players players, int numSquads, StoppingCriterion... criteria) {
+		IslandModel islands = new IslandModel(players, numSquads, maxPopulation, numIslands,
+				IslandModel.DEFAULT_MIGRATION_INTERVAL, seed, seeding);
+		islands.setProgressListener(listener, reportInterval);
+		stoppedBy = islands.evolve(criteria);
+		return islands.getBest();
+	}
+
+	@Override
+	public StoppingCriterion getStoppedBy() {
+		return stoppedBy;
+	}
+
+	@Override
+	public void setProgressListener(ProgressListener listener, int interval) {
+		this.listener = listener;
+		this.reportInterval = interval;
+	}
+
+	@Override
+	public String getName() {
+		return GENETIC;
+	}
+
+	@Override
+	public int getParallelism() {
+		// islands beyond the number of processors take turns on the island pool
+		return Math.max(1, Math.min(numIslands, Runtime.getRuntime().availableProcessors()));
+	}
+}
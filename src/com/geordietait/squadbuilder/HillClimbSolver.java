@@ -0,0 +1,94 @@
+package com.geordietait.squadbuilder;
+
+/**
+ * Solver using steepest-descent hill climbing over pairwise swaps.
+ *
+ * Each generation scores every swap between two squads and every swap
+ * between a squad and the waitlist, and applies the one which lowers the
+ * variance the most. At a local optimum (no improving swap), the search
+ * restarts from the best tournament found after a few random swaps.
+ *
+ * @author Geordie Tait
+ *
+ */
+public class HillClimbSolver extends LocalSearchSolver {
+
+	/**
+	 * Constructor for HillClimbSolver
+	 * @param seed Seed for the random number generator
+	 */
+	public HillClimbSolver(long seed) {
+		super(seed);
+	}
+
+	@Override
+	protected void start(Tournament current) {
+	}
+
+	@Override
+	protected void step(Tournament current) {
+		int numSquads = current.getSquads().size();
+		int maxPlayers = current.getMaxPlayers();
+		int waiting = current.getWaitList().size();
+		double bestScore = current.getVariance();
+		int bestSquad = -1;
+		int bestPos = 0;
+		int bestOther = 0;
+		int bestOtherPos = 0;
+
+		// score every swap between squads
+		for (int s1 = 0; s1 < numSquads; s1++) {
+			for (int s2 = s1 + 1; s2 < numSquads; s2++) {
+				for (int p1 = 0; p1 < maxPlayers; p1++) {
+					for (int p2 = 0; p2 < maxPlayers; p2++) {
+						double score = current.scoreSwap(s1, p1, s2, p2);
+						if (score < bestScore) {
+							bestScore = score;
+							bestSquad = s1;
+							bestPos = p1;
+							bestOther = s2;
+							bestOtherPos = p2;
+						}
+					}
+				}
+			}
+		}
+
+		// score every swap with the waitlist (marked by an other position of -1)
+		for (int s = 0; s < numSquads; s++) {
+			for (int p = 0; p < maxPlayers; p++) {
+				for (int w = 0; w < waiting; w++) {
+					double score = current.scoreWaitlistSwap(s, p, w);
+					if (score < bestScore) {
+						bestScore = score;
+						bestSquad = s;
+						bestPos = p;
+						bestOther = w;
+						bestOtherPos = -1;
+					}
+				}
+			}
+		}
+
+		// apply the steepest improving swap
+		if (bestSquad >= 0) {
+			if (bestOtherPos < 0)
+				current.swapWithWaitlist(bestSquad, bestPos, bestOther);
+			else
+				current.swap(bestSquad, bestPos, bestOther, bestOtherPos);
+			updateBest(current);
+		}
+
+		// at a local optimum, perturb the best tournament and climb again
+		else {
+			current.copyFrom(best);
+			for (int i = 0; i < numSquads; i++)
+				randomSwap(current);
+		}
+	}
+
+	@Override
+	public String getName() {
+		return HILL_CLIMB;
+	}
+}
@@ -1,224 +1,301 @@
 package com.geordietait.squadbuilder;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
 /**
- * Class for generating HTML strings for the SquadBuilder WebServer to send out
+ * Class for generating HTML for the SquadBuilder WebServer to send out.
+ * Pages are rendered from snapshots, which are already sorted and never
+ * change, so any number of pages can show the same arrangement at once.
+ *
+ * Each part of a page is written straight to the output as it is
+ * generated, so the cost grows linearly with the number of players and
+ * no copy of the page is built in memory. The markup which is the same
+ * on every page (the top bar, the controls, and the tags around tables
+ * and rows) is encoded once, when the class is loaded, so only the
+ * players' names and ratings are encoded per request.
  * @author Geordie Tait
  *
  */
 public class HtmlGenerator {
 	
-	// the tournament arrangement to display to the user
-	private Tournament tournament;
+	// the title and the top bar
+	private static final byte[] TOP = compile(
+			// title
+			"<html><head><title>SquadBuilder</title>"
+			
+			// font
+			+ "<style>.w3-myfont {font-family: 'Verdana', sans-serif;}</style></head>"
+			
+			// background color
+			+ "<body style='background: linear-gradient(rgba(208,222,239,0), "
+			+ "rgba(188, 215, 256,1))'><center>"
+			
+			// stylesheet
+			+ "<link rel='stylesheet' href='w3.css'>"
+			
+			// container for top bar
+			+ "<div class='w3-card-4' style='width:100%'><div class='w3-display-container'>"
+			
+			// image
+			+ "<img src='topbar.jpg' style='width:100%' alt='Topbar'>"
+			
+			// container for title text
+			+ "<div class='w3-display-bottommiddle w3-container "
+			+ "w3-text-light-grey w3-wide w3-padding-64'>"
+			
+			// title text
+			+ "<h1 style='text-shadow:3px 3px 0 #444' class='w3-jumbo w3-myfont'>"
+			+ "<big><b>SquadBuilder</b></big></h1></div></div></div>");
+	
+	// the controls
+	private static final byte[] FORM = compile(
+			// containers for forms
+			"<div class='w3-card-4 w3-round w3-margin "
+			+ "w3-padding-16 w3-white' style='max-width: 50%'>"
+			+ "<div class='w3-container w3-margin'>"
+			
+			// form for text box and make button
+			+ "<form method='get' action='/make'>"
+			
+			// container for text box
+			+ "<div class='w3-panel w3-border-top w3-border-bottom w3-half'>"
+			
+			// text box
+			+ "<input type='number' name='squads' placeholder='How many squads?' "
+			+ "class='w3-input w3-border-0 w3-xlarge w3-round w3-myfont' "
+			+ "style='width: 100%'></div>"
+			
+			// make button
+			+ "<input type='submit' value='Make' class='w3-button "
+			+ "w3-white w3-large w3-half w3-round-large w3-myfont'>"
+			+ "</form>"
+			
+			// form for reset button
+			+ "<form method='post' action='/'>"
+			
+			// reset button
+			+ "<input type='submit' value='Reset' class='w3-button "
+			+ "w3-white w3-large w3-half w3-round-large w3-myfont'>"
+			+ "</form></div></div>");
+	
+	// container for displaying a squad or the waitlist
+	private static final byte[] CARD_START = compile("<div class='w3-card-4 w3-round w3-margin w3-myfont "
+			+ "w3-padding-16 w3-white' style='max-width: 50%'>");
+	
+	// headings
+	private static final byte[] SQUAD_HEADING_START = compile("<h2 class='w3-myfont'>Squad ");
+	private static final byte[] SQUAD_HEADING_END = compile("</h2>");
+	private static final byte[] WAITLIST_HEADING = compile("<h2 class='w3-myfont'>Wait list</h2>");
 	
-	// the players object containing the list of all players
-	private Players players;
+	// table and column headings
+	private static final byte[] TABLE_START = compile("<table class='w3-table w3-centered w3-hoverable "
+			+ "w3-striped' style='max-width: 100%'><tr>"
+			+ "<td><b>Player</b></td>"
+			+ "<td><b>Skating</b></td>"
+			+ "<td><b>Shooting</b></td>"
+			+ "<td><b>Checking</b></td></tr>");
+	
+	// a player's row, around the name and ratings
+	private static final byte[] ROW_START = compile("<tr><td>");
+	private static final byte[] CELL_BREAK = compile("</td><td>");
+	private static final byte[] ROW_END = compile("</td></tr>");
+	
+	// the averages row of a squad, around each average
+	private static final byte[] AVERAGE_START = compile("<tr><td><b>Average</b></td>");
+	private static final byte[] AVERAGE_CELL_START = compile("<td><b>");
+	private static final byte[] AVERAGE_CELL_END = compile("</b></td>");
+	private static final byte[] SQUAD_END = compile("</tr></table></div>");
+	
+	// the end of the waitlist, with or without players
+	private static final byte[] TABLE_END = compile("</table>");
+	private static final byte[] EMPTY = compile("<i>Empty</i>");
+	private static final byte[] CARD_END = compile("</div>");
+	
+	// container for displaying errors, around the message
+	private static final byte[] ERROR_START = compile("<div class='w3-panel w3-border w3-border-red w3-round w3-myfont' "
+			+ "style='max-width: 50%'><b>Error:</b> ");
+	private static final byte[] ERROR_END = compile("</div>");
+	
+	// closing tags
+	private static final byte[] END = compile("</center></body></html>");
+	
+	// the arrangement to display to the user
+	private TournamentSnapshot snapshot;
+	
+	// where the HTML is written
+	private OutputStream out;
 	
 	/**
 	 * Constructor for HtmlGenerator
-	 * @param tournament Tournament to display
-	 * @param players Players object
+	 * @param snapshot Arrangement to display
+	 * @param out Where to write the HTML (best buffered, as it is written in small pieces)
 	 */
-	public HtmlGenerator(Tournament tournament, Players players) {
-		this.tournament = tournament;
-		this.players = players;
+	public HtmlGenerator(TournamentSnapshot snapshot, OutputStream out) {
+		this.snapshot = snapshot;
+		this.out = out;
 	}
 	
 	/**
-	 * Set the tournament object
-	 * @param tournament Tournament to display
+	 * Encode a constant part of the page
+	 * @param html HTML text
+	 * @return Encoded bytes
 	 */
-	public void setTournament(Tournament tournament) {
-		this.tournament = tournament;
+	private static byte[] compile(String html) {
+		return html.getBytes(StandardCharsets.US_ASCII);
 	}
-
+	
+	/**
+	 * Set the arrangement to display
+	 * @param snapshot Arrangement to display
+	 */
+	public void setSnapshot(TournamentSnapshot snapshot) {
+		this.snapshot = snapshot;
+	}
+	
+	/**
+	 * Write a whole page: the top bar, controls, waitlist and squads
+	 * @throws IOException If writing fails
+	 */
+	public void generatePage() throws IOException {
+		generateTop();
+		generateForm();
+		generateWaitList();
+		for (int count = 1; count <= snapshot.getNumSquads(); count++)
+			generateSquad(count);
+		generateEnd();
+	}
+	
 	/**
 	 * Generate HTML for the title and the top bar
-	 * @return HTML string for initialization, title, and top bar
+	 * @throws IOException If writing fails
 	 */
-	public String generateTop() {
-		
-		// title
-		String htmlOut = "<html><head><title>SquadBuilder</title>";
-		
-		// font
-		htmlOut += "<style>.w3-myfont {font-family: 'Verdana', sans-serif;}</style></head>";
-		
-		// background color
-		htmlOut += "<body style='background: linear-gradient(rgba(208,222,239,0), "
-				+ "rgba(188, 215, 256,1))'><center>";
-		
-		// stylesheet
-		htmlOut += "<link rel='stylesheet' href='w3.css'>";
-		
-		// container for top bar
-		htmlOut += "<div class='w3-card-4' style='width:100%'><div class='w3-display-container'>";
-		
-		// image
-		htmlOut += "<img src='topbar.jpg' style='width:100%' alt='Topbar'>";
-		
-		// container for title text
-		htmlOut += "<div class='w3-display-bottommiddle w3-container "
-				+ "w3-text-light-grey w3-wide w3-padding-64'>";
-		
-		// title text
-		htmlOut += "<h1 style='text-shadow:3px 3px 0 #444' class='w3-jumbo w3-myfont'>"
-				+ "<big><b>SquadBuilder</b></big></h1></div></div></div>";
-		return htmlOut;
+	public void generateTop() throws IOException {
+		out.write(TOP);
 	}
-
+	
 	/**
 	 * Generate HTML for controls
-	 * @return HTML string for buttons and input
+	 * @throws IOException If writing fails
 	 */
-	public String generateForm() {
-		
-		// containers for forms
-		String htmlOut = "<div class='w3-card-4 w3-round w3-margin "
-				+ "w3-padding-16 w3-white' style='max-width: 50%'>";
-		htmlOut += "<div class='w3-container w3-margin'>";
-		
-		// form for text box and make button
-		htmlOut += "<form method='get' action='/make'>";
-		
-		// container for text box
-		htmlOut += "<div class='w3-panel w3-border-top w3-border-bottom w3-half'>";
-		
-		// text box
-		htmlOut += "<input type='number' name='squads' placeholder='How many squads?' ";
-		htmlOut += "class='w3-input w3-border-0 w3-xlarge w3-round w3-myfont' "
-				+ "style='width: 100%'></div>";
-		
-		// make button
-		htmlOut += "<input type='submit' value='Make' class='w3-button "
-				+ "w3-white w3-large w3-half w3-round-large w3-myfont'>";
-		htmlOut += "</form>";
-		
-		// form for reset button
-		htmlOut += "<form method='post' action='/'>";
-		
-		// reset button
-		htmlOut += "<input type='submit' value='Reset' class='w3-button "
-				+ "w3-white w3-large w3-half w3-round-large w3-myfont'>";
-		htmlOut += "</form></div></div>";
-		return htmlOut;
+	public void generateForm() throws IOException {
+		out.write(FORM);
 	}
-
+	
 	/**
 	 * Generate HTML for displaying a squad
-	 * @param count Squad number
-	 * @param s Squad to display
-	 * @return HTML string for a squad
+	 * @param count Squad number (from 1)
+	 * @throws IOException If writing fails
 	 */
-	public String generateSquad(int count, Squad s) {
+	public void generateSquad(int count) throws IOException {
 		
-		// container for displaying a squad
-		String htmlOut = "<div class='w3-card-4 w3-round w3-margin w3-myfont "
-				+ "w3-padding-16 w3-white' style='max-width: 50%'>";
+		// container and heading
+		out.write(CARD_START);
+		out.write(SQUAD_HEADING_START);
+		writeText(Integer.toString(count));
+		out.write(SQUAD_HEADING_END);
 		
-		// heading
-		htmlOut += "<h2 class='w3-myfont'>Squad " + count + "</h2>";
-		
-		// table
-		htmlOut += "<table class='w3-table w3-centered w3-hoverable "
-				+ "w3-striped' style='max-width: 100%'><tr>";
-		
-		// column headings
-		htmlOut += "<td><b>Player</b></td>";
-		htmlOut += "<td><b>Skating</b></td>";
-		htmlOut += "<td><b>Shooting</b></td>";
-		htmlOut += "<td><b>Checking</b></td></tr>";
+		// table and column headings
+		out.write(TABLE_START);
 		
 		// data
-		s.sortSquadMembers();
-		for (Player p : s.getMembers()) {
-			htmlOut += "<tr><td>" + p.getName() + "</td>";
-			htmlOut += "<td>" + p.getSkatingRating() + "</td>";
-			htmlOut += "<td>" + p.getShootingRating() + "</td>";
-			htmlOut += "<td>" + p.getCheckingRating() + "</td></tr>";
+		for (Player p : snapshot.getSquad(count - 1)) {
+			generateRow(p);
 		}
 		
 		// averages
-		htmlOut += "<tr><td><b>Average</b></td>";
-		htmlOut += "<td><b>" + Math.round(s.getSkatingAvg()) + "</b></td>";
-		htmlOut += "<td><b>" + Math.round(s.getShootingAvg()) + "</b></td>";
-		htmlOut += "<td><b>" + Math.round(s.getCheckingAvg()) + "</b></td></tr>";
-		htmlOut += "</table></div>";
-		return htmlOut;
+		out.write(AVERAGE_START);
+		for (int skill = 0; skill < Skill.NUM_TYPES; skill++) {
+			out.write(AVERAGE_CELL_START);
+			writeText(Long.toString(Math.round(snapshot.getAverage(count - 1, skill))));
+			out.write(AVERAGE_CELL_END);
+		}
+		out.write(SQUAD_END);
 	}
-
+	
 	/**
 	 * Generate HTML for displaying the waitlist
-	 * @return HTML string for the waitlist
+	 * @throws IOException If writing fails
 	 */
-	public String generateWaitList() {
+	public void generateWaitList() throws IOException {
 		
-		// container for displaying waitlist
-		String htmlOut = "<div class='w3-card-4 w3-round w3-margin w3-myfont "
-				+ "w3-padding-16 w3-white' style='max-width: 50%'>";
-		
-		// heading
-		htmlOut += "<h2 class='w3-myfont'>Wait list</h2>";
+		// container and heading
+		out.write(CARD_START);
+		out.write(WAITLIST_HEADING);
 		
 		// table if waitlist is not empty
-		if (tournament.getWaitList().size() > 0) {
-			htmlOut += "<table class='w3-table w3-centered w3-hoverable "
-					+ "w3-striped' style='max-width: 100%'><tr>";
-			
-			// column headings
-			htmlOut += "<td><b>Player</b></td>";
-			htmlOut += "<td><b>Skating</b></td>";
-			htmlOut += "<td><b>Shooting</b></td>";
-			htmlOut += "<td><b>Checking</b></td></tr>";
+		if (snapshot.getWaitList().size() > 0) {
+			out.write(TABLE_START);
 			
 			// data
-			tournament.sortWaitList();
-			for (Player p : tournament.getWaitList()) {
-				htmlOut += "<tr><td>" + p.getName() + "</td>";
-				htmlOut += "<td>" + p.getSkatingRating() + "</td>";
-				htmlOut += "<td>" + p.getShootingRating() + "</td>";
-				htmlOut += "<td>" + p.getCheckingRating() + "</td></tr>";
+			for (Player p : snapshot.getWaitList()) {
+				generateRow(p);
 			}
-			htmlOut += "</table>";
+			out.write(TABLE_END);
 		}
 		else {
 			// no players on the wait list
-			htmlOut += "<i>Empty</i>";
+			out.write(EMPTY);
 		}
-		htmlOut += "</div>";
-		return htmlOut;
+		out.write(CARD_END);
+	}
+	
+	/**
+	 * Generate HTML for one player's row of a table
+	 * @param p Player to display
+	 * @throws IOException If writing fails
+	 */
+	private void generateRow(Player p) throws IOException {
+		out.write(ROW_START);
+		writeText(p.getName());
+		out.write(CELL_BREAK);
+		writeText(Integer.toString(p.getSkatingRating()));
+		out.write(CELL_BREAK);
+		writeText(Integer.toString(p.getShootingRating()));
+		out.write(CELL_BREAK);
+		writeText(Integer.toString(p.getCheckingRating()));
+		out.write(ROW_END);
 	}
 	
 	/**
-	 * Generate HTML for displaying an error
+	 * Generate HTML for displaying an error, above the waitlist of the current arrangement
 	 * @param error Error text to display
-	 * @return HTML string for an error page
+	 * @throws IOException If writing fails
 	 */
-	public String generateError(String error) {
+	public void generateError(String error) throws IOException {
 		
 		// make top and form
-		String htmlOut = generateTop();
-		htmlOut += generateForm();
-		
-		// container for displaying errors
-		htmlOut += "<div class='w3-panel w3-border w3-border-red w3-round w3-myfont' style='max-width: 50%'>";
+		generateTop();
+		generateForm();
 		
 		// error message
-		htmlOut += "<b>Error:</b> " + error + "</div>";
-		
-		// reset the tournament
-		tournament = new Tournament(players, 1);
+		out.write(ERROR_START);
+		writeText(error);
+		out.write(ERROR_END);
 		
 		// make waitlist and closing tags
-		htmlOut += generateWaitList();
-		htmlOut += generateEnd();
-		return htmlOut;
+		generateWaitList();
+		generateEnd();
 	}
 	
 	/**
 	 * Generate closing tags
-	 * @return HTML string for closing tags
+	 * @throws IOException If writing fails
 	 */
-	public String generateEnd() {
-		return "</center></body></html>";
+	public void generateEnd() throws IOException {
+		out.write(END);
+	}
+	
+	/**
+	 * Write text which changes between pages, as US-ASCII (other characters become '?')
+	 * @param text Text to write
+	 * @throws IOException If writing fails
+	 */
+	private void writeText(String text) throws IOException {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			out.write(c < 0x80 ? c : '?');
+		}
 	}
 }
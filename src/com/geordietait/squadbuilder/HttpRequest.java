@@ -0,0 +1,386 @@
+package com.geordietait.squadbuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.HashMap;
+
+/**
+ * Class for reading an HTTP/1.x request from a connection: the request
+ * line, the headers, a body of Content-Length bytes, and the query
+ * parameters from the URL (and from a url-encoded form body).
+ *
+ * A request which cannot be parsed is still returned, marked as a bad
+ * request, so that the server can answer it before closing the connection.
+ *
+ * @author Geordie Tait
+ *
+ */
+public class HttpRequest {
+
+	// longest request line or header line accepted
+	public static final int MAX_LINE_LENGTH = 8192;
+
+	// most header lines accepted
+	public static final int MAX_HEADERS = 100;
+
+	// largest body accepted
+	public static final int MAX_BODY_LENGTH = 1 << 20;
+
+	// largest request line and headers accepted, in total
+	public static final int MAX_HEADER_LENGTH = 1 << 16;
+
+	// request method (e.g. "GET")
+	private String method = "";
+
+	// request path, without the leading slash or the query (e.g. "make")
+	private String path = "";
+
+	// protocol version (e.g. "HTTP/1.1")
+	private String version = "";
+
+	// header values by lower-case header name
+	private HashMap<String, String> headers = new HashMap<String, String>();
+
+	// decoded query parameters
+	private HashMap<String, String> params = new HashMap<String, String>();
+
+	// request body (empty if there is none)
+	private byte[] body = new byte[0];
+
+	// true if the request could not be parsed
+	private boolean isBadRequest = false;
+
+	/**
+	 * Read the next request from a connection
+	 * @param in Input stream of the connection (should be buffered)
+	 * @return The request, or null if the connection was closed before a new request began
+	 * @throws IOException If reading fails (including read timeouts)
+	 */
+	public static HttpRequest read(InputStream in) throws IOException {
+		HttpRequest request = new HttpRequest();
+
+		// read the request line, skipping blank lines left over from a previous request
+		String line = readLine(in);
+		while (line != null && line.isEmpty())
+			line = readLine(in);
+		if (line == null)
+			return null;
+		if (!request.parseRequestLine(line))
+			return request.badRequest();
+
+		// read the headers up to the blank line
+		for (int count = 0; ; count++) {
+			line = readLine(in);
+			if (line == null || count == MAX_HEADERS)
+				return request.badRequest();
+			if (line.isEmpty())
+				break;
+			int colon = line.indexOf(':');
+			if (colon <= 0)
+				return request.badRequest();
+			String name = line.substring(0, colon).trim().toLowerCase();
+			String value = line.substring(colon + 1).trim();
+
+			// repeated headers are combined into one comma-separated value
+			String previous = request.headers.get(name);
+			request.headers.put(name, previous == null ? value : previous + ", " + value);
+		}
+
+		// HTTP/1.1 requires a host header
+		if (request.version.equals("HTTP/1.1") && !request.headers.containsKey("host"))
+			return request.badRequest();
+
+		// chunked request bodies are not supported
+		if (request.headers.containsKey("transfer-encoding"))
+			return request.badRequest();
+
+		// read the body, if there is one
+		String length = request.headers.get("content-length");
+		if (length != null) {
+			int n;
+			try {
+				n = Integer.parseInt(length);
+			}
+			catch (NumberFormatException e) {
+				return request.badRequest();
+			}
+			if (n < 0 || n > MAX_BODY_LENGTH)
+				return request.badRequest();
+			request.body = new byte[n];
+			for (int read = 0; read < n; ) {
+				int count = in.read(request.body, read, n - read);
+				if (count < 0)
+					return request.badRequest();
+				read += count;
+			}
+
+			// add the fields of a submitted form to the parameters
+			String type = request.headers.get("content-type");
+			if (type != null && type.toLowerCase().startsWith("application/x-www-form-urlencoded"))
+				parseQuery(new String(request.body, "ISO-8859-1"), request.params);
+		}
+
+		return request;
+	}
+
+	/**
+	 * Find where the first request in a buffer of received bytes ends, for
+	 * servers which read without blocking. The header is complete at the
+	 * first blank line, and the body is the Content-Length bytes after it.
+	 * Malformed lengths are left for read() to report as a bad request.
+	 * @param data Received bytes
+	 * @param length Number of received bytes
+	 * @return Length of the first request, 0 if more bytes are needed,
+	 * or -1 if the header is too long to ever be accepted
+	 */
+	public static int getRequestLength(byte[] data, int length) {
+
+		// find the blank line which ends the header
+		int headerEnd = -1;
+		for (int i = 0; i < length && headerEnd < 0; i++) {
+			if (data[i] != '\n')
+				continue;
+			if (i + 1 < length && data[i + 1] == '\n')
+				headerEnd = i + 2;
+			else if (i + 2 < length && data[i + 1] == '\r' && data[i + 2] == '\n')
+				headerEnd = i + 3;
+		}
+		if (headerEnd < 0)
+			return length > MAX_HEADER_LENGTH ? -1 : 0;
+		if (headerEnd > MAX_HEADER_LENGTH)
+			return -1;
+
+		// look for a body length among the header lines
+		int bodyLength = 0;
+		int lineStart = 0;
+		for (int i = 0; i < headerEnd; i++) {
+			if (data[i] != '\n')
+				continue;
+			String line;
+			try {
+				line = new String(data, lineStart, i - lineStart, "ISO-8859-1").trim();
+			}
+			catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+			lineStart = i + 1;
+			int colon = line.indexOf(':');
+			if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("content-length")) {
+				try {
+					bodyLength = Integer.parseInt(line.substring(colon + 1).trim());
+				}
+				catch (NumberFormatException e) {
+					return headerEnd;
+				}
+				if (bodyLength < 0 || bodyLength > MAX_BODY_LENGTH)
+					return headerEnd;
+			}
+		}
+
+		return length - headerEnd >= bodyLength ? headerEnd + bodyLength : 0;
+	}
+
+	/**
+	 * Parse the request line (e.g. "GET /make?squads=4 HTTP/1.1")
+	 * @param line Request line
+	 * @return True if the line is well formed
+	 */
+	private boolean parseRequestLine(String line) {
+		String[] parts = line.split(" ");
+		if (parts.length != 3)
+			return false;
+		method = parts[0];
+		String target = parts[1];
+		version = parts[2];
+		if (method.isEmpty() || !target.startsWith("/")
+				|| !(version.equals("HTTP/1.1") || version.equals("HTTP/1.0")))
+			return false;
+
+		// split the target into the path and the query
+		int query = target.indexOf('?');
+		if (query < 0) {
+			path = target.substring(1);
+		}
+		else {
+			path = target.substring(1, query);
+			parseQuery(target.substring(query + 1), params);
+		}
+		return true;
+	}
+
+	/**
+	 * Mark this request as bad
+	 * @return This request
+	 */
+	private HttpRequest badRequest() {
+		isBadRequest = true;
+		return this;
+	}
+
+	/**
+	 * Read a line ending in CRLF (or a bare LF) as ISO-8859-1 text
+	 * @param in Input stream
+	 * @return The line without its ending, or null at the end of the stream
+	 * @throws IOException If reading fails or the line is too long
+	 */
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = in.read()) >= 0) {
+			if (c == '\n') {
+				int end = line.length();
+				if (end > 0 && line.charAt(end - 1) == '\r')
+					line.setLength(end - 1);
+				return line.toString();
+			}
+			if (line.length() == MAX_LINE_LENGTH)
+				throw new IOException("Request line too long");
+			line.append((char) c);
+		}
+		return line.length() == 0 ? null : line.toString();
+	}
+
+	/**
+	 * Parse url-encoded parameters (e.g. "squads=4&seed=7") into a map
+	 * @param query Encoded parameters
+	 * @param params Map to put the decoded parameter names and values in
+	 */
+	public static void parseQuery(String query, HashMap<String, String> params) {
+		for (String pair : query.split("&")) {
+			int split = pair.indexOf('=');
+			if (split <= 0)
+				continue;
+			try {
+				params.put(URLDecoder.decode(pair.substring(0, split), "UTF-8"),
+						URLDecoder.decode(pair.substring(split + 1), "UTF-8"));
+			}
+			catch (UnsupportedEncodingException | IllegalArgumentException e) {
+				// skip malformed parameters
+			}
+		}
+	}
+
+	/**
+	 * Check if the connection should stay open after this request: by default
+	 * for HTTP/1.1, and only if asked for with HTTP/1.0
+	 * @return True if the client wants a persistent connection
+	 */
+	public boolean isKeepAlive() {
+		String connection = getHeader("connection");
+		if (connection != null) {
+			for (String option : connection.split(",")) {
+				if (option.trim().equalsIgnoreCase("close"))
+					return false;
+				if (option.trim().equalsIgnoreCase("keep-alive"))
+					return true;
+			}
+		}
+		return version.equals("HTTP/1.1");
+	}
+
+	/**
+	 * Check if the client can read a body sent with chunked transfer encoding
+	 * @return True for HTTP/1.1
+	 */
+	public boolean acceptsChunked() {
+		return version.equals("HTTP/1.1");
+	}
+
+	/**
+	 * Check if the client accepts a content coding, from the Accept-Encoding
+	 * header (a coding listed with q=0 is refused)
+	 * @param coding Content coding (e.g. "gzip")
+	 * @return True if the client accepts the coding
+	 */
+	public boolean acceptsEncoding(String coding) {
+		String accept = getHeader("accept-encoding");
+		if (accept == null)
+			return false;
+		boolean accepted = false;
+		for (String option : accept.split(",")) {
+			String[] parts = option.split(";");
+			String name = parts[0].trim();
+			if (!name.equalsIgnoreCase(coding) && !name.equals("*"))
+				continue;
+
+			// read the quality value, if there is one
+			double quality = 1.0;
+			for (int i = 1; i < parts.length; i++) {
+				String param = parts[i].trim();
+				if (param.startsWith("q=")) {
+					try {
+						quality = Double.parseDouble(param.substring(2));
+					}
+					catch (NumberFormatException e) {
+						quality = 0.0;
+					}
+				}
+			}
+
+			// an exact match overrides the wildcard
+			if (name.equalsIgnoreCase(coding))
+				return quality > 0.0;
+			accepted = quality > 0.0;
+		}
+		return accepted;
+	}
+
+	/**
+	 * Check if the request could not be parsed
+	 * @return True if bad request
+	 */
+	public boolean isBadRequest() {
+		return isBadRequest;
+	}
+
+	/**
+	 * Get the request method
+	 * @return Method (e.g. "GET")
+	 */
+	public String getMethod() {
+		return method;
+	}
+
+	/**
+	 * Get the request path
+	 * @return Path without the leading slash or the query (e.g. "make")
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * Get the protocol version
+	 * @return Version (e.g. "HTTP/1.1")
+	 */
+	public String getVersion() {
+		return version;
+	}
+
+	/**
+	 * Get the value of a header
+	 * @param name Header name (any case)
+	 * @return Header value, or null if the header is missing
+	 */
+	public String getHeader(String name) {
+		return headers.get(name.toLowerCase());
+	}
+
+	/**
+	 * Get the decoded query parameters
+	 * @return Map of parameter names to values
+	 */
+	public HashMap<String, String> getParams() {
+		return params;
+	}
+
+	/**
+	 * Get the request body
+	 * @return Body bytes (empty if there is none)
+	 */
+	public byte[] getBody() {
+		return body;
+	}
+}
@@ -0,0 +1,451 @@
+package com.geordietait.squadbuilder;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Class for an HTTP response: a status, headers, and a body which is
+ * either held in memory, read from a file when it is sent, or streamed
+ * after the header has been sent.
+ *
+ * A body generated in one go, such as a page, is written by a BodyWriter
+ * straight to the connection, so writing it waits whenever the client is
+ * slow to take it and the body is never held in memory whole. It is sent
+ * with chunked transfer encoding where the client understands it, so the
+ * connection can be kept open after it, and otherwise runs until the
+ * connection closes. A body made of events over time, such as the
+ * progress of a job, is pushed by a Producer from whichever thread has
+ * the next event, without waiting, and runs until the connection closes.
+ *
+ * The response does not depend on how it is sent, so the blocking server
+ * can write it to a stream while the selector server writes the header
+ * and body to a channel as it becomes writable.
+ *
+ * @author Geordie Tait
+ *
+ */
+public class HttpResponse {
+
+	// status code and reason (e.g. "200 OK")
+	private String status;
+
+	// extra header lines (e.g. "Last-Modified: ...")
+	private ArrayList<String> headers = new ArrayList<String>();
+
+	// body held in memory (empty if the body is a file)
+	private byte[] body = new byte[0];
+
+	// file to send as the body (null if the body is in memory)
+	private File file;
+
+	// true if the connection will stay open after this response
+	private boolean keepAlive;
+
+	// true if only the header is sent (for HEAD requests)
+	private boolean headOnly;
+
+	// producer of a streamed body (null if the body is in memory or a file)
+	private Producer producer;
+
+	// writer of a streamed body (null if the body is in memory or a file)
+	private BodyWriter writer;
+
+	// true if the written body is sent in chunks
+	private boolean chunked;
+
+	/**
+	 * Constructor for HttpResponse
+	 * @param status Status code and reason (e.g. "200 OK")
+	 * @param keepAlive True if the connection will stay open after this response
+	 */
+	public HttpResponse(String status, boolean keepAlive) {
+		this.status = status;
+		this.keepAlive = keepAlive;
+	}
+
+	/**
+	 * Add a header
+	 * @param name Header name
+	 * @param value Header value
+	 */
+	public void addHeader(String name, String value) {
+		headers.add(name + ": " + value);
+	}
+
+	/**
+	 * Set a body held in memory
+	 * @param body Body bytes
+	 */
+	public void setBody(byte[] body) {
+		this.body = body;
+		file = null;
+		producer = null;
+		writer = null;
+		chunked = false;
+	}
+
+	/**
+	 * Set a file to send as the body
+	 * @param file File to send
+	 */
+	public void setFile(File file) {
+		this.file = file;
+		body = new byte[0];
+		producer = null;
+		writer = null;
+		chunked = false;
+	}
+
+	/**
+	 * Stream the body from a producer once the header is sent. The length is
+	 * not known in advance, so the body runs until the connection closes.
+	 * @param producer Producer of the body
+	 */
+	public void setProducer(Producer producer) {
+		this.producer = producer;
+		body = new byte[0];
+		file = null;
+		writer = null;
+		chunked = false;
+		keepAlive = false;
+	}
+
+	/**
+	 * Stream the body from a writer once the header is sent, in chunks if the
+	 * client understands them (HTTP/1.1). Otherwise the body runs until the
+	 * connection closes.
+	 * @param writer Writer of the body
+	 * @param chunked True to send the body with chunked transfer encoding
+	 */
+	public void setWriter(BodyWriter writer, boolean chunked) {
+		this.writer = writer;
+		this.chunked = chunked;
+		body = new byte[0];
+		file = null;
+		producer = null;
+		keepAlive = keepAlive && chunked;
+	}
+
+	/**
+	 * Write a body from a writer to the connection, framing it in chunks and
+	 * ending it with the last chunk if the body is chunked. The connection's
+	 * stream is flushed but not closed.
+	 * @param out Stream of the connection
+	 * @throws IOException If writing fails, in which case the body is incomplete and the
+	 * connection must be closed
+	 */
+	public void writeBody(OutputStream out) throws IOException {
+		if (chunked) {
+			ChunkedOutputStream chunks = new ChunkedOutputStream(out);
+			writer.writeBody(chunks);
+			chunks.finish();
+		}
+		else {
+			writer.writeBody(out);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Send only the header, as for a HEAD request (the Content-Length is kept)
+	 * @param headOnly True to leave out the body
+	 */
+	public void setHeadOnly(boolean headOnly) {
+		this.headOnly = headOnly;
+	}
+
+	/**
+	 * Get the status
+	 * @return Status code and reason (e.g. "200 OK")
+	 */
+	public String getStatus() {
+		return status;
+	}
+
+	/**
+	 * Get the value of a header added to this response
+	 * @param name Header name (case-insensitive)
+	 * @return Value, or null if there is no such header
+	 */
+	public String getHeader(String name) {
+		for (String line : headers) {
+			int colon = line.indexOf(':');
+			if (line.substring(0, colon).equalsIgnoreCase(name))
+				return line.substring(colon + 2);
+		}
+		return null;
+	}
+
+	/**
+	 * Get the body held in memory
+	 * @return Body bytes (empty if the body is a file)
+	 */
+	public byte[] getBody() {
+		return body;
+	}
+
+	/**
+	 * Get the file to send as the body
+	 * @return File, or null if the body is in memory
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Get the producer of a streamed body
+	 * @return Producer, or null if the body is in memory or a file
+	 */
+	public Producer getProducer() {
+		return producer;
+	}
+
+	/**
+	 * Get the writer of a streamed body
+	 * @return Writer, or null if the body is in memory, a file, or pushed by a producer
+	 */
+	public BodyWriter getWriter() {
+		return writer;
+	}
+
+	/**
+	 * Check if the written body is sent in chunks
+	 * @return True if chunked
+	 */
+	public boolean isChunked() {
+		return chunked;
+	}
+
+	/**
+	 * Check if the connection stays open after this response
+	 * @return True if keep-alive
+	 */
+	public boolean isKeepAlive() {
+		return keepAlive;
+	}
+
+	/**
+	 * Check if only the header is sent
+	 * @return True if the body is left out
+	 */
+	public boolean isHeadOnly() {
+		return headOnly;
+	}
+
+	/**
+	 * Get the length of the body
+	 * @return Length in bytes
+	 */
+	public long getContentLength() {
+		return file != null ? file.length() : body.length;
+	}
+
+	/**
+	 * Generate the status line and headers
+	 * @return Header bytes, ending with the blank line
+	 */
+	public byte[] getHeaderBytes() {
+		StringBuilder header = new StringBuilder("HTTP/1.1 ");
+		header.append(status).append("\r\n");
+
+		// server name and version
+		header.append("Server: SquadBuilder/1.0\r\n");
+
+		for (String line : headers)
+			header.append(line).append("\r\n");
+
+		// the length is sent, so the client knows where the response ends
+		// (a 304 Not Modified has no body, and describes the client's copy instead,
+		// and a streamed body ends with an empty chunk or when the connection closes)
+		if (!status.startsWith("304") && producer == null && writer == null)
+			header.append("Content-Length: ").append(getContentLength()).append("\r\n");
+		else if (chunked)
+			header.append("Transfer-Encoding: chunked\r\n");
+
+		if (keepAlive)
+			header.append("Connection: keep-alive\r\nKeep-Alive: timeout=")
+					.append(WebServer.KEEP_ALIVE_TIMEOUT / 1000).append("\r\n\r\n");
+		else
+			header.append("Connection: close\r\n\r\n");
+
+		try {
+			return header.toString().getBytes("US-ASCII");
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Write the whole response to a stream (only the header, if the body is pushed
+	 * by a producer)
+	 * @param out Output stream of the connection
+	 * @throws IOException If writing fails
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(getHeaderBytes());
+		if (headOnly || producer != null)
+			return;
+
+		// write a streamed body as it is generated
+		if (writer != null) {
+			writeBody(out);
+			return;
+		}
+
+		// send file if applicable
+		if (file != null) {
+			byte[] bytes = new byte[16384];
+			BufferedInputStream fBuffer = new BufferedInputStream(new FileInputStream(file));
+			try {
+				int n;
+				while ((n = fBuffer.read(bytes)) > 0)
+					out.write(bytes, 0, n);
+			}
+			finally {
+				fBuffer.close();
+			}
+		}
+
+		// otherwise send the body from memory
+		else {
+			out.write(body);
+		}
+	}
+
+	/**
+	 * Class for a stream which collects a body into chunks of up to
+	 * CHUNK_SIZE bytes, framing each one in place so it goes to the
+	 * connection in a single write
+	 *
+	 * @author Geordie Tait
+	 *
+	 */
+	private static class ChunkedOutputStream extends OutputStream {
+
+		// most bytes of body in each chunk
+		private static final int CHUNK_SIZE = 8192;
+
+		// the last chunk, which ends the body
+		private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+		// room before the body for the size line (up to 4 hex digits and CRLF)
+		private static final int SIZE_ROOM = 6;
+
+		// stream of the connection
+		private OutputStream out;
+
+		// the chunk being filled, with room for its size line before and CRLF after
+		private byte[] chunk = new byte[SIZE_ROOM + CHUNK_SIZE + 2];
+
+		// number of bytes of body in the chunk
+		private int count;
+
+		/**
+		 * Constructor for ChunkedOutputStream
+		 * @param out Stream of the connection
+		 */
+		ChunkedOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (count == CHUNK_SIZE)
+				writeChunk();
+			chunk[SIZE_ROOM + count++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (count == CHUNK_SIZE)
+					writeChunk();
+				int n = Math.min(len, CHUNK_SIZE - count);
+				System.arraycopy(b, off, chunk, SIZE_ROOM + count, n);
+				count += n;
+				off += n;
+				len -= n;
+			}
+		}
+
+		/**
+		 * Send the bytes written so far as a chunk
+		 * @throws IOException If writing fails
+		 */
+		@Override
+		public void flush() throws IOException {
+			writeChunk();
+			out.flush();
+		}
+
+		/**
+		 * Send the bytes written so far, then the last chunk which ends the body
+		 * @throws IOException If writing fails
+		 */
+		void finish() throws IOException {
+			writeChunk();
+			out.write(LAST_CHUNK);
+		}
+
+		/**
+		 * Frame the bytes written so far and write them as one chunk
+		 * @throws IOException If writing fails
+		 */
+		private void writeChunk() throws IOException {
+			// an empty chunk would end the body
+			if (count == 0)
+				return;
+			byte[] size = Integer.toHexString(count).getBytes(StandardCharsets.US_ASCII);
+			int start = SIZE_ROOM - size.length - 2;
+			System.arraycopy(size, 0, chunk, start, size.length);
+			chunk[SIZE_ROOM - 2] = '\r';
+			chunk[SIZE_ROOM - 1] = '\n';
+			chunk[SIZE_ROOM + count] = '\r';
+			chunk[SIZE_ROOM + count + 1] = '\n';
+			out.write(chunk, start, SIZE_ROOM + count + 2 - start);
+			count = 0;
+		}
+	}
+
+	/**
+	 * Interface for the writer of a streamed body
+	 *
+	 * @author Geordie Tait
+	 *
+	 */
+	public interface BodyWriter {
+
+		/**
+		 * Write the whole body, once the header has been sent. Writing blocks while
+		 * the client is slow to take the body. The stream buffers what is written,
+		 * so small writes are cheap; anything the writer buffers itself (such as a
+		 * Writer's encoder) must be flushed into it, but it must not be closed.
+		 * @param out Stream to write the body to
+		 * @throws IOException If writing fails (for example because the client has gone away)
+		 */
+		void writeBody(OutputStream out) throws IOException;
+	}
+
+	/**
+	 * Interface for the source of a streamed body which is pushed a piece at a time
+	 *
+	 * @author Geordie Tait
+	 *
+	 */
+	public interface Producer {
+
+		/**
+		 * Start producing the body, once the header has been sent. The producer
+		 * keeps the stream and closes it when the body is complete.
+		 * @param stream Stream to send the body to
+		 */
+		void start(ResponseStream stream);
+	}
+}
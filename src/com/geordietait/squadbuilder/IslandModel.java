@@ -0,0 +1,373 @@
+package com.geordietait.squadbuilder;
+
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Class for running the genetic algorithm as an island model.
+ *
+ * Several independent populations (islands) evolve in parallel, one task
+ * per island on a shared thread pool. Every few generations the islands
+ * stop at a barrier and the best individual of each island migrates to
+ * the next island in a ring, replacing its lowest-fitness individual.
+ * Migration spreads good solutions while keeping the islands diverse.
+ *
+ * @author Geordie Tait
+ *
+ */
+public class IslandModel implements SearchProgress {
+
+	// default number of generations between migrations
+	public static final int DEFAULT_MIGRATION_INTERVAL = 25;
+
+	// shared pool for evolving islands, sized to the available processors
+	private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+	// the populations being evolved
+	private Population[] islands;
+
+	// the number of generations between migrations
+	private int migrationInterval;
+
+	// the pool that evolves the islands
+	private ExecutorService pool;
+
+	// the time the current run started
+	private volatile long startTime;
+
+	// the best variance found on any island so far
+	private volatile double bestVariance;
+
+	// the island generation in which the best variance last improved
+	private volatile int lastImprovement;
+
+	// the island generation reached at the last migration
+	private volatile int lastMigration;
+
+	// listener told of the progress of each run (null for none)
+	private ProgressListener listener;
+
+	// number of generations between progress reports
+	private int reportInterval;
+
+	/**
+	 * Constructor for an island model with one island per available processor
+	 * @param players Players object
+	 * @param numSquads Desired number of squads
+	 * @param maxPop Maximum population per generation on each island
+	 */
+	public IslandModel(Players players, int numSquads, int maxPop) {
+		this(players, numSquads, maxPop, Runtime.getRuntime().availableProcessors(),
+				DEFAULT_MIGRATION_INTERVAL);
+	}
+
+	/**
+	 * Main constructor
+	 * @param players Players object
+	 * @param numSquads Desired number of squads
+	 * @param maxPop Maximum population per generation on each island
+	 * @param numIslands Number of islands to evolve in parallel
+	 * @param migrationInterval Number of generations between migrations
+	 */
+	public IslandModel(Players players, int numSquads, int maxPop, int numIslands, int migrationInterval) {
+		this(players, numSquads, maxPop, numIslands, migrationInterval, new SplittableRandom(), new Seeder());
+	}
+
+	/**
+	 * Constructor for a reproducible island model: the same seed, island
+	 * count and number of generations always produce the same result
+	 * @param players Players object
+	 * @param numSquads Desired number of squads
+	 * @param maxPop Maximum population per generation on each island
+	 * @param numIslands Number of islands to evolve in parallel
+	 * @param migrationInterval Number of generations between migrations
+	 * @param seed Seed for the random number generators
+	 */
+	public IslandModel(Players players, int numSquads, int maxPop, int numIslands, int migrationInterval,
+			long seed) {
+		this(players, numSquads, maxPop, numIslands, migrationInterval, new SplittableRandom(seed), new Seeder());
+	}
+
+	/**
+	 * Constructor for a reproducible island model seeded with a given mix of strategies
+	 * @param players Players object
+	 * @param numSquads Desired number of squads
+	 * @param maxPop Maximum population per generation on each island
+	 * @param numIslands Number of islands to evolve in parallel
+	 * @param migrationInterval Number of generations between migrations
+	 * @param seed Seed for the random number generators
+	 * @param seeding Mix of strategies for new individuals
+	 */
+	public IslandModel(Players players, int numSquads, int maxPop, int numIslands, int migrationInterval,
+			long seed, Seeder seeding) {
+		this(players, numSquads, maxPop, numIslands, migrationInterval, new SplittableRandom(seed), seeding);
+	}
+
+	/**
+	 * Constructor for an island model drawing from a given random number generator
+	 * @param players Players object
+	 * @param numSquads Desired number of squads
+	 * @param maxPop Maximum population per generation on each island
+	 * @param numIslands Number of islands to evolve in parallel
+	 * @param migrationInterval Number of generations between migrations
+	 * @param rand Random number generator, split into one per island
+	 * @param seeding Mix of strategies for new individuals
+	 */
+	private IslandModel(Players players, int numSquads, int maxPop, int numIslands, int migrationInterval,
+			SplittableRandom rand, Seeder seeding) {
+		this.migrationInterval = Math.max(1, migrationInterval);
+		pool = POOL;
+		islands = new Population[Math.max(1, numIslands)];
+		for (int i = 0; i < islands.length; i++)
+			islands[i] = new Population(players, numSquads, maxPop, rand.split(), seeding);
+		startTime = System.currentTimeMillis();
+		bestVariance = getBest().getVariance();
+	}
+
+	/**
+	 * Get the size and activity of the pool shared by every island model. The thread
+	 * which runs a model only waits while its islands evolve, so this is where the
+	 * genetic algorithm's processors are used.
+	 * @return Status report with one "name=value" pair per line
+	 */
+	public static String getPoolStatus() {
+		return "islands.maxThreads=" + POOL.getParallelism() + "\n"
+				+ "islands.threads=" + POOL.getPoolSize() + "\n"
+				+ "islands.active=" + POOL.getActiveThreadCount() + "\n"
+				+ "islands.queued=" + POOL.getQueuedSubmissionCount() + "\n";
+	}
+
+	/**
+	 * Get the islands being evolved
+	 * @return Array of populations
+	 */
+	public Population[] getIslands() {
+		return islands;
+	}
+
+	/**
+	 * Get the total number of generations produced across all islands
+	 * @return Generation count
+	 */
+	public int getGenerations() {
+		int result = 0;
+		for (Population p : islands)
+			result += p.getGeneration();
+		return result;
+	}
+
+	/**
+	 * Get the number of generations produced by the furthest evolved island
+	 * @return Generation count
+	 */
+	@Override
+	public int getGeneration() {
+		int result = 0;
+		for (Population p : islands)
+			result = Math.max(result, p.getGeneration());
+		return result;
+	}
+
+	/**
+	 * Get the time since the current run started
+	 * @return Elapsed time in milliseconds
+	 */
+	@Override
+	public long getElapsedMillis() {
+		return System.currentTimeMillis() - startTime;
+	}
+
+	/**
+	 * Get the best variance found on any island, as of the last migration
+	 * @return Best variance
+	 */
+	@Override
+	public double getBestVariance() {
+		return bestVariance;
+	}
+
+	/**
+	 * Get the number of island generations since the best variance last improved,
+	 * as of the last migration
+	 * @return Number of generations without improvement
+	 */
+	@Override
+	public int getStagnantGenerations() {
+		return lastMigration - lastImprovement;
+	}
+
+	/**
+	 * Get the best individual across all islands
+	 * @return Best tournament found so far
+	 */
+	public Tournament getBest() {
+		Tournament best = islands[0].getBest();
+		for (int i = 1; i < islands.length; i++) {
+			if (islands[i].getBest().getVariance() < best.getVariance())
+				best = islands[i].getBest();
+		}
+		return best;
+	}
+
+	/**
+	 * Set a listener to be told of the progress of each run. Reports are made
+	 * at migrations, while the islands are stopped, so the interval is rounded
+	 * up to a whole number of migration intervals.
+	 * @param listener Listener (null for none)
+	 * @param interval Number of generations between reports
+	 */
+	public void setProgressListener(ProgressListener listener, int interval) {
+		this.listener = listener;
+		this.reportInterval = interval;
+	}
+
+	/**
+	 * Run the islands in parallel for a set amount of time
+	 * @param milliseconds How many ms to run for
+	 * @return The best tournament found on any island
+	 */
+	public Tournament evolve(int milliseconds) {
+		evolve(StoppingCriterion.timeLimit(milliseconds));
+		return getBest();
+	}
+
+	/**
+	 * Run the islands in parallel until any of the given criteria is met.
+	 * The criteria are checked against the whole model: islands check them
+	 * between generations, and the best variance is updated at each migration.
+	 * With a seed and a generation budget the result is reproducible.
+	 * @param criteria Stopping criteria (at least one)
+	 * @return The criterion which ended the run, or null if the run was interrupted
+	 */
+	public StoppingCriterion evolve(final StoppingCriterion... criteria) {
+		if (criteria.length == 0)
+			throw new IllegalArgumentException("At least one stopping criterion is required");
+		startTime = System.currentTimeMillis();
+		lastImprovement = getGeneration();
+		lastMigration = lastImprovement;
+		int lastReport = -1;
+
+		// one task per island, each running until the next migration
+		ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (final Population island : islands) {
+			final IslandProgress progress = new IslandProgress(island);
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					for (int i = 0; i < migrationInterval && getMetCriterion(criteria, progress) == null; i++)
+						island.nextGeneration();
+					return null;
+				}
+			});
+		}
+
+		while (true) {
+			if (listener != null && (lastReport < 0 || lastMigration - lastReport >= reportInterval)) {
+				lastReport = lastMigration;
+				listener.onProgress(this, getBest());
+			}
+			StoppingCriterion met = getMetCriterion(criteria, this);
+			if (met != null)
+				return met;
+
+			// evolve every island up to the barrier
+			try {
+				for (Future<Void> f : pool.invokeAll(tasks))
+					f.get();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+			catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+
+			// track improvements to the best individual
+			lastMigration = getGeneration();
+			double best = getBest().getVariance();
+			if (best < bestVariance) {
+				bestVariance = best;
+				lastImprovement = lastMigration;
+			}
+
+			// migrate
+			migrate();
+		}
+	}
+
+	/**
+	 * Find the first of the given criteria which is met
+	 * @param criteria Stopping criteria
+	 * @param progress Progress to check the criteria against
+	 * @return The criterion which is met, or null if none are
+	 */
+	private static StoppingCriterion getMetCriterion(StoppingCriterion[] criteria, SearchProgress progress) {
+		for (StoppingCriterion c : criteria) {
+			if (c.isMet(progress))
+				return c;
+		}
+		return null;
+	}
+
+	/**
+	 * Progress of the model as seen from one island while it evolves between
+	 * migrations: generations are counted on the island itself, so that
+	 * generation budgets do not depend on how the islands are scheduled
+	 * @author Geordie Tait
+	 *
+	 */
+	private class IslandProgress implements SearchProgress {
+
+		// the island being evolved
+		private Population island;
+
+		/**
+		 * Constructor for IslandProgress
+		 * @param island The island being evolved
+		 */
+		IslandProgress(Population island) {
+			this.island = island;
+		}
+
+		@Override
+		public long getElapsedMillis() {
+			return IslandModel.this.getElapsedMillis();
+		}
+
+		@Override
+		public int getGeneration() {
+			return island.getGeneration();
+		}
+
+		@Override
+		public double getBestVariance() {
+			return IslandModel.this.getBestVariance();
+		}
+
+		@Override
+		public int getStagnantGenerations() {
+			return IslandModel.this.getStagnantGenerations();
+		}
+	}
+
+	/**
+	 * Send the best individual of each island to the next island in the ring
+	 */
+	private void migrate() {
+		if (islands.length < 2) return;
+
+		// pick all the migrants before any island changes
+		Tournament[] migrants = new Tournament[islands.length];
+		for (int i = 0; i < islands.length; i++)
+			migrants[i] = islands[i].getBest();
+
+		for (int i = 0; i < islands.length; i++)
+			islands[(i + 1) % islands.length].immigrate(migrants[i]);
+	}
+}
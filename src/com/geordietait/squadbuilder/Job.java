@@ -0,0 +1,325 @@
+package com.geordietait.squadbuilder;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Class for an optimisation which runs in the background while clients
+ * poll its status or follow its progress.
+ *
+ * The job runs on the CPU pool and listens to its solver: every few
+ * generations it records the best variance and squads so far, and pushes
+ * them as a Server-Sent Event to each client following the job. When the
+ * solver stops, a final event carries the finished squads and the streams
+ * are closed. A client which starts following part way through is sent
+ * the latest progress at once.
+ *
+ * @author Geordie Tait
+ *
+ */
+public class Job implements Runnable, ProgressListener, HttpResponse.Producer {
+
+	// least time between progress events, so fast solvers do not flood the clients
+	public static final long MIN_EVENT_INTERVAL = 50;
+
+	/**
+	 * Stages of a job
+	 */
+	public enum State {
+		// waiting for a thread on the CPU pool
+		QUEUED,
+
+		// the solver is running
+		RUNNING,
+
+		// the solver has finished and the result is ready
+		DONE,
+
+		// the solver failed
+		FAILED
+	}
+
+	// identifier of the job
+	private String id;
+
+	// players to arrange
+	private Players players;
+
+	// number of squads, solver and seed
+	private MakeOptions options;
+
+	// stopping criteria for the solver
+	private StoppingCriterion[] criteria;
+
+	// number of generations between progress reports
+	private int reportInterval;
+
+	// the current stage
+	private volatile State state = State.QUEUED;
+
+	// the times the job started and finished
+	private long startedAt;
+	private volatile long finishedAt;
+
+	// progress as of the latest report
+	private int generation;
+	private double bestVariance = Double.NaN;
+	private long elapsedMillis;
+
+	// the best arrangement found (null until the job is done)
+	private TournamentSnapshot result;
+
+	// description of the criterion which stopped the solver
+	private String stoppedBy;
+
+	// description of the failure, if the solver failed
+	private String error;
+
+	// the latest progress event, sent to clients as they start following
+	private byte[] lastEvent;
+
+	// the time the latest progress event was made (only used by the solver thread)
+	private long lastEventTime;
+
+	// the event which ends the stream, once the job has finished
+	private byte[] finalEvent;
+
+	// streams of the clients following the job
+	private ArrayList<ResponseStream> followers = new ArrayList<ResponseStream>();
+
+	/**
+	 * Constructor for Job
+	 * @param id Identifier of the job
+	 * @param players Players to arrange
+	 * @param options Number of squads, solver and seed
+	 * @param reportInterval Number of generations between progress reports
+	 * @param criteria Stopping criteria for the solver
+	 */
+	public Job(String id, Players players, MakeOptions options, int reportInterval, StoppingCriterion... criteria) {
+		this.id = id;
+		this.players = players;
+		this.options = options;
+		this.reportInterval = Math.max(1, reportInterval);
+		this.criteria = criteria;
+	}
+
+	/* Run method for the job, on a thread of the CPU pool
+	 *
+	 * (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		synchronized (this) {
+			startedAt = System.currentTimeMillis();
+			state = State.RUNNING;
+		}
+		try {
+			Solver solver = options.newSolver();
+			solver.setProgressListener(this, reportInterval);
+			Tournament best = solver.solve(players, options.getNumSquads(), criteria);
+			finish(State.DONE, TournamentSnapshot.of(best), String.valueOf(solver.getStoppedBy()), null);
+		}
+		catch (RuntimeException e) {
+			finish(State.FAILED, null, null, e.toString());
+		}
+		catch (Error e) {
+			// end the job for its followers, then let the pool see the error
+			finish(State.FAILED, null, null, e.toString());
+			throw e;
+		}
+	}
+
+	@Override
+	public void onProgress(SearchProgress progress, Tournament best) {
+		long now = System.currentTimeMillis();
+		if (lastEventTime != 0 && now - lastEventTime < MIN_EVENT_INTERVAL)
+			return;
+		lastEventTime = now;
+
+		// describe the progress on the solver's thread, while the tournament is not changing
+		StringWriter json = new StringWriter();
+		try {
+			JsonWriter writer = new JsonWriter(json);
+			writer.beginObject();
+			writer.name("generation").value(progress.getGeneration());
+			writer.name("bestVariance").value(progress.getBestVariance());
+			writer.name("elapsedMillis").value(progress.getElapsedMillis());
+			writeTournament(writer, TournamentSnapshot.of(best));
+			writer.endObject();
+			writer.close();
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		byte[] event = toEvent("progress", json.toString());
+
+		synchronized (this) {
+			generation = progress.getGeneration();
+			bestVariance = progress.getBestVariance();
+			elapsedMillis = progress.getElapsedMillis();
+			lastEvent = event;
+			Iterator<ResponseStream> it = followers.iterator();
+			while (it.hasNext()) {
+				if (!it.next().send(event))
+					it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Start following the job: send the latest progress, then each event as it
+	 * happens, until the final event ends the stream
+	 * @param stream Stream to send the events to
+	 */
+	@Override
+	public synchronized void start(ResponseStream stream) {
+		if (lastEvent != null && !stream.send(lastEvent))
+			return;
+		if (finalEvent != null) {
+			stream.send(finalEvent);
+			stream.close();
+		}
+		else {
+			followers.add(stream);
+		}
+	}
+
+	/**
+	 * Record the end of the job and send the final event to the clients following it
+	 * @param state DONE or FAILED
+	 * @param result Best arrangement found, or null if the job failed
+	 * @param stoppedBy Description of the criterion which stopped the solver
+	 * @param error Description of the failure, or null if the job succeeded
+	 */
+	private synchronized void finish(State state, TournamentSnapshot result, String stoppedBy, String error) {
+		this.result = result;
+		this.stoppedBy = stoppedBy;
+		this.error = error;
+		if (result != null)
+			bestVariance = result.getVariance();
+		finishedAt = System.currentTimeMillis();
+		elapsedMillis = finishedAt - startedAt;
+		this.state = state;
+
+		finalEvent = toEvent(state == State.DONE ? "done" : "failed", toJson(result != null));
+		for (ResponseStream stream : followers) {
+			stream.send(finalEvent);
+			stream.close();
+		}
+		followers.clear();
+	}
+
+	/**
+	 * Describe the job as JSON
+	 * @param withResult True to include the squads and waitlist, if the job is done
+	 * @return JSON object with the status of the job
+	 */
+	public synchronized String toJson(boolean withResult) {
+		StringWriter json = new StringWriter();
+		try {
+			JsonWriter writer = new JsonWriter(json);
+			writer.beginObject();
+			writer.name("id").value(id);
+			writer.name("state").value(state.name().toLowerCase());
+			writer.name("numSquads").value(options.getNumSquads());
+			writer.name("solver").value(options.getSolver());
+			writer.name("seed").value(options.getSeed());
+			writer.name("generation").value(generation);
+			if (Double.isNaN(bestVariance))
+				writer.name("bestVariance").nullValue();
+			else
+				writer.name("bestVariance").value(bestVariance);
+			writer.name("elapsedMillis").value(elapsedMillis);
+			if (stoppedBy != null)
+				writer.name("stoppedBy").value(stoppedBy);
+			if (error != null)
+				writer.name("error").value(error);
+			if (withResult && result != null)
+				writeTournament(writer, result);
+			writer.endObject();
+			writer.close();
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return json.toString();
+	}
+
+	/**
+	 * Write the squads and waitlist of an arrangement as the names of their players
+	 * @param writer Writer inside a JSON object
+	 * @param t Arrangement to write
+	 * @throws IOException If writing fails
+	 */
+	private static void writeTournament(JsonWriter writer, TournamentSnapshot t) throws IOException {
+		writer.name("squads").beginArray();
+		for (List<Player> squad : t.getSquads()) {
+			writer.beginArray();
+			for (Player p : squad)
+				writer.value(p.getName());
+			writer.endArray();
+		}
+		writer.endArray();
+		writer.name("waitList").beginArray();
+		for (Player p : t.getWaitList())
+			writer.value(p.getName());
+		writer.endArray();
+	}
+
+	/**
+	 * Make a Server-Sent Event
+	 * @param name Event name
+	 * @param data Event data (JSON on a single line)
+	 * @return Event bytes, ending with the blank line
+	 */
+	private static byte[] toEvent(String name, String data) {
+		return ("event: " + name + "\ndata: " + data + "\n\n").getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Get the identifier of the job
+	 * @return Job ID
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Get the current stage of the job
+	 * @return State
+	 */
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * Check if the job has finished, successfully or not
+	 * @return True if done or failed
+	 */
+	public boolean isFinished() {
+		return state == State.DONE || state == State.FAILED;
+	}
+
+	/**
+	 * Get the time the job finished
+	 * @return Time in milliseconds, or 0 if the job has not finished
+	 */
+	public long getFinishedAt() {
+		return finishedAt;
+	}
+
+	/**
+	 * Get the best arrangement found
+	 * @return Snapshot, or null if the job is not done
+	 */
+	public synchronized TournamentSnapshot getResult() {
+		return result;
+	}
+}
@@ -0,0 +1,210 @@
+package com.geordietait.squadbuilder;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Class for the optimisation jobs of the server, and the /jobs requests
+ * which start and follow them:
+ *
+ * POST /jobs?squads=N starts a job on the CPU pool and answers at once with
+ * 202 Accepted, the job's status and its location (the solver and seed
+ * options of /make are accepted too, and "every" sets the number of
+ * generations between progress reports).
+ * GET /jobs/ID returns the status of the job as JSON.
+ * GET /jobs/ID/events streams the progress as Server-Sent Events, ending
+ * with a "done" (or "failed") event which carries the finished squads.
+ * GET /jobs/ID/result returns the status with the finished squads.
+ *
+ * Finished jobs are kept for JOB_TTL ms, and at most MAX_JOBS are kept.
+ *
+ * @author Geordie Tait
+ *
+ */
+public class Jobs {
+
+	// most jobs kept at once
+	public static final int MAX_JOBS = 1000;
+
+	// milliseconds a finished job is kept
+	public static final long JOB_TTL = 10 * 60 * 1000;
+
+	// default number of generations between progress reports
+	public static final int DEFAULT_REPORT_INTERVAL = 25;
+
+	// seconds a client should wait before starting a job again when the server is busy
+	public static final int RETRY_AFTER = 5;
+
+	// admission to the pool which runs the jobs
+	private AdmissionControl admission;
+
+	// stopping criteria for every job
+	private StoppingCriterion[] criteria;
+
+	// jobs by ID
+	private ConcurrentHashMap<String, Job> jobs = new ConcurrentHashMap<String, Job>();
+
+	/**
+	 * Constructor for Jobs
+	 * @param admission Admission to the pool which runs the jobs
+	 * @param criteria Stopping criteria for every job
+	 */
+	public Jobs(AdmissionControl admission, StoppingCriterion... criteria) {
+		this.admission = admission;
+		this.criteria = criteria;
+	}
+
+	/**
+	 * Make the response to a request under /jobs
+	 * @param request Parsed request
+	 * @param path Request path (e.g. "jobs/ID/events")
+	 * @param players Players to arrange
+	 * @param keepAlive True if the connection will stay open after the response
+	 * @return Response to send
+	 */
+	public HttpResponse respond(HttpRequest request, String path, Players players, boolean keepAlive) {
+		String method = request.getMethod();
+		boolean isHead = method.equals("HEAD");
+
+		// start a new job
+		if (path.equals("jobs")) {
+			if (!method.equals("POST")) {
+				HttpResponse response = Api.errorResponse("405 Method Not Allowed", "Jobs are started with POST.", keepAlive);
+				response.addHeader("Allow", "POST");
+				return response;
+			}
+			return submit(request, players, keepAlive);
+		}
+
+		// find the job
+		String[] parts = path.split("/");
+		Job job = parts.length >= 2 && parts.length <= 3 ? jobs.get(parts[1]) : null;
+		if (job == null)
+			return Api.errorResponse("404 Not Found", "No such job.", keepAlive);
+		if (!method.equals("GET") && !isHead)
+			return Api.errorResponse("405 Method Not Allowed", "Jobs are read with GET.", keepAlive);
+
+		HttpResponse response;
+		if (parts.length == 2) {
+			response = Api.jsonResponse("200 OK", job.toJson(false), keepAlive);
+		}
+		else if (parts[2].equals("events")) {
+			response = new HttpResponse("200 OK", keepAlive);
+			response.addHeader("Content-Type", "text/event-stream; charset=utf-8");
+			response.addHeader("Cache-Control", "no-cache");
+			if (!isHead)
+				response.setProducer(job);
+		}
+		else if (parts[2].equals("result")) {
+			if (job.getState() == Job.State.DONE)
+				response = Api.jsonResponse("200 OK", job.toJson(true), keepAlive);
+			else if (job.getState() == Job.State.FAILED)
+				response = Api.jsonResponse("500 Internal Server Error", job.toJson(false), keepAlive);
+			else
+				response = Api.jsonResponse("202 Accepted", job.toJson(false), keepAlive);
+		}
+		else {
+			return Api.errorResponse("404 Not Found", "No such job.", keepAlive);
+		}
+		response.setHeadOnly(isHead);
+		return response;
+	}
+
+	/**
+	 * Start a job for the options of a request
+	 * @param request Parsed request
+	 * @param players Players to arrange
+	 * @param keepAlive True if the connection will stay open after the response
+	 * @return Response to send
+	 */
+	private HttpResponse submit(HttpRequest request, Players players, boolean keepAlive) {
+		MakeOptions options;
+		int reportInterval = DEFAULT_REPORT_INTERVAL;
+		try {
+			options = MakeOptions.parse(request.getParams(), players.getNumber());
+			if (request.getParams().containsKey("every")) {
+				try {
+					reportInterval = Integer.parseInt(request.getParams().get("every"));
+				}
+				catch (NumberFormatException e) {
+					reportInterval = 0;
+				}
+				if (reportInterval < 1)
+					throw new IllegalArgumentException("The report interval must be a positive number of generations.");
+			}
+		}
+		catch (IllegalArgumentException e) {
+			return Api.errorResponse("400 Bad Request", e.getMessage(), keepAlive);
+		}
+
+		// make room by dropping jobs which finished long ago
+		removeExpired(System.currentTimeMillis());
+		if (jobs.size() >= MAX_JOBS)
+			return busyResponse("Too many jobs. Try again later.", keepAlive);
+
+		// pick an unused ID which is hard to guess
+		Job job;
+		do {
+			String id = String.format("%016x", ThreadLocalRandom.current().nextLong());
+			job = new Job(id, players, options, reportInterval, criteria);
+		} while (jobs.putIfAbsent(job.getId(), job) != null);
+
+		try {
+			// a job runs however long it waits, as its client is not waiting for it
+			admission.execute(job, options.getParallelism(), null);
+		}
+		catch (RejectedExecutionException e) {
+			// too many optimisations are waiting, or the server is shutting down
+			jobs.remove(job.getId());
+			return busyResponse("The server is busy. Try again later.", keepAlive);
+		}
+
+		HttpResponse response = Api.jsonResponse("202 Accepted", job.toJson(false), keepAlive);
+		response.addHeader("Location", "/jobs/" + job.getId());
+		return response;
+	}
+
+	/**
+	 * Drop finished jobs which have been kept for longer than JOB_TTL ms
+	 * @param now Current time in milliseconds
+	 */
+	private void removeExpired(long now) {
+		Iterator<Job> it = jobs.values().iterator();
+		while (it.hasNext()) {
+			Job job = it.next();
+			if (job.isFinished() && now - job.getFinishedAt() > JOB_TTL)
+				it.remove();
+		}
+	}
+
+	/**
+	 * Get a job
+	 * @param id Job ID
+	 * @return Job, or null if there is no such job
+	 */
+	public Job get(String id) {
+		return jobs.get(id);
+	}
+
+	/**
+	 * Get the number of jobs kept
+	 * @return Number of queued, running and finished jobs
+	 */
+	public int getCount() {
+		return jobs.size();
+	}
+
+	/**
+	 * Make the response for a job which cannot be started now
+	 * @param message Description of the error
+	 * @param keepAlive True if the connection will stay open after the response
+	 * @return 503 response
+	 */
+	private static HttpResponse busyResponse(String message, boolean keepAlive) {
+		HttpResponse response = Api.errorResponse("503 Service Unavailable", message, keepAlive);
+		response.addHeader("Retry-After", Integer.toString(RETRY_AFTER));
+		return response;
+	}
+}
@@ -1,21 +1,37 @@
 package com.geordietait.squadbuilder;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import com.google.gson.Gson;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.google.gson.stream.JsonToken;
 
 /**
- * Class for reading player data from JSON
+ * Class for reading player data from JSON.
+ *
+ * The data is read a token at a time with Gson's streaming reader, straight
+ * from the file or the connection, rather than loaded whole and bound to
+ * objects. Each player's skills go straight into an array of ratings by
+ * skill ordinal, and each player is checked as soon as it has been read
+ * (as Players.checkPlayers does), so a bad roster is rejected at the first
+ * bad player without reading the rest.
  * @author Geordie Tait
  *
  */
 public class JsonReader {
 	
+	// milliseconds to wait for a connection to a URL, and for each read from it,
+	// so that a server which stops answering cannot hold up the reader forever
+	public static final int CONNECT_TIMEOUT = 10 * 1000;
+	public static final int READ_TIMEOUT = 30 * 1000;
+	
 	// where to read JSON from (either a filename or a URL)
 	private String location;
 	
@@ -30,70 +46,193 @@ public class JsonReader {
 	/**
 	 * Deserializes player data from JSON into Players object.
 	 * Attempts to read location as a filename first, then as a URL if that fails
-	 * @return Players object containing player data
+	 * @return Players object containing player data, or null if the URL has no data
 	 */
 	public Players getData() {
-		Players players = null;
+		try {
+			return read();
+		}
+		catch (IOException e) {
+			if (new File(location).exists())
+				System.err.println("Error: Could not read JSON data from file (" + e.getMessage() + ").");
+			else
+				System.err.println("Error: Could not read JSON data from URL (" + e.getMessage() + ").");
+			System.exit(-1);
+			return null;
+		}
+	}
+	
+	/**
+	 * Read and check player data, as a filename first, then as a URL if there is no such file
+	 * @return Players object containing player data, or null if the URL has no data
+	 * @throws IOException If the data cannot be read (or a URL does not answer in time), is not
+	 * well-formed JSON, or has a bad player
+	 */
+	public Players read() throws IOException {
 		
 		// try to read JSON data from file
 		File f = new File(location);
 		if (f.exists()) {
+			InputStream in = new FileInputStream(f);
 			try {
-				Gson gson = new Gson();
-				players = gson.fromJson(new FileReader(location), Players.class);
+				return parse(new InputStreamReader(in, StandardCharsets.UTF_8));
 			}
-			catch (IOException e) {
-				System.err.println("Error: Could not read JSON data from file.");
-				System.exit(-1);
+			finally {
+				in.close();
 			}
 		}
 		
 		// try to read JSON data from URL
-		else {
-			try {
-				String content = getJsonFromUrl(location);
-				if (content != null) {
-					Gson gson = new Gson();
-					players = gson.fromJson(content, Players.class);
+		URL url = new URL(location);
+		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+		conn.setConnectTimeout(CONNECT_TIMEOUT);
+		conn.setReadTimeout(READ_TIMEOUT);
+		
+		// if OK, read the body as it arrives
+		if (conn.getResponseCode() != 200)
+			return null;
+		InputStream in = conn.getInputStream();
+		try {
+			return parse(new InputStreamReader(in, StandardCharsets.UTF_8));
+		}
+		finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Read player data from JSON text: an object with a "players" array
+	 * @param source Reader of the JSON text
+	 * @return Players object containing player data
+	 * @throws IOException If the text cannot be read, is not well-formed, or has a bad player
+	 */
+	static Players parse(Reader source) throws IOException {
+		com.google.gson.stream.JsonReader reader = new com.google.gson.stream.JsonReader(source);
+		
+		// accept what Gson's object binding accepted
+		reader.setLenient(true);
+		
+		Players players = new Players();
+		try {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (reader.nextName().equals("players") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+					reader.beginArray();
+					while (reader.hasNext()) {
+						Player p = readPlayer(reader);
+						checkPlayer(p);
+						players.getList().add(p);
+					}
+					reader.endArray();
+				}
+				else {
+					reader.skipValue();
 				}
-			} 
-			catch (IOException e) {
-				System.err.println("Error: Could not read JSON data from URL.");
-				System.exit(-1);
 			}
+			reader.endObject();
+		}
+		catch (IllegalStateException | NumberFormatException e) {
+			// a value of the wrong type (e.g. a rating which is not a number)
+			throw new IOException(e.getMessage(), e);
 		}
 		return players;
 	}
 	
 	/**
-	 * Retrieves JSON data from a given URL
-	 * @param location URL where JSON data is located
-	 * @return JSON data as a string
-	 * @throws IOException
+	 * Read one player
+	 * @param reader Reader positioned at the player object
+	 * @return Player with their ratings (-1 for a missing rating)
+	 * @throws IOException If the player is not well-formed
 	 */
-	private static String getJsonFromUrl(String location) throws IOException {
-
-		// try to create connection
-		URL url = new URL(location);
-		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-
-		// get response code
-		int response = conn.getResponseCode();
+	private static Player readPlayer(com.google.gson.stream.JsonReader reader) throws IOException {
+		String id = null;
+		String firstName = null;
+		String lastName = null;
+		int[] ratings = new int[Skill.NUM_TYPES];
+		Arrays.fill(ratings, -1);
 		
-		// if OK, begin reading
-		if (response == 200) {
-			BufferedReader in = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-			String line;
-			StringBuffer result = new StringBuffer();
-
-			while ((line = in.readLine()) != null)
-				result.append(line);
-			
-			// return the result
-			in.close();
-			return result.toString();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (reader.peek() == JsonToken.NULL) {
+				reader.nextNull();
+			}
+			else if (name.equals("_id")) {
+				id = reader.nextString();
+			}
+			else if (name.equals("firstName")) {
+				firstName = reader.nextString();
+			}
+			else if (name.equals("lastName")) {
+				lastName = reader.nextString();
+			}
+			else if (name.equals("skills")) {
+				reader.beginArray();
+				while (reader.hasNext())
+					readSkill(reader, ratings);
+				reader.endArray();
+			}
+			else {
+				reader.skipValue();
+			}
 		}
-		return null;
+		reader.endObject();
+		return new Player(id, lastName, firstName, ratings);
+	}
+	
+	/**
+	 * Read one skill into a player's ratings, keeping the last rating of each type
+	 * and ignoring unknown types
+	 * @param reader Reader positioned at the skill object
+	 * @param ratings Ratings by skill ordinal
+	 * @throws IOException If the skill is not well-formed
+	 */
+	private static void readSkill(com.google.gson.stream.JsonReader reader, int[] ratings) throws IOException {
+		int ordinal = -1;
+		int rating = 0;
+		
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (reader.peek() == JsonToken.NULL)
+				reader.nextNull();
+			else if (name.equals("type"))
+				ordinal = Skill.getOrdinal(reader.nextString());
+			else if (name.equals("rating"))
+				rating = reader.nextInt();
+			else
+				reader.skipValue();
+		}
+		reader.endObject();
+		if (ordinal >= 0)
+			ratings[ordinal] = rating;
+	}
+	
+	/**
+	 * Check that a player is well-formed, as Players.checkPlayers does
+	 * @param p Player to check
+	 * @throws IOException If the player has no name or an invalid rating
+	 */
+	private static void checkPlayer(Player p) throws IOException {
+		
+		// check if the player has no name(s)
+		if (isEmpty(p.getFirstName()) && isEmpty(p.getLastName()))
+			throw new IOException("Player detected with no name");
+		
+		// check if the player has an invalid rating in any skill
+		for (int skill = 0; skill < Skill.NUM_TYPES; skill++) {
+			if (p.getRating(skill) < 0)
+				throw new IOException("Player detected with invalid "
+						+ Skill.getTypeName(skill).toLowerCase() + " rating (" + p.getName() + ")");
+		}
+	}
+	
+	/**
+	 * Check if a name is missing
+	 * @param name Name, or null
+	 * @return True if the name is null or empty
+	 */
+	private static boolean isEmpty(String name) {
+		return name == null || name.isEmpty();
 	}
-
 }
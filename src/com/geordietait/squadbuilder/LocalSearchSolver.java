@@ -0,0 +1,156 @@
+package com.geordietait.squadbuilder;
+
+import java.util.SplittableRandom;
+
+/**
+ * Base class for solvers which improve a single tournament by swapping
+ * players, scoring each candidate swap in constant time without applying
+ * it. Subclasses define one generation (a batch of moves), and this class
+ * keeps track of the best tournament found and the progress of the run.
+ * @author Geordie Tait
+ *
+ */
+public abstract class LocalSearchSolver implements Solver, SearchProgress {
+
+	// the random number generator for this solver
+	protected SplittableRandom rand;
+
+	// the best tournament found so far
+	protected Tournament best;
+
+	// the number of generations produced so far
+	private int generation;
+
+	// the time the current run started
+	private long startTime;
+
+	// the generation in which the best variance last improved
+	private int lastImprovement;
+
+	// the criterion which ended the last run
+	private StoppingCriterion stoppedBy;
+
+	// listener told of the progress of each run (null for none)
+	private ProgressListener listener;
+
+	// number of generations between progress reports
+	private int reportInterval;
+
+	/**
+	 * Constructor for LocalSearchSolver
+	 * @param seed Seed for the random number generator
+	 */
+	protected LocalSearchSolver(long seed) {
+		rand = new SplittableRandom(seed);
+	}
+
+	@Override
+	public Tournament solve(Players players, int numSquads, StoppingCriterion... criteria) {
+		if (criteria.length == 0)
+			throw new IllegalArgumentException("At least one stopping criterion is required");
+		startTime = System.currentTimeMillis();
+		generation = 0;
+		lastImprovement = 0;
+
+		// start from a near-balanced arrangement
+		Tournament current = new Tournament(players, numSquads);
+		new Seeder().fill(current, Seeder.Strategy.GREEDY, rand);
+		best = new Tournament(current);
+		start(current);
+
+		int lastReport = -1;
+		while (true) {
+			if (listener != null && (lastReport < 0 || generation - lastReport >= reportInterval)) {
+				lastReport = generation;
+				listener.onProgress(this, best);
+			}
+			for (StoppingCriterion c : criteria) {
+				if (c.isMet(this)) {
+					stoppedBy = c;
+					return best;
+				}
+			}
+			double before = best.getVariance();
+			step(current);
+			generation++;
+			if (best.getVariance() < before)
+				lastImprovement = generation;
+		}
+	}
+
+	/**
+	 * Prepare for a run, starting from the given tournament
+	 * @param current Initial tournament
+	 */
+	protected abstract void start(Tournament current);
+
+	/**
+	 * Perform one generation of moves on the current tournament,
+	 * updating the best tournament whenever it improves
+	 * @param current Tournament being improved
+	 */
+	protected abstract void step(Tournament current);
+
+	/**
+	 * Record the current tournament if it is the best found so far
+	 * @param current Tournament being improved
+	 */
+	protected void updateBest(Tournament current) {
+		if (current.getVariance() < best.getVariance())
+			best.copyFrom(current);
+	}
+
+	/**
+	 * Apply a random swap between squads, or between a squad and the waitlist
+	 * @param t Tournament to change
+	 */
+	protected void randomSwap(Tournament t) {
+		int numSquads = t.getSquads().size();
+		int squad = rand.nextInt(numSquads);
+		int pos = rand.nextInt(t.getMaxPlayers());
+		if (!t.getWaitList().isEmpty() && rand.nextInt(numSquads) == 0) {
+			t.swapWithWaitlist(squad, pos, rand.nextInt(t.getWaitList().size()));
+		}
+		else {
+			int other = (squad + 1 + rand.nextInt(numSquads - 1)) % numSquads;
+			t.swap(squad, pos, other, rand.nextInt(t.getMaxPlayers()));
+		}
+	}
+
+	@Override
+	public StoppingCriterion getStoppedBy() {
+		return stoppedBy;
+	}
+
+	@Override
+	public void setProgressListener(ProgressListener listener, int interval) {
+		this.listener = listener;
+		this.reportInterval = interval;
+	}
+
+	@Override
+	public int getParallelism() {
+		// the search runs on the calling thread
+		return 1;
+	}
+
+	@Override
+	public long getElapsedMillis() {
+		return System.currentTimeMillis() - startTime;
+	}
+
+	@Override
+	public int getGeneration() {
+		return generation;
+	}
+
+	@Override
+	public double getBestVariance() {
+		return best.getVariance();
+	}
+
+	@Override
+	public int getStagnantGenerations() {
+		return generation - lastImprovement;
+	}
+}
@@ -0,0 +1,162 @@
+package com.geordietait.squadbuilder;
+
+import java.util.HashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Class for the options of a request to make squads: the number of squads,
+ * the optimisation engine and the seed of its random number generator.
+ * The same options are read from the query of /make and of /jobs.
+ * Requests without a seed accept any good arrangement, so they share a
+ * cached result, while a given seed asks for the result of that run.
+ * @author Geordie Tait
+ *
+ */
+public class MakeOptions {
+
+	// desired number of squads
+	private int numSquads;
+
+	// name of the optimisation engine
+	private String solver;
+
+	// seed for the solver's random number generator
+	private long seed;
+
+	// true if the seed was given, rather than picked at random
+	private boolean seeded;
+
+	// true if a cached result may be used
+	private boolean useCache;
+
+	/**
+	 * Constructor for MakeOptions with a given seed
+	 * @param numSquads Desired number of squads
+	 * @param solver Name of the optimisation engine
+	 * @param seed Seed for the solver's random number generator
+	 */
+	public MakeOptions(int numSquads, String solver, long seed) {
+		this(numSquads, solver, seed, true, true);
+	}
+
+	/**
+	 * Main constructor
+	 * @param numSquads Desired number of squads
+	 * @param solver Name of the optimisation engine
+	 * @param seed Seed for the solver's random number generator
+	 * @param seeded True if the seed was given, rather than picked at random
+	 * @param useCache True if a cached result may be used
+	 */
+	public MakeOptions(int numSquads, String solver, long seed, boolean seeded, boolean useCache) {
+		this.numSquads = numSquads;
+		this.solver = solver;
+		this.seed = seed;
+		this.seeded = seeded;
+		this.useCache = useCache;
+	}
+
+	/**
+	 * Read the options from the parameters of a request, checking for bad inputs
+	 * @param params Query parameters ("squads", and optionally "solver", "seed"
+	 * and "cache", which bypasses the result cache when set to 0 or false)
+	 * @param numPlayers Number of players in the roster
+	 * @return Options
+	 * @throws IllegalArgumentException With a message for the user, if an option is bad
+	 */
+	public static MakeOptions parse(HashMap<String, String> params, int numPlayers) {
+
+		// parse desired number of squads and check for bad inputs
+		int numSquads;
+		try {
+			numSquads = Integer.valueOf(params.get("squads"));
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException("You must enter a number.");
+		}
+
+		if (numSquads < 2 || numSquads > numPlayers)
+			throw new IllegalArgumentException("Number of squads must be greater than 1 and less than the number of players (" + numPlayers + ").");
+
+		// use the given seed to replay a run, otherwise pick one at random
+		long seed = ThreadLocalRandom.current().nextLong();
+		if (params.containsKey("seed")) {
+			try {
+				seed = Long.parseLong(params.get("seed"));
+			}
+			catch (NumberFormatException e) {
+				throw new IllegalArgumentException("The seed must be a number.");
+			}
+		}
+
+		// pick the optimisation engine (the genetic algorithm by default)
+		String solver = params.get("solver");
+		if (solver == null)
+			solver = Solver.GENETIC;
+		if (Solver.forName(solver, seed) == null)
+			throw new IllegalArgumentException("Unknown solver. Choose " + Solver.GENETIC + ", "
+					+ Solver.ANNEALING + " or " + Solver.HILL_CLIMB + ".");
+
+		// a fresh result can be asked for, bypassing the cache
+		String cache = params.get("cache");
+		boolean useCache = !("0".equals(cache) || "false".equalsIgnoreCase(cache));
+
+		return new MakeOptions(numSquads, solver, seed, params.containsKey("seed"), useCache);
+	}
+
+	/**
+	 * Create a new solver for these options
+	 * @return Solver
+	 */
+	public Solver newSolver() {
+		return Solver.forName(solver, seed);
+	}
+
+	/**
+	 * Get the number of processors a run with these options keeps busy
+	 * @return Number of processors
+	 */
+	public int getParallelism() {
+		return newSolver().getParallelism();
+	}
+
+	/**
+	 * Get the key of the result in the result cache: the number of squads,
+	 * the solver, and the seed if one was given
+	 * @return Cache key (e.g. "4/genetic/*")
+	 */
+	public String getCacheKey() {
+		return numSquads + "/" + solver + "/" + (seeded ? Long.toString(seed) : "*");
+	}
+
+	/**
+	 * Check if a cached result may be used
+	 * @return False if the cache should be bypassed
+	 */
+	public boolean isCacheable() {
+		return useCache;
+	}
+
+	/**
+	 * Get the desired number of squads
+	 * @return Number of squads
+	 */
+	public int getNumSquads() {
+		return numSquads;
+	}
+
+	/**
+	 * Get the name of the optimisation engine
+	 * @return Solver name
+	 */
+	public String getSolver() {
+		return solver;
+	}
+
+	/**
+	 * Get the seed for the solver's random number generator
+	 * @return Seed
+	 */
+	public long getSeed() {
+		return seed;
+	}
+}
@@ -1,6 +1,7 @@
 package com.geordietait.squadbuilder;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Class for objects representing players
@@ -18,9 +19,15 @@ public class Player {
 	// the player's first name
 	private String firstName;
 	
-	// list of the player's skills
+	// list of the player's skills (null if the ratings were read directly)
 	private ArrayList<Skill> skills;
 	
+	// the player's position in the packed roster (not part of the JSON data)
+	private transient int index = -1;
+	
+	// the player's ratings indexed by skill ordinal (interned from the skills list)
+	private transient int[] ratings;
+	
 	/**
 	 * Basic constructor
 	 * @param _id Player ID
@@ -35,6 +42,20 @@ public class Player {
 		this.skills = skills;
 	}
 	
+	/**
+	 * Constructor for a player read with their ratings already by skill ordinal
+	 * @param _id Player ID
+	 * @param lastName Player last name
+	 * @param firstName Player first name
+	 * @param ratings Player ratings indexed by skill ordinal (-1 for a missing rating)
+	 */
+	Player(String _id, String lastName, String firstName, int[] ratings) {
+		this._id = _id;
+		this.lastName = lastName;
+		this.firstName = firstName;
+		this.ratings = ratings;
+	}
+	
 	/**
 	 * Get the player ID
 	 * @return Player ID string
@@ -67,17 +88,52 @@ public class Player {
 		return firstName + " " + lastName;
 	}
 	
+	/**
+	 * Get the player's position in the packed roster
+	 * @return Player index, or -1 if the player has not been packed
+	 */
+	public int getIndex() {
+		return index;
+	}
+	
+	/**
+	 * Set the player's position in the packed roster
+	 * @param index Player index
+	 */
+	void setIndex(int index) {
+		this.index = index;
+	}
+	
+	/**
+	 * Get the player's rating in a skill
+	 * @param skill Skill ordinal
+	 * @return Player rating in the skill, or -1 if the player has no such rating
+	 */
+	public int getRating(int skill) {
+		int[] result = ratings;
+		if (result == null) {
+			
+			// intern the skill type names once, keeping the last rating of each type
+			result = new int[Skill.NUM_TYPES];
+			Arrays.fill(result, -1);
+			if (skills != null) {
+				for (Skill s : skills) {
+					int ordinal = s.getOrdinal();
+					if (ordinal >= 0)
+						result[ordinal] = s.getRating();
+				}
+			}
+			ratings = result;
+		}
+		return result[skill];
+	}
+	
 	/**
 	 * Get the player's skating rating
 	 * @return Player skating rating
 	 */
 	public int getSkatingRating() {
-		int result = -1;
-		for (Skill s : skills) {
-			if (s.getType().equals("Skating"))
-				result = s.getRating();
-		}
-		return result;
+		return getRating(Skill.SKATING);
 	}
 	
 	/**
@@ -85,12 +141,7 @@ public class Player {
 	 * @return Player shooting rating
 	 */
 	public int getShootingRating() {
-		int result = -1;
-		for (Skill s : skills) {
-			if (s.getType().equals("Shooting"))
-				result = s.getRating();
-		}
-		return result;
+		return getRating(Skill.SHOOTING);
 	}
 	
 	/**
@@ -98,11 +149,6 @@ public class Player {
 	 * @return Player checking rating
 	 */
 	public int getCheckingRating() {
-		int result = -1;
-		for (Skill s : skills) {
-			if (s.getType().equals("Checking"))
-				result = s.getRating();
-		}
-		return result;
+		return getRating(Skill.CHECKING);
 	}
 }
@@ -1,5 +1,8 @@
 package com.geordietait.squadbuilder;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 
 /**
@@ -12,6 +15,12 @@ public class Players {
 	// the list of all players in the tournament
 	private ArrayList<Player> players;
 	
+	// packed ratings, indexed by skill ordinal and then player index
+	private transient volatile int[][] columns;
+	
+	// hash of the packed roster's contents, in hex
+	private transient volatile String fingerprint;
+	
 	/**
 	 * Basic constructor
 	 */
@@ -35,6 +44,76 @@ public class Players {
 		return players.size();
 	}
 	
+	/**
+	 * Build the packed roster: assign each player an index into the list
+	 * and copy their ratings into one primitive column per skill, so that
+	 * fitness calculations can read ratings without any string comparisons.
+	 * The fingerprint of the roster is worked out at the same time.
+	 */
+	public synchronized void pack() {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		
+		// hash each player as they are packed rather than building a copy of the roster
+		int[][] result = new int[Skill.NUM_TYPES][players.size()];
+		for (int i = 0; i < players.size(); i++) {
+			Player p = players.get(i);
+			p.setIndex(i);
+			digest.update(p.getID().getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(p.getFirstName().getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(p.getLastName().getBytes(StandardCharsets.UTF_8));
+			for (int skill = 0; skill < Skill.NUM_TYPES; skill++) {
+				int rating = p.getRating(skill);
+				result[skill][i] = rating;
+				digest.update((byte) 0);
+				digest.update((byte) (rating >>> 24));
+				digest.update((byte) (rating >>> 16));
+				digest.update((byte) (rating >>> 8));
+				digest.update((byte) rating);
+			}
+			digest.update((byte) '\n');
+		}
+		
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest())
+			hex.append(String.format("%02x", b));
+		fingerprint = hex.toString();
+		columns = result;
+	}
+	
+	/**
+	 * Get the packed ratings, packing the roster first if it has changed size
+	 * @return Ratings indexed by skill ordinal and then player index
+	 */
+	public int[][] getColumns() {
+		int[][] result = columns;
+		if (result == null || result[0].length != players.size()) {
+			synchronized (this) {
+				if (columns == null || columns[0].length != players.size())
+					pack();
+				result = columns;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Get a hash of the names, IDs and ratings of the players, which changes
+	 * whenever the roster does, packing the roster first if it has changed size
+	 * @return SHA-256 hash in hex
+	 */
+	public String getFingerprint() {
+		getColumns();
+		return fingerprint;
+	}
+	
 	/**
 	 * Check if players are well-formed
 	 * @return True if players are well-formed
@@ -1,9 +1,7 @@
 package com.geordietait.squadbuilder;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Random;
+import java.util.SplittableRandom;
 
 /**
  * Class for genetic optimization algorithm and associated methods/data.
@@ -20,7 +18,7 @@ import java.util.Random;
  * @author Geordie Tait
  *
  */
-public class Population {
+public class Population implements SearchProgress {
 
 	// the list of individuals in the population
 	private ArrayList<Tournament> individuals;
@@ -34,6 +32,33 @@ public class Population {
 	// the desired number of squads
 	private int numSquads;
 	
+	// the number of generations produced so far
+	private int generation;
+	
+	// the random number generator for this population (not shared between threads)
+	private SplittableRandom rand;
+	
+	// fills new individuals with a mix of random and heuristic assignments
+	private Seeder seeder;
+	
+	// the time the current run of the algorithm started
+	private long startTime;
+	
+	// the best variance found so far
+	private double bestVariance;
+	
+	// the generation in which the best variance last improved
+	private int lastImprovement;
+	
+	// fitness (variance) keys, parallel to the list of individuals
+	private double[] fitness;
+	
+	// proportion of individuals which will survive each generation
+	private static final double SURVIVAL_RATE = 0.1;
+	
+	// ranges at or below this size are sorted by insertion sort
+	private static final int INSERTION_SORT_THRESHOLD = 16;
+	
 	/**
 	 * Constructor for Population
 	 * @param players Players object
@@ -41,22 +66,62 @@ public class Population {
 	 * @param maxPop Maximum population per generation
 	 */
 	public Population(Players players, int numSquads, int maxPop) {
+		this(players, numSquads, maxPop, new SplittableRandom());
+	}
+	
+	/**
+	 * Constructor for a reproducible Population: the same seed and the same
+	 * number of generations always produce the same individuals
+	 * @param players Players object
+	 * @param numSquads Desired number of squads
+	 * @param maxPop Maximum population per generation
+	 * @param seed Seed for the random number generator
+	 */
+	public Population(Players players, int numSquads, int maxPop, long seed) {
+		this(players, numSquads, maxPop, new SplittableRandom(seed));
+	}
+	
+	/**
+	 * Constructor for a Population drawing from a given random number generator
+	 * @param players Players object
+	 * @param numSquads Desired number of squads
+	 * @param maxPop Maximum population per generation
+	 * @param rand Random number generator (used only by this population)
+	 */
+	public Population(Players players, int numSquads, int maxPop, SplittableRandom rand) {
+		this(players, numSquads, maxPop, rand, new Seeder());
+	}
+	
+	/**
+	 * Constructor for a Population seeded with a given mix of strategies
+	 * @param players Players object
+	 * @param numSquads Desired number of squads
+	 * @param maxPop Maximum population per generation
+	 * @param rand Random number generator (used only by this population)
+	 * @param seeding Mix of strategies for new individuals
+	 */
+	public Population(Players players, int numSquads, int maxPop, SplittableRandom rand, Seeder seeding) {
 		
 		// initialize fields
-		individuals = new ArrayList<Tournament>();
+		this.rand = rand;
+		seeder = new Seeder(seeding);
+		individuals = new ArrayList<Tournament>(maxPop);
+		fitness = new double[maxPop];
 		maxPopulation = maxPop;
 		this.players = players;
 		this.numSquads = numSquads;
 		
-		// fill each tournament with randomized squad assignments
+		// fill each tournament with seeded squad assignments
 		for (int i = 0; i < maxPop; i++) {
 			Tournament t = new Tournament(players, numSquads);
-			t.fillSquadsRandom();
+			seeder.fill(t, rand);
 			individuals.add(t);
 		}
 		
-		// sort the tournaments by fitness (variance)
-		sortByFitness();
+		// move the fittest individuals to the front
+		selectSurvivors();
+		startTime = System.currentTimeMillis();
+		bestVariance = getBest().getVariance();
 	}
 	
 	/**
@@ -68,14 +133,67 @@ public class Population {
 	}
 	
 	/**
-	 * Comparator class for sorting tournaments by fitness (variance)
-	 * @author Geordie Tait
-	 *
+	 * Get the individual with the best fitness (lowest variance)
+	 * @return Best tournament in the population
+	 */
+	public Tournament getBest() {
+		return individuals.get(0);
+	}
+	
+	/**
+	 * Get the number of generations produced so far
+	 * @return Generation count
+	 */
+	@Override
+	public int getGeneration() {
+		return generation;
+	}
+	
+	/**
+	 * Get the time since the current run of the algorithm started
+	 * @return Elapsed time in milliseconds
+	 */
+	@Override
+	public long getElapsedMillis() {
+		return System.currentTimeMillis() - startTime;
+	}
+	
+	/**
+	 * Get the variance of the best individual found so far
+	 * @return Best variance
+	 */
+	@Override
+	public double getBestVariance() {
+		return bestVariance;
+	}
+	
+	/**
+	 * Get the number of generations since the best variance last improved
+	 * @return Number of generations without improvement
+	 */
+	@Override
+	public int getStagnantGenerations() {
+		return generation - lastImprovement;
+	}
+	
+	/**
+	 * Replace the lowest-fitness individual with a copy of an immigrant
+	 * from another population (used for island model migration)
+	 * @param immigrant Tournament to copy into this population
 	 */
-	private class FitnessComparator implements Comparator<Tournament> {
-		@Override
-		public int compare(Tournament a, Tournament b) {
-			return a.getVariance() < b.getVariance() ? -1 : a.getVariance() == b.getVariance() ? 0 : 1;
+	public void immigrate(Tournament immigrant) {
+		// only the survivors are kept in order, so look through everyone for the worst
+		loadFitness();
+		int worst = 0;
+		for (int i = 1; i < individuals.size(); i++) {
+			if (fitness[i] > fitness[worst])
+				worst = i;
+		}
+		individuals.get(worst).copyFrom(immigrant);
+		selectSurvivors();
+		if (getBest().getVariance() < bestVariance) {
+			bestVariance = getBest().getVariance();
+			lastImprovement = generation;
 		}
 	}
 	
@@ -83,7 +201,121 @@ public class Population {
 	 * Sort tournaments by fitness (variance)
 	 */
 	public void sortByFitness() {
-		Collections.sort(individuals, new FitnessComparator());
+		loadFitness();
+		sortRange(0, individuals.size());
+	}
+	
+	/**
+	 * Move the fittest individuals to the front of the population, in order
+	 * of fitness. The rest of the population is left in no particular order.
+	 * Selection is linear on average, and only the survivors are sorted.
+	 */
+	public void selectSurvivors() {
+		int numSurvivors = Math.max(1, (int) (individuals.size() * SURVIVAL_RATE));
+		loadFitness();
+		
+		// quickselect the survivors into place
+		int lo = 0;
+		int hi = individuals.size();
+		while (hi - lo > INSERTION_SORT_THRESHOLD) {
+			long range = partition(lo, hi);
+			int lt = (int) (range >>> 32);
+			int gt = (int) range;
+			if (numSurvivors <= lt)
+				hi = lt;
+			else if (numSurvivors >= gt)
+				lo = gt;
+			else
+				break;
+		}
+		if (hi - lo <= INSERTION_SORT_THRESHOLD)
+			insertionSort(lo, hi);
+		
+		// put the survivors in order of fitness
+		sortRange(0, numSurvivors);
+	}
+	
+	/**
+	 * Copy the (cached) variance of each individual into the fitness keys
+	 */
+	private void loadFitness() {
+		for (int i = 0; i < individuals.size(); i++)
+			fitness[i] = individuals.get(i).getVariance();
+	}
+	
+	/**
+	 * Swap two individuals and their fitness keys
+	 * @param i Index of first individual
+	 * @param j Index of second individual
+	 */
+	private void swap(int i, int j) {
+		double key = fitness[i];
+		fitness[i] = fitness[j];
+		fitness[j] = key;
+		individuals.set(i, individuals.set(j, individuals.get(i)));
+	}
+	
+	/**
+	 * Three-way partition of a range of individuals around a median-of-three pivot
+	 * @param lo Start of the range (inclusive)
+	 * @param hi End of the range (exclusive)
+	 * @return Bounds of the keys equal to the pivot, packed as (lt << 32) | gt
+	 */
+	private long partition(int lo, int hi) {
+		double a = fitness[lo];
+		double b = fitness[(lo + hi) >>> 1];
+		double c = fitness[hi - 1];
+		double pivot = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+		
+		// [lo, lt) < pivot, [lt, i) == pivot, [gt, hi) > pivot
+		int lt = lo;
+		int i = lo;
+		int gt = hi;
+		while (i < gt) {
+			if (fitness[i] < pivot)
+				swap(lt++, i++);
+			else if (fitness[i] > pivot)
+				swap(i, --gt);
+			else
+				i++;
+		}
+		return ((long) lt << 32) | gt;
+	}
+	
+	/**
+	 * Sort a range of individuals by fitness (three-way quicksort)
+	 * @param lo Start of the range (inclusive)
+	 * @param hi End of the range (exclusive)
+	 */
+	private void sortRange(int lo, int hi) {
+		while (hi - lo > INSERTION_SORT_THRESHOLD) {
+			long range = partition(lo, hi);
+			int lt = (int) (range >>> 32);
+			int gt = (int) range;
+			
+			// recurse into the smaller side to bound the stack depth
+			if (lt - lo < hi - gt) {
+				sortRange(lo, lt);
+				lo = gt;
+			}
+			else {
+				sortRange(gt, hi);
+				hi = lt;
+			}
+		}
+		insertionSort(lo, hi);
+	}
+	
+	/**
+	 * Sort a small range of individuals by fitness
+	 * @param lo Start of the range (inclusive)
+	 * @param hi End of the range (exclusive)
+	 */
+	private void insertionSort(int lo, int hi) {
+		for (int i = lo + 1; i < hi; i++) {
+			for (int j = i; j > lo && fitness[j] < fitness[j - 1]; j--)
+				swap(j, j - 1);
+		}
 	}
 	
 	/**
@@ -91,12 +323,13 @@ public class Population {
 	 */
 	public void nextGeneration() {
 		
-		// proportion of individuals which will survive each generation
-		double survivalRate = 0.1;
+		// number of individuals which survive from the last generation
+		double survivalRate = SURVIVAL_RATE;
 		int numSurvivors = (int) (maxPopulation * survivalRate);
 		
-		// cull the lowest-fitness individuals
-		individuals.subList(numSurvivors, maxPopulation).clear();
+		// the lowest-fitness individuals are culled by overwriting them in place,
+		// so the tournaments (and their squads and lists) are reused every generation
+		int next = numSurvivors;
 		
 		// reproduce each of the survivors with mutations (single parent reproduction)
 		for (int i = 0; i < numSurvivors; i++) {
@@ -109,30 +342,34 @@ public class Population {
 			int numChildren = (int) ((1 - survivalRate*2) / survivalRate);
 			
 			// create the children
-			for (int j = 0; j < numChildren; j++) {
+			for (int j = 0; j < numChildren && next < maxPopulation; j++) {
 				
-				// create a new individual
-				Tournament t = new Tournament(individuals.get(i));
+				// recycle a culled individual as a copy of the parent
+				Tournament t = individuals.get(next++);
+				t.copyFrom(individuals.get(i));
 				
 				// mutate (swap players) between random squads
 				mutateSquads(t);
 				
 				// mutate (swap players) between a random squad and the waitlist
 				mutateSquadWithWaitlist(t);
-				
-				individuals.add(t);
 			}
 		}
 		
-		// add some new random individuals to fill out the population
-		while (individuals.size() < maxPopulation) {
-			Tournament t = new Tournament(players, numSquads);
-			t.fillSquadsRandom();
-			individuals.add(t);
+		// recycle the rest as new seeded individuals to fill out the population
+		while (next < maxPopulation) {
+			seeder.fill(individuals.get(next++), rand);
 		}
 		
-		// sort the tournaments by fitness (variance)
-		sortByFitness();
+		// select the survivors for the next generation
+		selectSurvivors();
+		generation++;
+		
+		// track improvements to the best individual
+		if (getBest().getVariance() < bestVariance) {
+			bestVariance = getBest().getVariance();
+			lastImprovement = generation;
+		}
 	}
 
 	/**
@@ -140,28 +377,17 @@ public class Population {
 	 * @param t Tournament to mutate
 	 */
 	private void mutateSquads(Tournament t) {
-		Random rand = new Random();
-		
 		// mutate at least once, sometimes randomly twice
 		for (int i = 0; i < 1+rand.nextInt(2); i++) {
 			
 			// pick 2 random distinct squads
-			Squad s1 = t.getSquads().get(rand.nextInt(numSquads));
-			Squad s2 = null;
-			while (s2 == null || s2 == s1)
-				s2 = t.getSquads().get(rand.nextInt(numSquads));
+			int s1 = rand.nextInt(numSquads);
+			int s2 = s1;
+			while (s2 == s1)
+				s2 = rand.nextInt(numSquads);
 			
-			// pick 2 random distinct players from those squads
-			Player p1 = s1.getMembers().get(rand.nextInt(t.getMaxPlayers()));
-			Player p2 = null;
-			while (p2 == null || p2 == p1)
-				p2 = s2.getMembers().get(rand.nextInt(t.getMaxPlayers()));
-			
-			// swap the players
-			s1.removeMember(p1);
-			s1.addMember(p2);
-			s2.removeMember(p2);
-			s2.addMember(p1);
+			// pick a random player from each of those squads and swap them
+			t.swap(s1, rand.nextInt(t.getMaxPlayers()), s2, rand.nextInt(t.getMaxPlayers()));
 		}
 	}
 	
@@ -171,23 +397,15 @@ public class Population {
 	 */
 	private void mutateSquadWithWaitlist(Tournament t) {
 		if (t.getWaitList().size() == 0) return;
-		Random rand = new Random();
-		
 		// mutate 0 times or 1, randomly
 		for (int i = 0; i < rand.nextInt(2); i++) {
 			
 			// pick a random squad
-			Squad s = t.getSquads().get(rand.nextInt(numSquads-1));
-			
-			// pick a random player from the squad and one from the waitlist
-			Player p1 = s.getMembers().get(rand.nextInt(t.getMaxPlayers()));
-			Player p2 = t.getWaitList().get(rand.nextInt(t.getWaitList().size()));
+			int squad = rand.nextInt(numSquads);
 			
-			// swap the players
-			s.removeMember(p1);
-			s.addMember(p2);
-			t.getWaitList().remove(p2);
-			t.getWaitList().add(p1);
+			// swap a random player from the squad with one from the waitlist
+			t.swapWithWaitlist(squad, rand.nextInt(t.getMaxPlayers()), 
+					rand.nextInt(t.getWaitList().size()));
 		}
 	}
 	
@@ -196,8 +414,25 @@ public class Population {
 	 * @param milliseconds How many ms to run for
 	 */
 	public void evolve(int milliseconds) {
-		long startTime = System.currentTimeMillis();
-		while (System.currentTimeMillis() - startTime < milliseconds)
+		evolve(StoppingCriterion.timeLimit(milliseconds));
+	}
+	
+	/**
+	 * Run the genetic algorithm until any of the given criteria is met
+	 * @param criteria Stopping criteria (at least one)
+	 * @return The criterion which ended the run
+	 */
+	public StoppingCriterion evolve(StoppingCriterion... criteria) {
+		if (criteria.length == 0)
+			throw new IllegalArgumentException("At least one stopping criterion is required");
+		startTime = System.currentTimeMillis();
+		lastImprovement = generation;
+		while (true) {
+			for (StoppingCriterion c : criteria) {
+				if (c.isMet(this))
+					return c;
+			}
 			nextGeneration();
+		}
 	}
 }
@@ -0,0 +1,21 @@
+package com.geordietait.squadbuilder;
+
+/**
+ * Interface for watching a running optimisation, for example to show the
+ * best squads so far while the search continues. Solvers call it on their
+ * own thread every few generations, between generations, so the best
+ * tournament is not changing while the listener looks at it.
+ * @author Geordie Tait
+ *
+ */
+public interface ProgressListener {
+
+	/**
+	 * Called with the progress of the search and the best tournament found so far.
+	 * The tournament belongs to the solver: copy anything needed before returning,
+	 * and return quickly, as the search waits for the listener.
+	 * @param progress Progress of the running optimisation
+	 * @param best Best tournament found so far
+	 */
+	void onProgress(SearchProgress progress, Tournament best);
+}
@@ -0,0 +1,96 @@
+package com.geordietait.squadbuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Class for writing a streamed body with ordinary stream and writer code.
+ * Bytes are collected into pieces of up to BUFFER_SIZE and each piece is
+ * sent to the response stream of the connection as it fills. A write of
+ * at least BUFFER_SIZE bytes is sent as a piece of its own.
+ *
+ * Closing this stream sends the last piece but does not end the response,
+ * which is left to the producer.
+ *
+ * @author Geordie Tait
+ *
+ */
+public class ResponseOutputStream extends OutputStream {
+
+	// size of each piece sent to the connection
+	public static final int BUFFER_SIZE = 8192;
+
+	// stream of the connection
+	private ResponseStream stream;
+
+	// bytes not yet sent
+	private byte[] buffer = new byte[BUFFER_SIZE];
+
+	// number of bytes in the buffer
+	private int count;
+
+	/**
+	 * Constructor for ResponseOutputStream
+	 * @param stream Stream of the connection to send the pieces to
+	 */
+	public ResponseOutputStream(ResponseStream stream) {
+		this.stream = stream;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (count == buffer.length)
+			flush();
+		buffer[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		// a write which would fill the buffer anyway (such as a whole chunk) is sent as one piece
+		if (len >= buffer.length) {
+			flush();
+			send(Arrays.copyOfRange(b, off, off + len));
+			return;
+		}
+		while (len > 0) {
+			if (count == buffer.length)
+				flush();
+			int n = Math.min(len, buffer.length - count);
+			System.arraycopy(b, off, buffer, count, n);
+			count += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Send the bytes written so far
+	 * @throws IOException If the connection has closed
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (count == 0)
+			return;
+
+		// the connection keeps each piece until it is written, so hand over a copy
+		byte[] piece = Arrays.copyOf(buffer, count);
+		count = 0;
+		send(piece);
+	}
+
+	/**
+	 * Send a piece to the connection
+	 * @param piece Bytes to send, which are not changed afterwards
+	 * @throws IOException If the connection has closed
+	 */
+	private void send(byte[] piece) throws IOException {
+		if (!stream.send(piece))
+			throw new IOException("The connection has closed");
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+	}
+}
@@ -0,0 +1,25 @@
+package com.geordietait.squadbuilder;
+
+/**
+ * Interface for sending the body of a streamed response a piece at a time,
+ * after the header has gone out (for example Server-Sent Events). Each
+ * front end implements it for its own connections. Pieces are queued and
+ * sent in order, so any thread can call it without waiting on the client.
+ * @author Geordie Tait
+ *
+ */
+public interface ResponseStream {
+
+	/**
+	 * Queue a piece of the body to send
+	 * @param data Bytes to send
+	 * @return False if the connection has closed, so nothing more should be sent
+	 */
+	boolean send(byte[] data);
+
+	/**
+	 * End the body once everything queued has been sent, closing the connection
+	 * unless the response keeps it open
+	 */
+	void close();
+}
@@ -0,0 +1,152 @@
+package com.geordietait.squadbuilder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class for keeping the results of recent optimisations, so that a repeat
+ * request for the same roster and options is answered without running the
+ * solver again.
+ *
+ * Results are keyed by the fingerprint of the roster and the options of
+ * the request. Up to a fixed number are kept, dropping the least recently
+ * used, and each is kept for a limited time so that repeat requests still
+ * see fresh runs now and then. When the roster changes, the results for
+ * the old roster are no longer asked for and age out the same way, so an
+ * optimisation of the old roster which finishes after the change cannot
+ * disturb the results for the new one.
+ *
+ * Results are immutable snapshots, so every request for the same result
+ * shares the same object.
+ *
+ * @author Geordie Tait
+ *
+ */
+public class ResultCache {
+
+	// default number of results kept
+	public static final int DEFAULT_CAPACITY = 64;
+
+	// default milliseconds a result is kept
+	public static final long DEFAULT_TTL = 10 * 60 * 1000;
+
+	// most results kept
+	private int capacity;
+
+	// milliseconds a result is kept
+	private long ttl;
+
+	// results by key, from least to most recently used
+	private LinkedHashMap<String, CachedResult> entries;
+
+	// number of requests answered from the cache, and not
+	private long hits;
+	private long misses;
+
+	/**
+	 * Constructor with the default capacity and time to live
+	 */
+	public ResultCache() {
+		this(DEFAULT_CAPACITY, DEFAULT_TTL);
+	}
+
+	/**
+	 * Main constructor
+	 * @param capacity Most results kept
+	 * @param ttl Milliseconds a result is kept
+	 */
+	public ResultCache(int capacity, long ttl) {
+		this.capacity = capacity;
+		this.ttl = ttl;
+		entries = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+				return size() > ResultCache.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * Look up the result of an earlier optimisation
+	 * @param players Players to arrange
+	 * @param options Number of squads, solver and seed
+	 * @return Result, or null if there is no current result
+	 */
+	public TournamentSnapshot get(Players players, MakeOptions options) {
+		String key = getKey(players, options);
+		synchronized (this) {
+			CachedResult entry = entries.get(key);
+			if (entry != null && System.currentTimeMillis() - entry.storedAt >= ttl) {
+				entries.remove(key);
+				entry = null;
+			}
+			if (entry == null) {
+				misses++;
+				return null;
+			}
+			hits++;
+			return entry.result;
+		}
+	}
+
+	/**
+	 * Keep the result of an optimisation
+	 * @param players Players which were arranged
+	 * @param options Number of squads, solver and seed
+	 * @param result Best arrangement found
+	 */
+	public void put(Players players, MakeOptions options, TournamentSnapshot result) {
+		String key = getKey(players, options);
+		CachedResult entry = new CachedResult();
+		entry.result = result;
+		entry.storedAt = System.currentTimeMillis();
+		synchronized (this) {
+			entries.put(key, entry);
+		}
+	}
+
+	/**
+	 * Get the key of the result for a roster and options
+	 * @param players Players to arrange
+	 * @param options Number of squads, solver and seed
+	 * @return Fingerprint of the roster and key of the options
+	 */
+	static String getKey(Players players, MakeOptions options) {
+		return players.getFingerprint() + "/" + options.getCacheKey();
+	}
+
+	/**
+	 * Get the number of results kept
+	 * @return Number of results
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Get the number of results kept and how often they were used
+	 * @return Status report with one "name=value" pair per line
+	 */
+	public synchronized String getStatus() {
+		return "cache.entries=" + entries.size() + "\n"
+				+ "cache.hits=" + hits + "\n"
+				+ "cache.misses=" + misses + "\n";
+	}
+
+	/**
+	 * Class for a kept result
+	 *
+	 * @author Geordie Tait
+	 *
+	 */
+	private static class CachedResult {
+
+		// the best arrangement found
+		private TournamentSnapshot result;
+
+		// the time the result was kept
+		private long storedAt;
+	}
+}
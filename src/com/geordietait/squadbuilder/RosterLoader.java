@@ -0,0 +1,284 @@
+package com.geordietait.squadbuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Class for loading the roster, and loading it again whenever it changes,
+ * so that players can be added or edited without restarting the server.
+ *
+ * A roster in a file is watched with a WatchService on its directory, and
+ * reloaded shortly after the file is written. A roster at a URL is fetched
+ * again every poll interval. Either way the new roster is read, checked
+ * and packed on the loader's own thread, and only then published, by
+ * swapping one atomic reference. A roster which cannot be read or has a
+ * bad player is reported and the current roster is kept.
+ *
+ * A roster is never changed once published. Each request takes the current
+ * roster once and uses it throughout, so optimisations which are running
+ * keep the roster they started with while new requests see the new one.
+ *
+ * @author Geordie Tait
+ *
+ */
+public class RosterLoader implements Runnable {
+
+	// default milliseconds between fetches of a roster at a URL
+	public static final long DEFAULT_POLL_INTERVAL = 60 * 1000;
+
+	// milliseconds to wait after a change to the file before reading it,
+	// so that a file written in several steps is read once, when complete
+	private static final long SETTLE_DELAY = 250;
+
+	// where to read the roster from (either a filename or a URL)
+	private String location;
+
+	// milliseconds between fetches of a roster at a URL
+	private volatile long pollInterval = DEFAULT_POLL_INTERVAL;
+
+	// the roster requests are served from
+	private AtomicReference<Roster> current = new AtomicReference<Roster>();
+
+	// thread watching for changes (null until started)
+	private volatile Thread thread;
+
+	// watcher of the file's directory (null for a URL)
+	private volatile WatchService watcher;
+
+	// flag for if the loader should stop watching
+	private volatile boolean stopped = false;
+
+	// number of new rosters published, and of rosters which could not be loaded
+	private AtomicLong reloads = new AtomicLong();
+	private AtomicLong failures = new AtomicLong();
+
+	/**
+	 * Constructor for RosterLoader
+	 * @param location Where to read the roster from (either a filename or a URL)
+	 */
+	public RosterLoader(String location) {
+		this.location = location;
+	}
+
+	/**
+	 * Set how often a roster at a URL is fetched again (before the loader is started)
+	 * @param pollInterval Milliseconds between fetches
+	 */
+	public void setPollInterval(long pollInterval) {
+		this.pollInterval = pollInterval;
+	}
+
+	/**
+	 * Read, check and pack the roster, and publish it if it differs from the current one
+	 * @return True if a new roster was published
+	 * @throws IOException If the roster cannot be read, is not well-formed, or has a bad player
+	 */
+	public boolean load() throws IOException {
+		Players players = new JsonReader(location).read();
+		if (players == null)
+			throw new IOException("No player data at " + location);
+
+		// pack the ratings for the optimiser
+		players.pack();
+
+		// an unchanged roster is kept, so its cached results and pages stay in use
+		Roster previous = current.get();
+		if (previous != null && previous.players.getFingerprint().equals(players.getFingerprint()))
+			return false;
+
+		// sort the roster once for the homepage, and publish it
+		Roster loaded = new Roster(players, TournamentSnapshot.of(players));
+		if (!current.compareAndSet(previous, loaded))
+			return false;
+		if (previous != null)
+			reloads.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Get the current roster
+	 * @return Roster, or null if none has been loaded
+	 */
+	public Roster get() {
+		return current.get();
+	}
+
+	/**
+	 * Start watching the roster for changes on a background thread
+	 * @throws IOException If the file's directory cannot be watched
+	 */
+	public synchronized void start() throws IOException {
+		if (thread != null)
+			return;
+		File file = new File(location);
+		if (file.exists()) {
+			Path directory = file.getAbsoluteFile().getParentFile().toPath();
+			watcher = FileSystems.getDefault().newWatchService();
+			directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		}
+		thread = new Thread(this, "squadbuilder-roster");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stop watching the roster
+	 */
+	public synchronized void stop() {
+		stopped = true;
+		if (watcher != null) {
+			try {
+				watcher.close();
+			}
+			catch (IOException e) {
+				// nothing more to do
+			}
+		}
+		if (thread != null)
+			thread.interrupt();
+	}
+
+	/* Run method for the thread which watches the file or polls the URL
+	 *
+	 * (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		try {
+			if (watcher != null)
+				watchFile();
+			else
+				pollUrl();
+		}
+		catch (InterruptedException | ClosedWatchServiceException e) {
+			// the loader has been stopped
+		}
+	}
+
+	/**
+	 * Reload the roster each time its file is written
+	 * @throws InterruptedException If the loader is stopped
+	 */
+	private void watchFile() throws InterruptedException {
+		Path name = new File(location).getAbsoluteFile().toPath().getFileName();
+		while (!stopped) {
+			WatchKey key = watcher.take();
+			boolean changed = isChanged(key, name);
+			key.reset();
+			if (!changed)
+				continue;
+
+			// wait for the writes to settle, taking in any further changes to the file
+			while ((key = watcher.poll(SETTLE_DELAY, TimeUnit.MILLISECONDS)) != null) {
+				isChanged(key, name);
+				key.reset();
+			}
+			reload();
+		}
+	}
+
+	/**
+	 * Check if any event of a watch key is for the roster file
+	 * @param key Key with events for the file's directory
+	 * @param name Name of the roster file
+	 * @return True if the roster file was created or written
+	 */
+	private static boolean isChanged(WatchKey key, Path name) {
+		boolean changed = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			// an overflow means events were lost, which may include the roster's
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW || name.equals(event.context()))
+				changed = true;
+		}
+		return changed;
+	}
+
+	/**
+	 * Fetch the roster again every poll interval
+	 * @throws InterruptedException If the loader is stopped
+	 */
+	private void pollUrl() throws InterruptedException {
+		while (!stopped) {
+			Thread.sleep(pollInterval);
+			reload();
+		}
+	}
+
+	/**
+	 * Load the roster again, keeping the current one if the new one cannot be loaded
+	 */
+	private void reload() {
+		try {
+			if (load())
+				System.out.println("Roster reloaded: " + current.get().players.getNumber() + " players");
+		}
+		catch (IOException e) {
+			failures.incrementAndGet();
+			System.err.println("Could not reload player data (" + e.getMessage() + "); keeping the current roster.");
+		}
+	}
+
+	/**
+	 * Get the size of the current roster and how often it has been reloaded
+	 * @return Status report with one "name=value" pair per line
+	 */
+	public String getStatus() {
+		Roster roster = current.get();
+		return "roster.players=" + (roster == null ? 0 : roster.players.getNumber()) + "\n"
+				+ "roster.reloads=" + reloads.get() + "\n"
+				+ "roster.failures=" + failures.get() + "\n";
+	}
+
+	/**
+	 * Class for a roster as published to requests: the players, packed for
+	 * the optimiser, and everyone on the waitlist as the homepage shows them
+	 *
+	 * @author Geordie Tait
+	 *
+	 */
+	public static final class Roster {
+
+		// the players, packed (never changed once published)
+		private final Players players;
+
+		// every player on the waitlist, sorted for the homepage
+		private final TournamentSnapshot snapshot;
+
+		/**
+		 * Constructor for Roster
+		 * @param players Packed players
+		 * @param snapshot Every player on the waitlist
+		 */
+		Roster(Players players, TournamentSnapshot snapshot) {
+			this.players = players;
+			this.snapshot = snapshot;
+		}
+
+		/**
+		 * Get the players
+		 * @return Packed players
+		 */
+		public Players getPlayers() {
+			return players;
+		}
+
+		/**
+		 * Get every player on the waitlist, as the homepage shows them
+		 * @return Snapshot of the roster
+		 */
+		public TournamentSnapshot getSnapshot() {
+			return snapshot;
+		}
+	}
+}
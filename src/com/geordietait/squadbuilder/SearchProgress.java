@@ -0,0 +1,34 @@
+package com.geordietait.squadbuilder;
+
+/**
+ * Interface for reading the progress of a running optimisation, which
+ * stopping criteria use to decide when the search should halt
+ * @author Geordie Tait
+ *
+ */
+public interface SearchProgress {
+
+	/**
+	 * Get the time spent optimising so far
+	 * @return Elapsed time in milliseconds
+	 */
+	long getElapsedMillis();
+
+	/**
+	 * Get the number of generations (or iterations) produced so far
+	 * @return Generation count
+	 */
+	int getGeneration();
+
+	/**
+	 * Get the fitness (variance) of the best solution found so far
+	 * @return Best variance
+	 */
+	double getBestVariance();
+
+	/**
+	 * Get the number of generations since the best variance last improved
+	 * @return Number of generations without improvement
+	 */
+	int getStagnantGenerations();
+}
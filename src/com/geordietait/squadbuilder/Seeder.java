@@ -0,0 +1,422 @@
+package com.geordietait.squadbuilder;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Class for filling tournaments with initial squad assignments.
+ *
+ * Besides pure random assignment, three heuristics produce arrangements
+ * which are already close to balanced. Players are taken in order of
+ * their composite rating (the sum of their skating, shooting, and
+ * checking ratings):
+ *
+ * - snake draft: squads pick in turn from the strongest player down,
+ *   reversing the order every round
+ * - greedy: each player, strongest first, joins the squad which is not
+ *   yet full and whose skill totals it evens out the most
+ * - largest differencing: a balanced multiway version of the
+ *   Karmarkar-Karp heuristic (https://en.wikipedia.org/wiki/Largest_differencing_method),
+ *   which repeatedly merges the two partial partitions with the largest
+ *   spread in skill totals, pairing each subset of one with the subset
+ *   of the other which evens it out the most
+ *
+ * In every strategy the waitlisted players are chosen at random, and
+ * ties in composite rating are broken at random, so that a population
+ * seeded with heuristics stays diverse. The mix of strategies is given
+ * as relative weights.
+ *
+ * A Seeder holds scratch space for one thread: each population makes
+ * its own copy.
+ *
+ * @author Geordie Tait
+ *
+ */
+public class Seeder {
+
+	/**
+	 * Strategies for filling a tournament
+	 */
+	public enum Strategy {
+		RANDOM, SNAKE, GREEDY, DIFFERENCING
+	}
+
+	// all strategies, indexed by ordinal
+	private static final Strategy[] STRATEGIES = Strategy.values();
+
+	// relative weights of the strategies, indexed by ordinal
+	private double[] weights;
+
+	// sum of the weights
+	private double totalWeight;
+
+	// squad of each player by index (-1 for the waitlist)
+	private int[] squadOf;
+
+	// all player indices, shuffled to pick the waitlist
+	private int[] order;
+
+	// sort keys for the selected players (jittered composite rating and index)
+	private long[] keys;
+
+	// number of players in each squad (greedy)
+	private int[] counts;
+
+	// skill totals of each squad (greedy) or partition subset (differencing),
+	// packed by squad or subset then skill
+	private long[] skillTotals;
+
+	// first and last player of each partition subset, and the next player in the same subset
+	private int[] head;
+	private int[] tail;
+	private int[] next;
+
+	// whether each partition has not yet been merged into another
+	private boolean[] alive;
+
+	// subsets of a partition by distance from the partition's mean, furthest first
+	private int[] furthestFirst;
+
+	// squared distance of each subset from its partition's mean
+	private long[] distances;
+
+	// whether each subset of a partition has been paired during a merge
+	private boolean[] paired;
+
+	/**
+	 * Constructor with the default mix: 40% random, and 20% for each heuristic
+	 */
+	public Seeder() {
+		this(0.4, 0.2, 0.2, 0.2);
+	}
+
+	/**
+	 * Constructor for a given mix of strategies
+	 * @param random Relative weight of random assignment
+	 * @param snake Relative weight of snake drafts
+	 * @param greedy Relative weight of greedy assignment
+	 * @param differencing Relative weight of largest differencing
+	 */
+	public Seeder(double random, double snake, double greedy, double differencing) {
+		weights = new double[] {random, snake, greedy, differencing};
+		for (double w : weights) {
+			if (w < 0.0)
+				throw new IllegalArgumentException("Seeding weights must not be negative");
+			totalWeight += w;
+		}
+		if (totalWeight <= 0.0)
+			throw new IllegalArgumentException("At least one seeding weight must be positive");
+	}
+
+	/**
+	 * Constructor for copying the mix of another seeder (with new scratch space)
+	 * @param original Seeder to copy
+	 */
+	public Seeder(Seeder original) {
+		weights = original.weights.clone();
+		totalWeight = original.totalWeight;
+	}
+
+	/**
+	 * Fill a tournament using a strategy picked at random from the mix
+	 * @param t Tournament to fill
+	 * @param rand Random number generator
+	 */
+	public void fill(Tournament t, SplittableRandom rand) {
+		double pick = rand.nextDouble() * totalWeight;
+		int chosen = -1;
+		for (int i = 0; i < STRATEGIES.length; i++) {
+			if (weights[i] > 0.0) {
+				chosen = i;
+				if (pick < weights[i])
+					break;
+			}
+			pick -= weights[i];
+		}
+		fill(t, STRATEGIES[chosen], rand);
+	}
+
+	/**
+	 * Fill a tournament using the given strategy
+	 * @param t Tournament to fill
+	 * @param strategy Seeding strategy
+	 * @param rand Random number generator
+	 */
+	public void fill(Tournament t, Strategy strategy, SplittableRandom rand) {
+		if (strategy == Strategy.RANDOM) {
+			t.fillSquadsRandom(rand);
+			return;
+		}
+
+		int numSquads = t.getNumSquads();
+		int numSelected = numSquads * t.getMaxPlayers();
+		selectPlayers(t, numSelected, rand);
+
+		if (strategy == Strategy.SNAKE)
+			snakeDraft(numSquads, numSelected);
+		else if (strategy == Strategy.GREEDY)
+			greedy(t.getColumns(), numSquads, numSelected, t.getMaxPlayers());
+		else
+			differencing(t.getColumns(), numSquads, numSelected);
+
+		t.fillSquads(squadOf);
+	}
+
+	/**
+	 * Pick the players to put in squads at random, waitlist the rest, and sort
+	 * the picked players by composite rating (ties broken at random)
+	 * @param t Tournament being filled
+	 * @param numSelected Number of players to put in squads
+	 * @param rand Random number generator
+	 */
+	private void selectPlayers(Tournament t, int numSelected, SplittableRandom rand) {
+		int[][] columns = t.getColumns();
+		int n = columns[0].length;
+		ensureCapacity(n, t.getNumSquads(), t.getMaxPlayers());
+
+		// partial shuffle: the first numSelected players are picked
+		for (int i = 0; i < n; i++)
+			order[i] = i;
+		for (int i = 0; i < numSelected; i++) {
+			int j = i + rand.nextInt(n - i);
+			int swap = order[i];
+			order[i] = order[j];
+			order[j] = swap;
+		}
+		Arrays.fill(squadOf, 0, n, -1);
+
+		// sort the picked players by jittered composite rating
+		for (int i = 0; i < numSelected; i++) {
+			int p = order[i];
+			long composite = 0;
+			for (int skill = 0; skill < Skill.NUM_TYPES; skill++)
+				composite += columns[skill][p];
+			keys[i] = ((composite * 16 + rand.nextInt(16)) << 32) | p;
+		}
+		Arrays.sort(keys, 0, numSelected);
+	}
+
+	/**
+	 * Get the index of the player at a position in the sorted picks, strongest first
+	 * @param position Position from the strongest player
+	 * @param numSelected Number of picked players
+	 * @return Player index
+	 */
+	private int strongest(int position, int numSelected) {
+		return (int) keys[numSelected - 1 - position];
+	}
+
+	/**
+	 * Assign the picked players by snake draft
+	 * @param numSquads Number of squads
+	 * @param numSelected Number of picked players
+	 */
+	private void snakeDraft(int numSquads, int numSelected) {
+		for (int i = 0; i < numSelected; i++) {
+			int round = i / numSquads;
+			int pick = i % numSquads;
+			squadOf[strongest(i, numSelected)] = round % 2 == 0 ? pick : numSquads - 1 - pick;
+		}
+	}
+
+	/**
+	 * Assign each picked player, strongest first, to the squad which is not full
+	 * and where it adds the least to the sum of squared skill totals. As every
+	 * squad ends up the same size, that sum is what the skill variances measure.
+	 * @param columns Packed ratings by skill and player index
+	 * @param numSquads Number of squads
+	 * @param numSelected Number of picked players
+	 * @param maxPlayers Number of players per squad
+	 */
+	private void greedy(int[][] columns, int numSquads, int numSelected, int maxPlayers) {
+		Arrays.fill(skillTotals, 0, numSquads * Skill.NUM_TYPES, 0);
+		Arrays.fill(counts, 0, numSquads, 0);
+		for (int i = 0; i < numSelected; i++) {
+			int p = strongest(i, numSelected);
+
+			// adding ratings x to totals T grows the sum of squares by 2*T.x + x.x,
+			// so the best squad is the one minimising T.x
+			int best = -1;
+			long bestCost = Long.MAX_VALUE;
+			for (int s = 0; s < numSquads; s++) {
+				if (counts[s] == maxPlayers) continue;
+				long cost = 0;
+				for (int skill = 0; skill < Skill.NUM_TYPES; skill++)
+					cost += skillTotals[s * Skill.NUM_TYPES + skill] * columns[skill][p];
+				if (cost < bestCost) {
+					best = s;
+					bestCost = cost;
+				}
+			}
+			squadOf[p] = best;
+			for (int skill = 0; skill < Skill.NUM_TYPES; skill++)
+				skillTotals[best * Skill.NUM_TYPES + skill] += columns[skill][p];
+			counts[best]++;
+		}
+	}
+
+	/**
+	 * Assign the picked players by balanced largest differencing. The picks are
+	 * cut into groups of numSquads consecutive players, each group forming a
+	 * partition of singleton subsets, so every merge keeps the subsets equal in size.
+	 * @param columns Packed ratings by skill and player index
+	 * @param numSquads Number of squads
+	 * @param numSelected Number of picked players
+	 */
+	private void differencing(int[][] columns, int numSquads, int numSelected) {
+		int numPartitions = numSelected / numSquads;
+		if (numPartitions == 0)
+			return;
+
+		// one partition per group of numSquads players, with one player per subset
+		for (int slot = 0; slot < numSelected; slot++) {
+			int p = strongest(slot, numSelected);
+			for (int skill = 0; skill < Skill.NUM_TYPES; skill++)
+				skillTotals[slot * Skill.NUM_TYPES + skill] = columns[skill][p];
+			head[slot] = p;
+			tail[slot] = p;
+			next[p] = -1;
+		}
+		Arrays.fill(alive, 0, numPartitions, true);
+
+		for (int merges = 0; merges < numPartitions - 1; merges++) {
+
+			// find the two partitions with the largest spread
+			int first = -1;
+			int second = -1;
+			long firstSpread = -1;
+			long secondSpread = -1;
+			for (int q = 0; q < numPartitions; q++) {
+				if (!alive[q]) continue;
+				long spread = getSpread(q, numSquads);
+				if (spread > firstSpread) {
+					second = first;
+					secondSpread = firstSpread;
+					first = q;
+					firstSpread = spread;
+				}
+				else if (spread > secondSpread) {
+					second = q;
+					secondSpread = spread;
+				}
+			}
+
+			// pair each subset of the first partition, furthest from the mean first,
+			// with the unpaired subset of the second which adds the least to the sum
+			// of squared skill totals (the one minimising the dot product)
+			sortSubsets(first, numSquads);
+			Arrays.fill(paired, 0, numSquads, false);
+			for (int j = 0; j < numSquads; j++) {
+				int a = furthestFirst[j];
+				int best = -1;
+				long bestCost = Long.MAX_VALUE;
+				for (int k = 0; k < numSquads; k++) {
+					if (paired[k]) continue;
+					long cost = 0;
+					for (int skill = 0; skill < Skill.NUM_TYPES; skill++)
+						cost += skillTotals[a * Skill.NUM_TYPES + skill]
+								* skillTotals[(second * numSquads + k) * Skill.NUM_TYPES + skill];
+					if (cost < bestCost) {
+						best = k;
+						bestCost = cost;
+					}
+				}
+				paired[best] = true;
+
+				// merge the paired subsets into the first partition
+				int b = second * numSquads + best;
+				for (int skill = 0; skill < Skill.NUM_TYPES; skill++)
+					skillTotals[a * Skill.NUM_TYPES + skill] += skillTotals[b * Skill.NUM_TYPES + skill];
+				next[tail[a]] = head[b];
+				tail[a] = tail[b];
+			}
+			alive[second] = false;
+		}
+
+		// the remaining partition's subsets are the squads
+		for (int q = 0; q < numPartitions; q++) {
+			if (!alive[q]) continue;
+			for (int j = 0; j < numSquads; j++) {
+				for (int p = head[q * numSquads + j]; p >= 0; p = next[p])
+					squadOf[p] = j;
+			}
+		}
+	}
+
+	/**
+	 * Get the spread of a partition: the sum over skills of numSquads squared
+	 * times the variance of its subsets' totals (kept exact in integers)
+	 * @param q Partition index
+	 * @param numSquads Number of subsets per partition
+	 * @return Spread of the partition
+	 */
+	private long getSpread(int q, int numSquads) {
+		long spread = 0;
+		for (int skill = 0; skill < Skill.NUM_TYPES; skill++) {
+			long sum = 0;
+			long sumSquares = 0;
+			for (int j = 0; j < numSquads; j++) {
+				long total = skillTotals[(q * numSquads + j) * Skill.NUM_TYPES + skill];
+				sum += total;
+				sumSquares += total * total;
+			}
+			spread += numSquads * sumSquares - sum * sum;
+		}
+		return spread;
+	}
+
+	/**
+	 * Sort the subsets of a partition by squared distance from the partition's
+	 * mean, furthest first (insertion sort, as there are few subsets)
+	 * @param q Partition index
+	 * @param numSquads Number of subsets per partition
+	 */
+	private void sortSubsets(int q, int numSquads) {
+		for (int j = 0; j < numSquads; j++) {
+			int slot = q * numSquads + j;
+			long distance = 0;
+			for (int skill = 0; skill < Skill.NUM_TYPES; skill++) {
+				long sum = 0;
+				for (int k = 0; k < numSquads; k++)
+					sum += skillTotals[(q * numSquads + k) * Skill.NUM_TYPES + skill];
+				long offset = numSquads * skillTotals[slot * Skill.NUM_TYPES + skill] - sum;
+				distance += offset * offset;
+			}
+			int k = j;
+			while (k > 0 && distances[k - 1] < distance) {
+				furthestFirst[k] = furthestFirst[k - 1];
+				distances[k] = distances[k - 1];
+				k--;
+			}
+			furthestFirst[k] = slot;
+			distances[k] = distance;
+		}
+	}
+
+	/**
+	 * Make sure the scratch space is large enough
+	 * @param n Number of players
+	 * @param numSquads Number of squads
+	 * @param maxPlayers Number of players per squad
+	 */
+	private void ensureCapacity(int n, int numSquads, int maxPlayers) {
+		if (order == null || order.length < n) {
+			order = new int[n];
+			squadOf = new int[n];
+			keys = new long[n];
+			next = new int[n];
+			head = new int[n];
+			tail = new int[n];
+		}
+		if (counts == null || counts.length < numSquads) {
+			counts = new int[numSquads];
+			furthestFirst = new int[numSquads];
+			distances = new long[numSquads];
+			paired = new boolean[numSquads];
+		}
+		if (skillTotals == null || skillTotals.length < n * Skill.NUM_TYPES)
+			skillTotals = new long[n * Skill.NUM_TYPES];
+		if (alive == null || alive.length < maxPlayers)
+			alive = new boolean[maxPlayers];
+	}
+}
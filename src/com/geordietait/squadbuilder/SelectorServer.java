@@ -0,0 +1,725 @@
+package com.geordietait.squadbuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Class for serving connections without blocking, as an alternative front
+ * end to the thread-per-connection WebServerWorker.
+ *
+ * The listening thread accepts connections and hands them out in turn to
+ * a few event loops. Each event loop multiplexes its connections with a
+ * Selector, reading requests as bytes arrive and writing responses as the
+ * sockets drain, so idle or slow clients hold no thread. Requests for
+ * /make are answered when their squads are made (usually on the CPU pool),
+ * and the finished response is passed back to the event loop to send.
+ *
+ * Connections follow the same keep-alive rules as the blocking server.
+ * Requests pipelined on one connection are answered in order: reading
+ * stops while a response is being made or sent. A pushed body (such as
+ * a job's events) is queued on the event loop by its producer and sent as
+ * the socket drains, so a stream that is waiting for its next piece holds
+ * no thread either. A written body (such as a page) is generated on the
+ * writer pool, never on an event loop, and handed over in pieces: once
+ * MAX_QUEUED_PIECES are waiting for the socket, the writer waits until
+ * the loop has sent one, so a slow client holds back its writer rather
+ * than filling memory with the rest of the body.
+ *
+ * @author Geordie Tait
+ *
+ */
+public class SelectorServer {
+
+	// size of the initial read buffer of each connection
+	private static final int READ_BUFFER_SIZE = 4096;
+
+	// most connections waiting to be accepted (the default of 50 drops bursts of clients)
+	private static final int BACKLOG = 1024;
+
+	// most pieces of a written body waiting for the socket (each up to ResponseOutputStream.BUFFER_SIZE)
+	private static final int MAX_QUEUED_PIECES = 4;
+
+	// the server which makes the responses
+	private WebServer server;
+
+	// port to listen on
+	private int port;
+
+	// pool which writes generated bodies
+	private Executor writers;
+
+	// event loops which serve the connections
+	private EventLoop[] loops;
+
+	// number of connections accepted so far
+	private AtomicInteger accepted = new AtomicInteger();
+
+	/**
+	 * Constructor for SelectorServer
+	 * @param server Server which makes the responses
+	 * @param port Port to listen on
+	 * @param numLoops Number of event-loop threads
+	 * @param writers Pool which writes generated bodies (each writer may wait for a slow client)
+	 */
+	public SelectorServer(WebServer server, int port, int numLoops, Executor writers) {
+		this.server = server;
+		this.port = port;
+		this.writers = writers;
+		loops = new EventLoop[Math.max(1, numLoops)];
+	}
+
+	/**
+	 * Accept connections until the server shuts down. Runs on the calling thread.
+	 * @throws IOException If the port cannot be opened
+	 */
+	public void run() throws IOException {
+		ServerSocketChannel serverChannel = ServerSocketChannel.open();
+		Selector acceptSelector = Selector.open();
+		Thread[] threads = new Thread[loops.length];
+		try {
+			serverChannel.bind(new InetSocketAddress(port), BACKLOG);
+			serverChannel.configureBlocking(false);
+			serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+
+			// start the event loops
+			for (int i = 0; i < loops.length; i++) {
+				loops[i] = new EventLoop();
+				threads[i] = new Thread(loops[i], "squadbuilder-loop-" + (i + 1));
+				threads[i].setDaemon(true);
+				threads[i].start();
+			}
+
+			// main loop for the listening thread, waking every second to check the shutdown flag
+			while (!server.isShutdown()) {
+				acceptSelector.select(1000);
+				acceptSelector.selectedKeys().clear();
+				SocketChannel channel;
+				while ((channel = serverChannel.accept()) != null) {
+					channel.configureBlocking(false);
+					channel.socket().setTcpNoDelay(true);
+					loops[accepted.getAndIncrement() % loops.length].add(channel);
+				}
+			}
+		}
+		finally {
+			// stop the event loops, which close their connections
+			for (int i = 0; i < loops.length; i++) {
+				if (loops[i] != null)
+					loops[i].selector.wakeup();
+			}
+			for (Thread t : threads) {
+				try {
+					if (t != null)
+						t.join(1000);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			acceptSelector.close();
+			serverChannel.close();
+		}
+	}
+
+	/**
+	 * Get the number of event loops and open connections
+	 * @return Status report with one "name=value" pair per line
+	 */
+	public String getStatus() {
+		int open = 0;
+		for (EventLoop loop : loops) {
+			if (loop != null)
+				open += loop.connections.get();
+		}
+		return "selector.loops=" + loops.length + "\n"
+				+ "selector.connections=" + open + "\n"
+				+ "selector.accepted=" + accepted.get() + "\n";
+	}
+
+	/**
+	 * Class for an event-loop thread serving its share of the connections
+	 *
+	 * @author Geordie Tait
+	 *
+	 */
+	private class EventLoop implements Runnable {
+
+		// selector multiplexing this loop's connections
+		private Selector selector;
+
+		// work handed over from other threads (new connections and finished responses)
+		private ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+		// number of open connections
+		private AtomicInteger connections = new AtomicInteger();
+
+		/**
+		 * Constructor for EventLoop
+		 * @throws IOException If the selector cannot be opened
+		 */
+		EventLoop() throws IOException {
+			selector = Selector.open();
+		}
+
+		/**
+		 * Hand a new connection to this loop
+		 * @param channel Accepted connection
+		 */
+		void add(final SocketChannel channel) {
+			connections.incrementAndGet();
+			execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						Connection c = new Connection(channel);
+						c.key = channel.register(selector, SelectionKey.OP_READ, c);
+					}
+					catch (ClosedChannelException e) {
+						connections.decrementAndGet();
+					}
+				}
+			});
+		}
+
+		/**
+		 * Run a task on this loop's thread
+		 * @param task Task to run
+		 */
+		void execute(Runnable task) {
+			tasks.add(task);
+			selector.wakeup();
+		}
+
+		/* Run method for the event loop
+		 *
+		 * (non-Javadoc)
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			long lastSweep = System.currentTimeMillis();
+			try {
+				while (!server.isShutdown()) {
+					selector.select(1000);
+
+					// handle new connections and finished responses
+					Runnable task;
+					while ((task = tasks.poll()) != null)
+						task.run();
+
+					// handle connections which are ready
+					Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+					while (it.hasNext()) {
+						SelectionKey key = it.next();
+						it.remove();
+						Connection c = (Connection) key.attachment();
+						try {
+							if (key.isValid() && key.isReadable())
+								c.read();
+							if (key.isValid() && key.isWritable())
+								c.write();
+						}
+						catch (IOException e) {
+							c.close();
+						}
+					}
+
+					// close connections which have been idle for too long
+					long now = System.currentTimeMillis();
+					if (now - lastSweep >= 1000) {
+						lastSweep = now;
+						for (SelectionKey key : selector.keys()) {
+							Connection c = (Connection) key.attachment();
+							if (c.isIdle(now))
+								c.close();
+						}
+					}
+				}
+			}
+			catch (IOException e) {
+				System.err.println("Event loop exception: " + e.toString());
+			}
+			finally {
+				for (SelectionKey key : selector.keys())
+					((Connection) key.attachment()).close();
+				try {
+					selector.close();
+				}
+				catch (IOException e) {
+					// nothing more to do
+				}
+			}
+		}
+
+		/**
+		 * Class for the state of one connection
+		 *
+		 * @author Geordie Tait
+		 *
+		 */
+		private class Connection {
+
+			// the client connection
+			private SocketChannel channel;
+
+			// the connection's registration with the selector
+			private SelectionKey key;
+
+			// received bytes which have not been handled yet
+			private byte[] in = new byte[READ_BUFFER_SIZE];
+
+			// number of received bytes in the buffer
+			private int inLength;
+
+			// the response header being sent
+			private ByteBuffer header;
+
+			// the response body being sent from memory
+			private ByteBuffer body;
+
+			// the file being sent as the response body
+			private FileChannel file;
+
+			// position and end of the part of the file still to send
+			private long filePosition;
+			private long fileEnd;
+
+			// the stream handed to the producer or writer of a streamed body (null if there is none)
+			private LoopStream stream;
+
+			// pieces of the streamed body waiting to be sent
+			private ArrayDeque<ByteBuffer> streamed;
+
+			// true once the producer has ended the streamed body
+			private boolean streamEnded;
+
+			// the response being made or sent (null when waiting for a request)
+			private HttpResponse response;
+
+			// true while the CPU pool is making the response
+			private boolean busy;
+
+			// number of requests served
+			private int served;
+
+			// the time of the last read or write
+			private long lastActive = System.currentTimeMillis();
+
+			/**
+			 * Constructor for Connection
+			 * @param channel Client connection
+			 */
+			Connection(SocketChannel channel) {
+				this.channel = channel;
+			}
+
+			/**
+			 * Read what the client has sent, and handle any complete requests
+			 * @throws IOException If reading fails
+			 */
+			void read() throws IOException {
+				if (inLength == in.length)
+					in = Arrays.copyOf(in, Math.min(in.length * 2,
+							HttpRequest.MAX_HEADER_LENGTH + HttpRequest.MAX_BODY_LENGTH + 1));
+				int n = channel.read(ByteBuffer.wrap(in, inLength, in.length - inLength));
+				if (n < 0) {
+					close();
+					return;
+				}
+				inLength += n;
+				lastActive = System.currentTimeMillis();
+
+				// a streamed response which ends the connection drops later requests,
+				// and a chunked one keeps them until it is complete
+				if (stream != null) {
+					if (!response.isKeepAlive())
+						inLength = 0;
+					else if (inLength == HttpRequest.MAX_HEADER_LENGTH + HttpRequest.MAX_BODY_LENGTH + 1)
+						close();
+					return;
+				}
+				handleRequests();
+			}
+
+			/**
+			 * Handle the next complete request in the buffer, if no response is pending
+			 * @throws IOException If writing the response fails
+			 */
+			void handleRequests() throws IOException {
+				while (response == null && !busy) {
+					int length = HttpRequest.getRequestLength(in, inLength);
+					if (length == 0) {
+						// wait for more bytes, unless the buffer can hold no more
+						if (inLength == HttpRequest.MAX_HEADER_LENGTH + HttpRequest.MAX_BODY_LENGTH + 1)
+							close();
+						return;
+					}
+					if (length < 0) {
+						send(new HttpResponse("400 Bad Request", false));
+						return;
+					}
+
+					// parse the request and remove it from the buffer
+					HttpRequest request;
+					try {
+						request = HttpRequest.read(new ByteArrayInputStream(in, 0, length));
+					}
+					catch (IOException e) {
+						send(new HttpResponse("400 Bad Request", false));
+						return;
+					}
+					System.arraycopy(in, length, in, 0, inLength - length);
+					inLength -= length;
+					if (request == null)
+						continue;
+
+					// a bad request may leave the stream out of step, so close after it
+					served++;
+					boolean keepAlive = request.isKeepAlive() && !request.isBadRequest()
+							&& served < WebServer.MAX_KEEP_ALIVE_REQUESTS;
+
+					if (WebServer.isOptimiserRequest(request))
+						respondLater(request, keepAlive);
+					else
+						send(server.respond(request, keepAlive));
+				}
+			}
+
+			/**
+			 * Make the response once the squads are made, then send it from this loop.
+			 * Reading stops meanwhile, but no thread waits for the squads.
+			 * @param request Parsed request
+			 * @param keepAlive True if the connection will stay open after the response
+			 */
+			void respondLater(HttpRequest request, boolean keepAlive) {
+				busy = true;
+				key.interestOps(0);
+				server.respondLater(request, keepAlive).whenComplete(new BiConsumer<HttpResponse, Throwable>() {
+					@Override
+					public void accept(HttpResponse r, Throwable e) {
+						// a request turned away by admission control is answered with 503
+						reply(e == null ? r : server.failureResponse(e));
+					}
+				});
+			}
+
+			/**
+			 * Send a response made off this loop (usually on the CPU pool) from this loop
+			 * @param r Response to send
+			 */
+			void reply(final HttpResponse r) {
+				execute(new Runnable() {
+					@Override
+					public void run() {
+						busy = false;
+						try {
+							send(r);
+						}
+						catch (IOException e) {
+							close();
+						}
+					}
+				});
+			}
+
+			/**
+			 * Start sending a response, writing as much as the socket takes now
+			 * @param r Response to send
+			 * @throws IOException If writing fails
+			 */
+			void send(HttpResponse r) throws IOException {
+				if (!channel.isOpen())
+					return;
+				response = r;
+				header = ByteBuffer.wrap(r.getHeaderBytes());
+				if (!r.isHeadOnly()) {
+					if (r.getProducer() != null || r.getWriter() != null) {
+						stream = new LoopStream(r.getWriter() != null);
+						streamed = new ArrayDeque<ByteBuffer>();
+						streamEnded = false;
+					}
+					else if (r.getFile() != null) {
+						file = new FileInputStream(r.getFile()).getChannel();
+						filePosition = 0;
+						fileEnd = r.getContentLength();
+					}
+					else {
+						body = ByteBuffer.wrap(r.getBody());
+					}
+				}
+				LoopStream started = stream;
+				write();
+				if (started == null)
+					return;
+				if (r.getWriter() != null)
+					startWriter(r, started);
+				else
+					r.getProducer().start(started);
+			}
+
+			/**
+			 * Write a generated body on the writer pool, handing it to this loop in pieces
+			 * @param r Response with a written body
+			 * @param started Stream of the body, which makes the writer wait while the socket is behind
+			 */
+			void startWriter(final HttpResponse r, final LoopStream started) {
+				try {
+					writers.execute(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								r.writeBody(new ResponseOutputStream(started));
+								started.close();
+							}
+							catch (IOException e) {
+								// the client has gone away
+								started.abort();
+							}
+							catch (RuntimeException e) {
+								// the body is incomplete, so it must not look complete to the client
+								System.err.println("Writer exception: " + e.toString());
+								started.abort();
+							}
+						}
+					});
+				}
+				catch (RejectedExecutionException e) {
+					// the server is shutting down
+					close();
+				}
+			}
+
+			/**
+			 * Write as much of the pending response as the socket takes
+			 * @throws IOException If writing fails
+			 */
+			void write() throws IOException {
+				if (response == null)
+					return;
+				lastActive = System.currentTimeMillis();
+
+				// send the header and any body in memory in one gathering write
+				if (body != null) {
+					channel.write(new ByteBuffer[] {header, body});
+					if (body.hasRemaining()) {
+						key.interestOps(SelectionKey.OP_WRITE);
+						return;
+					}
+				}
+				else {
+					channel.write(header);
+					if (header.hasRemaining()) {
+						key.interestOps(SelectionKey.OP_WRITE);
+						return;
+					}
+				}
+
+				// send the file straight from the file system to the socket
+				if (file != null) {
+					while (filePosition < fileEnd) {
+						long n = file.transferTo(filePosition, fileEnd - filePosition, channel);
+						if (n <= 0)
+							break;
+						filePosition += n;
+					}
+					if (filePosition < fileEnd) {
+						key.interestOps(SelectionKey.OP_WRITE);
+						return;
+					}
+					file.close();
+					file = null;
+				}
+
+				// send the pieces of a streamed body queued so far
+				if (streamed != null) {
+					while (!streamed.isEmpty()) {
+						ByteBuffer piece = streamed.peek();
+						channel.write(piece);
+						if (piece.hasRemaining()) {
+							key.interestOps(SelectionKey.OP_WRITE);
+							return;
+						}
+						streamed.poll();
+						stream.sent();
+					}
+					if (!streamEnded) {
+						// wait for the next piece, watching for the client closing the connection
+						key.interestOps(SelectionKey.OP_READ);
+						return;
+					}
+					stream = null;
+					streamed = null;
+				}
+
+				// the response is complete
+				boolean keepAlive = response.isKeepAlive();
+				response = null;
+				header = null;
+				body = null;
+				if (!keepAlive) {
+					close();
+					return;
+				}
+				key.interestOps(SelectionKey.OP_READ);
+				handleRequests();
+			}
+
+			/**
+			 * Check if the connection has waited too long for a request, or for
+			 * the client to take more of a response. A pushed body may wait
+			 * any time for its next piece, but a client which stops taking a
+			 * written body is closed, freeing its writer.
+			 * @param now Current time in milliseconds
+			 * @return True if the connection should be closed
+			 */
+			boolean isIdle(long now) {
+				return !busy && (stream == null || stream.bounded)
+						&& now - lastActive >= WebServer.KEEP_ALIVE_TIMEOUT;
+			}
+
+			/**
+			 * Close the connection
+			 */
+			void close() {
+				if (!channel.isOpen())
+					return;
+				connections.decrementAndGet();
+				if (stream != null)
+					stream.disconnect();
+				try {
+					if (file != null)
+						file.close();
+					channel.close();
+				}
+				catch (IOException e) {
+					// nothing more to do
+				}
+			}
+
+			/**
+			 * Class for the stream of a streamed body, which hands each piece
+			 * to the event loop to queue and send. A producer's pieces are
+			 * queued without waiting; a writer waits while MAX_QUEUED_PIECES
+			 * of its pieces are queued.
+			 *
+			 * @author Geordie Tait
+			 *
+			 */
+			private class LoopStream implements ResponseStream {
+
+				// true if the stream is a writer's, which waits for the socket
+				private final boolean bounded;
+
+				// false once the connection has closed (guarded by this)
+				private boolean open = true;
+
+				// pieces handed to the loop which it has not finished sending (guarded by this)
+				private int queued;
+
+				/**
+				 * Constructor for LoopStream
+				 * @param bounded True to make the sender wait while MAX_QUEUED_PIECES are queued
+				 */
+				LoopStream(boolean bounded) {
+					this.bounded = bounded;
+				}
+
+				@Override
+				public boolean send(final byte[] data) {
+					synchronized (this) {
+						try {
+							while (bounded && open && queued >= MAX_QUEUED_PIECES)
+								wait();
+						}
+						catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							return false;
+						}
+						if (!open)
+							return false;
+						queued++;
+					}
+					execute(new Runnable() {
+						@Override
+						public void run() {
+							if (stream != LoopStream.this)
+								return;
+							streamed.add(ByteBuffer.wrap(data));
+							try {
+								write();
+							}
+							catch (IOException e) {
+								Connection.this.close();
+							}
+						}
+					});
+					return true;
+				}
+
+				@Override
+				public void close() {
+					execute(new Runnable() {
+						@Override
+						public void run() {
+							if (stream != LoopStream.this)
+								return;
+							streamEnded = true;
+							try {
+								write();
+							}
+							catch (IOException e) {
+								Connection.this.close();
+							}
+						}
+					});
+				}
+
+				/**
+				 * Close the connection without ending the body, because it is incomplete
+				 */
+				void abort() {
+					execute(new Runnable() {
+						@Override
+						public void run() {
+							if (stream == LoopStream.this)
+								Connection.this.close();
+						}
+					});
+				}
+
+				/**
+				 * Count a piece as sent, letting a waiting writer hand over the next
+				 */
+				synchronized void sent() {
+					queued--;
+					notifyAll();
+				}
+
+				/**
+				 * Stop taking pieces, because the connection has closed
+				 */
+				synchronized void disconnect() {
+					open = false;
+					notifyAll();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package com.geordietait.squadbuilder;
+
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class for the state of each visitor to the webpage: the squads they last
+ * made, which their homepage shows until they reset it. Visitors are told
+ * apart by a session cookie, given out when they first make squads.
+ *
+ * Sessions are kept in a concurrent map, and each holds only a reference
+ * to an immutable snapshot, so visitors never see or change each other's
+ * squads and no request waits for another. Sessions idle for longer than
+ * the timeout are dropped, checked at most once per SWEEP_INTERVAL ms.
+ *
+ * @author Geordie Tait
+ *
+ */
+public class Sessions {
+
+	// name of the session cookie
+	public static final String COOKIE_NAME = "squadbuilder-session";
+
+	// default milliseconds an unused session is kept
+	public static final long DEFAULT_IDLE_TIMEOUT = 30 * 60 * 1000;
+
+	// default most sessions kept
+	public static final int DEFAULT_MAX_SESSIONS = 10000;
+
+	// milliseconds between checks for idle sessions
+	private static final long SWEEP_INTERVAL = 60 * 1000;
+
+	// milliseconds an unused session is kept
+	private long idleTimeout;
+
+	// most sessions kept
+	private int maxSessions;
+
+	// sessions by ID
+	private ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+
+	// source of session IDs which cannot be guessed
+	private SecureRandom random = new SecureRandom();
+
+	// the time of the last check for idle sessions
+	private AtomicLong lastSweep = new AtomicLong(System.currentTimeMillis());
+
+	/**
+	 * Constructor with the default timeout and size
+	 */
+	public Sessions() {
+		this(DEFAULT_IDLE_TIMEOUT, DEFAULT_MAX_SESSIONS);
+	}
+
+	/**
+	 * Main constructor
+	 * @param idleTimeout Milliseconds an unused session is kept
+	 * @param maxSessions Most sessions kept
+	 */
+	public Sessions(long idleTimeout, int maxSessions) {
+		this.idleTimeout = idleTimeout;
+		this.maxSessions = maxSessions;
+	}
+
+	/**
+	 * Find the session of a request from its cookie
+	 * @param request Parsed request
+	 * @return Session, or null if the request has no current session
+	 */
+	public Session get(HttpRequest request) {
+		long now = System.currentTimeMillis();
+		sweep(now);
+		String id = getCookie(request.getHeader("cookie"));
+		Session session = id == null ? null : sessions.get(id);
+		if (session == null)
+			return null;
+		if (now - session.lastUsed >= idleTimeout) {
+			sessions.remove(id, session);
+			return null;
+		}
+		session.lastUsed = now;
+		return session;
+	}
+
+	/**
+	 * Start a new session
+	 * @return Session, or null if no more sessions can be kept
+	 */
+	public Session create() {
+		sweep(System.currentTimeMillis());
+		if (sessions.size() >= maxSessions)
+			return null;
+		Session session;
+		do {
+			byte[] bytes = new byte[16];
+			random.nextBytes(bytes);
+			StringBuilder id = new StringBuilder();
+			for (byte b : bytes)
+				id.append(String.format("%02x", b));
+			session = new Session(id.toString());
+		} while (sessions.putIfAbsent(session.id, session) != null);
+		return session;
+	}
+
+	/**
+	 * Make the Set-Cookie header value which gives a session to the client
+	 * @param session New session
+	 * @return Header value
+	 */
+	public static String toCookie(Session session) {
+		return COOKIE_NAME + "=" + session.id + "; Path=/; HttpOnly; SameSite=Lax";
+	}
+
+	/**
+	 * Get the number of sessions kept
+	 * @return Number of sessions
+	 */
+	public int size() {
+		return sessions.size();
+	}
+
+	/**
+	 * Find the session ID in a Cookie header (e.g. "a=1; squadbuilder-session=ID")
+	 * @param header Cookie header value, or null
+	 * @return Session ID, or null if there is none
+	 */
+	private static String getCookie(String header) {
+		if (header == null)
+			return null;
+		for (String pair : header.split(";")) {
+			int split = pair.indexOf('=');
+			if (split > 0 && pair.substring(0, split).trim().equals(COOKIE_NAME))
+				return pair.substring(split + 1).trim();
+		}
+		return null;
+	}
+
+	/**
+	 * Drop idle sessions, if they have not been checked for a while
+	 * @param now Current time in milliseconds
+	 */
+	private void sweep(long now) {
+		long last = lastSweep.get();
+		if (now - last < SWEEP_INTERVAL || !lastSweep.compareAndSet(last, now))
+			return;
+		Iterator<Session> it = sessions.values().iterator();
+		while (it.hasNext()) {
+			if (now - it.next().lastUsed >= idleTimeout)
+				it.remove();
+		}
+	}
+
+	/**
+	 * Class for the state of one visitor
+	 *
+	 * @author Geordie Tait
+	 *
+	 */
+	public static class Session {
+
+		// identifier given to the client in the cookie
+		private final String id;
+
+		// the squads the visitor last made (null to show everyone on the waitlist)
+		private volatile TournamentSnapshot current;
+
+		// the time the session was last used
+		private volatile long lastUsed = System.currentTimeMillis();
+
+		/**
+		 * Constructor for Session
+		 * @param id Session ID
+		 */
+		Session(String id) {
+			this.id = id;
+		}
+
+		/**
+		 * Get the session ID
+		 * @return Session ID
+		 */
+		public String getId() {
+			return id;
+		}
+
+		/**
+		 * Get the squads the visitor last made
+		 * @return Snapshot, or null if the visitor has none
+		 */
+		public TournamentSnapshot getCurrent() {
+			return current;
+		}
+
+		/**
+		 * Set the squads the visitor last made
+		 * @param current Snapshot, or null to reset
+		 */
+		public void setCurrent(TournamentSnapshot current) {
+			this.current = current;
+		}
+	}
+}
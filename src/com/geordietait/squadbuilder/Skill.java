@@ -7,6 +7,21 @@ package com.geordietait.squadbuilder;
  */
 public class Skill {
 	
+	// ordinal for the skating skill
+	public static final int SKATING = 0;
+	
+	// ordinal for the shooting skill
+	public static final int SHOOTING = 1;
+	
+	// ordinal for the checking skill
+	public static final int CHECKING = 2;
+	
+	// the number of skill types every player is rated in
+	public static final int NUM_TYPES = 3;
+	
+	// skill type names, indexed by ordinal
+	private static final String[] TYPE_NAMES = {"Skating", "Shooting", "Checking"};
+	
 	// the type of the skill
 	private String type;
 	
@@ -38,4 +53,34 @@ public class Skill {
 	public int getRating() {
 		return rating;
 	}
+	
+	/**
+	 * Get the ordinal of the skill type
+	 * @return Skill type ordinal, or -1 if the type is unknown
+	 */
+	public int getOrdinal() {
+		return getOrdinal(type);
+	}
+	
+	/**
+	 * Intern a skill type name to its ordinal
+	 * @param type Skill type string
+	 * @return Skill type ordinal, or -1 if the type is unknown
+	 */
+	public static int getOrdinal(String type) {
+		for (int i = 0; i < NUM_TYPES; i++) {
+			if (TYPE_NAMES[i].equals(type))
+				return i;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Get the name of a skill type
+	 * @param ordinal Skill type ordinal
+	 * @return Skill type string
+	 */
+	public static String getTypeName(int ordinal) {
+		return TYPE_NAMES[ordinal];
+	}
 }
@@ -0,0 +1,72 @@
+package com.geordietait.squadbuilder;
+
+/**
+ * Interface for optimisation engines which arrange players into balanced
+ * squads. Each engine minimises the same fitness (the total variance of
+ * squad averages) and runs until any of the given stopping criteria is met.
+ * Solvers keep state for a single run, so a new one is needed per request.
+ * @author Geordie Tait
+ *
+ */
+public interface Solver {
+
+	// name of the genetic algorithm engine
+	String GENETIC = "genetic";
+
+	// name of the simulated annealing engine
+	String ANNEALING = "annealing";
+
+	// name of the steepest-descent swap engine
+	String HILL_CLIMB = "hillclimb";
+
+	/**
+	 * Arrange players into balanced squads
+	 * @param players Players object
+	 * @param numSquads Desired number of squads
+	 * @param criteria Stopping criteria (at least one)
+	 * @return The best tournament found
+	 */
+	Tournament solve(Players players, int numSquads, StoppingCriterion... criteria);
+
+	/**
+	 * Get the criterion which ended the last run
+	 * @return Stopping criterion, or null if the solver has not finished a run
+	 */
+	StoppingCriterion getStoppedBy();
+
+	/**
+	 * Set a listener to be told of the progress of each run
+	 * @param listener Listener (null for none)
+	 * @param interval Number of generations between reports
+	 */
+	void setProgressListener(ProgressListener listener, int interval);
+
+	/**
+	 * Get the name of the engine
+	 * @return Solver name
+	 */
+	String getName();
+
+	/**
+	 * Get the number of processors a run keeps busy, so that the server can run
+	 * no more optimisations at once than it has processors for
+	 * @return Number of processors (at least 1)
+	 */
+	int getParallelism();
+
+	/**
+	 * Create a solver by name
+	 * @param name Solver name (null for the default genetic algorithm)
+	 * @param seed Seed for the solver's random number generator
+	 * @return New solver, or null if the name is not recognised
+	 */
+	static Solver forName(String name, long seed) {
+		if (name == null || name.equals(GENETIC))
+			return new GeneticSolver(seed);
+		else if (name.equals(ANNEALING))
+			return new AnnealingSolver(seed);
+		else if (name.equals(HILL_CLIMB))
+			return new HillClimbSolver(seed);
+		return null;
+	}
+}
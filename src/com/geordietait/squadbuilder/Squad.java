@@ -14,6 +14,12 @@ public class Squad {
 	// the list of players in the squad
 	private ArrayList<Player> members;
 	
+	// packed roster ratings (null if members are not read by index)
+	private int[][] columns;
+	
+	// running totals of member ratings, indexed by skill ordinal
+	private int[] totals = new int[Skill.NUM_TYPES];
+	
 	/**
 	 * Basic constructor
 	 */
@@ -21,15 +27,49 @@ public class Squad {
 		members = new ArrayList<Player>();
 	}
 	
+	/**
+	 * Constructor for a squad drawn from a packed roster
+	 * @param players Players object the members belong to
+	 */
+	public Squad(Players players) {
+		members = new ArrayList<Player>();
+		columns = players.getColumns();
+	}
+	
 	/**
 	 * Constructor for copying a squad
 	 * @param original Squad to make a copy of
 	 */
 	public Squad(Squad original) {
 		members = new ArrayList<Player>();
+		columns = original.columns;
 		for (Player p : original.getMembers()) {
 			members.add(p);
 		}
+		System.arraycopy(original.totals, 0, totals, 0, Skill.NUM_TYPES);
+	}
+	
+	/**
+	 * Overwrite this squad with the members of another squad, reusing
+	 * the existing member list rather than allocating a new one
+	 * @param original Squad to copy from
+	 */
+	public void copyFrom(Squad original) {
+		columns = original.columns;
+		members.clear();
+		for (int i = 0; i < original.members.size(); i++) {
+			members.add(original.members.get(i));
+		}
+		System.arraycopy(original.totals, 0, totals, 0, Skill.NUM_TYPES);
+	}
+	
+	/**
+	 * Remove all players from the squad
+	 */
+	public void clear() {
+		members.clear();
+		for (int skill = 0; skill < Skill.NUM_TYPES; skill++)
+			totals[skill] = 0;
 	}
 	
 	/**
@@ -46,6 +86,8 @@ public class Squad {
 	 */
 	public void addMember(Player p) {
 		members.add(p);
+		for (int skill = 0; skill < Skill.NUM_TYPES; skill++)
+			totals[skill] += getRating(p, skill);
 	}
 	
 	/**
@@ -53,7 +95,23 @@ public class Squad {
 	 * @param p Player to remove
 	 */
 	public void removeMember(Player p) {
-		members.remove(p);
+		if (members.remove(p)) {
+			for (int skill = 0; skill < Skill.NUM_TYPES; skill++)
+				totals[skill] -= getRating(p, skill);
+		}
+	}
+	
+	/**
+	 * Replace the player at a position in the squad
+	 * @param position Position of the player to replace
+	 * @param p Player to put in their place
+	 * @return The player that was replaced
+	 */
+	public Player setMember(int position, Player p) {
+		Player old = members.set(position, p);
+		for (int skill = 0; skill < Skill.NUM_TYPES; skill++)
+			totals[skill] += getRating(p, skill) - getRating(old, skill);
+		return old;
 	}
 	
 	/**
@@ -65,55 +123,49 @@ public class Squad {
 	}
 	
 	/**
-	 * Get the total skating rating of the squad
-	 * @return Sum of squad skating ratings
+	 * Get a player's rating in a skill, by index if the squad has a packed roster
+	 * @param p Player to look up
+	 * @param skill Skill ordinal
+	 * @return Player rating in the skill
 	 */
-	private int getSkatingTotal() {
-		int result = 0;
-		for (Player p : members) {
-			result += p.getSkatingRating();
-		}
-		return result;
+	private int getRating(Player p, int skill) {
+		if (columns != null)
+			return columns[skill][p.getIndex()];
+		return p.getRating(skill);
 	}
 	
 	/**
-	 * Get the average skating rating of the squad
-	 * @return Average of squad skating ratings
+	 * Get the total rating of the squad in a skill
+	 * @param skill Skill ordinal
+	 * @return Sum of squad ratings in the skill
 	 */
-	public double getSkatingAvg() {
-		return (double) this.getSkatingTotal() / (double) this.getSize();
+	public int getTotal(int skill) {
+		return totals[skill];
 	}
 	
 	/**
-	 * Get the total shooting rating of the squad
-	 * @return Sum of squad shooting ratings
+	 * Get the average rating of the squad in a skill
+	 * @param skill Skill ordinal
+	 * @return Average of squad ratings in the skill
 	 */
-	private int getShootingTotal() {
-		int result = 0;
-		for (Player p : members) {
-			result += p.getShootingRating();
-		}
-		return result;
+	public double getAvg(int skill) {
+		return (double) this.getTotal(skill) / (double) this.getSize();
 	}
 	
 	/**
-	 * Get the average shooting rating of the squad
-	 * @return Average of squad shooting ratings
+	 * Get the average skating rating of the squad
+	 * @return Average of squad skating ratings
 	 */
-	public double getShootingAvg() {
-		return (double) this.getShootingTotal() / (double) this.getSize();
+	public double getSkatingAvg() {
+		return getAvg(Skill.SKATING);
 	}
 	
 	/**
-	 * Get the total checking rating of the squad
-	 * @return Sum of squad checking ratings
+	 * Get the average shooting rating of the squad
+	 * @return Average of squad shooting ratings
 	 */
-	private int getCheckingTotal() {
-		int result = 0;
-		for (Player p : members) {
-			result += p.getCheckingRating();
-		}
-		return result;
+	public double getShootingAvg() {
+		return getAvg(Skill.SHOOTING);
 	}
 	
 	/**
@@ -121,7 +173,7 @@ public class Squad {
 	 * @return Average of squad checking ratings
 	 */
 	public double getCheckingAvg() {
-		return (double) this.getCheckingTotal() / (double) this.getSize();
+		return getAvg(Skill.CHECKING);
 	}
 	
 	/**
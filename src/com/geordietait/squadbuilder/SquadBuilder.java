@@ -14,12 +14,12 @@ public class SquadBuilder {
 	public static void main(String[] args) {
 		
 		// check command line arguments
-		if (args.length != 0 && args.length > 2) 
+		if (args.length > 6) 
 			usage();
 		
 		// check if given a valid port, otherwise use default 8080
 		int port = 8080;
-		if (args.length == 1 || args.length == 2) {
+		if (args.length >= 1) {
 			try {
 				port = Integer.valueOf(args[0]);
 			}
@@ -30,12 +30,44 @@ public class SquadBuilder {
 		
 		// check if given a valid JSON location, otherwise use default
 		String jsonLocation = "players.json";
-		if (args.length == 3 && !args[1].isEmpty()) {
+		if (args.length >= 2 && !args[1].isEmpty()) {
 			jsonLocation = args[1];
 		}
+		
+		// check if given a server mode, otherwise use selectors
+		WebServer.Mode mode = WebServer.Mode.SELECTOR;
+		if (args.length >= 3) {
+			try {
+				mode = WebServer.Mode.valueOf(args[2].toUpperCase());
+			}
+			catch (IllegalArgumentException e) {
+				usage();
+			}
+		}
+
+		// check if given limits for the optimiser, otherwise use the defaults
+		// (optimisations use every processor between them, and wait a bounded time for a turn)
+		int optimisers = WebServer.DEFAULT_CPU_THREADS;
+		int queueLimit = AdmissionControl.DEFAULT_QUEUE_LIMIT;
+		long queueTimeout = AdmissionControl.DEFAULT_QUEUE_TIMEOUT;
+		try {
+			if (args.length >= 4)
+				optimisers = Integer.valueOf(args[3]);
+			if (args.length >= 5)
+				queueLimit = Integer.valueOf(args[4]);
+			if (args.length >= 6)
+				queueTimeout = Long.valueOf(args[5]);
+		}
+		catch (NumberFormatException e) {
+			usage();
+		}
+		if (optimisers < 1 || queueLimit < 0 || queueTimeout < 0)
+			usage();
 
 		// start the web server
-		WebServer server = new WebServer(port, jsonLocation);
+		WebServer server = new WebServer(port, jsonLocation, WebServer.DEFAULT_IO_THREADS, optimisers);
+		server.setMode(mode);
+		server.setAdmission(queueLimit, queueTimeout);
 		server.runServer();
 	}
 	
@@ -43,7 +75,7 @@ public class SquadBuilder {
 	 * Print usage statement
 	 */
 	private static void usage() {
-		System.err.println("Usage: squadbuilder [port] [JSON_location]");
+		System.err.println("Usage: squadbuilder [port] [JSON_location] [selector|blocking] [optimisers] [queue_limit] [queue_timeout_ms]");
 		System.exit(-1);
 	}
 
@@ -0,0 +1,241 @@
+package com.geordietait.squadbuilder;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Class for making squads for /make requests with as little optimising as
+ * possible: a recent result for the same roster and options is reused
+ * from the result cache, and requests which arrive while the same
+ * optimisation is already running wait for it instead of starting their
+ * own. However many clients ask at once, each distinct request runs the
+ * solver once. Requests which reuse or join a result are answered without
+ * a turn on the CPU pool, and none of them holds a thread while it waits.
+ *
+ * Results are immutable snapshots, so every caller shares the same one.
+ * Each caller is also told whether its result is shared with other
+ * requests (taken from the cache or from another request's run), so
+ * whatever it builds from a shared result can be kept for them too.
+ *
+ * @author Geordie Tait
+ *
+ */
+public class SquadMaker {
+
+	// results of requests which ran their own optimisation, and of requests which did not
+	private static final Function<TournamentSnapshot, Result> OWN = new Function<TournamentSnapshot, Result>() {
+		@Override
+		public Result apply(TournamentSnapshot snapshot) {
+			return new Result(snapshot, false);
+		}
+	};
+	private static final Function<TournamentSnapshot, Result> SHARED = new Function<TournamentSnapshot, Result>() {
+		@Override
+		public Result apply(TournamentSnapshot snapshot) {
+			return new Result(snapshot, true);
+		}
+	};
+
+	// results of recent optimisations
+	private ResultCache results;
+
+	// optimisations running now, by roster fingerprint and options
+	private ConcurrentHashMap<String, CompletableFuture<TournamentSnapshot>> running =
+			new ConcurrentHashMap<String, CompletableFuture<TournamentSnapshot>>();
+
+	// number of optimisations run
+	private AtomicLong runs = new AtomicLong();
+
+	// number of requests which joined an optimisation started by another
+	private AtomicLong coalesced = new AtomicLong();
+
+	/**
+	 * Constructor for SquadMaker
+	 * @param results Cache for the results of recent optimisations
+	 */
+	public SquadMaker(ResultCache results) {
+		this.results = results;
+	}
+
+	/**
+	 * Make balanced squads on the calling thread, reusing a cached or running optimisation
+	 * if there is one
+	 * @param players Players to arrange
+	 * @param options Number of squads, solver and seed
+	 * @param criteria Stopping criteria for the solver
+	 * @return The best arrangement found
+	 */
+	public TournamentSnapshot make(Players players, MakeOptions options, StoppingCriterion... criteria) {
+		try {
+			return make(players, options, null, criteria).join().getSnapshot();
+		}
+		catch (CompletionException e) {
+			throw new IllegalStateException("The optimisation failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Make balanced squads without holding a thread while they are made. A cached
+	 * result is returned at once, and a request for an optimisation which is already
+	 * running shares its result, so neither takes a turn on the CPU pool. Only a
+	 * request which starts an optimisation goes through admission control.
+	 * @param players Players to arrange
+	 * @param options Number of squads, solver and seed
+	 * @param admission Admission to the pool which runs the optimisation (null to run it
+	 * on the calling thread)
+	 * @param criteria Stopping criteria for the solver
+	 * @return The best arrangement found, and whether it is shared, when it is ready
+	 * (failing with a RejectedExecutionException if the optimisation was turned away)
+	 */
+	public CompletableFuture<Result> make(final Players players, final MakeOptions options,
+			AdmissionControl admission, final StoppingCriterion... criteria) {
+		if (options.isCacheable()) {
+			TournamentSnapshot cached = results.get(players, options);
+			if (cached != null)
+				return CompletableFuture.completedFuture(new Result(cached, true));
+		}
+
+		// join the same optimisation if it is already running
+		final String key = ResultCache.getKey(players, options);
+		final CompletableFuture<TournamentSnapshot> result = new CompletableFuture<TournamentSnapshot>();
+		CompletableFuture<TournamentSnapshot> existing = running.putIfAbsent(key, result);
+		if (existing != null) {
+			coalesced.incrementAndGet();
+			return existing.thenApply(SHARED);
+		}
+
+		// the optimisation may have finished between the lookup and joining the running
+		// map (its result is stored before it leaves the map), so look again before running it
+		if (options.isCacheable()) {
+			TournamentSnapshot cached = results.get(players, options);
+			if (cached != null) {
+				running.remove(key, result);
+				result.complete(cached);
+				return CompletableFuture.completedFuture(new Result(cached, true));
+			}
+		}
+
+		// otherwise run it, and share the result with anyone who joined
+		Runnable run = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					runs.incrementAndGet();
+					TournamentSnapshot best = TournamentSnapshot.of(
+							options.newSolver().solve(players, options.getNumSquads(), criteria));
+					results.put(players, options, best);
+					result.complete(best);
+				}
+				catch (RuntimeException | Error e) {
+					result.completeExceptionally(e);
+				}
+				finally {
+					running.remove(key, result);
+				}
+			}
+		};
+		if (admission == null) {
+			run.run();
+			return result.thenApply(OWN);
+		}
+		try {
+			admission.execute(run, options.getParallelism(), new Runnable() {
+				@Override
+				public void run() {
+					// the optimisation waited too long for its turn
+					fail(key, result, new RejectedExecutionException("The optimisation waited too long"));
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			// too many optimisations are waiting, or the server is shutting down
+			fail(key, result, e);
+		}
+		return result.thenApply(OWN);
+	}
+
+	/**
+	 * End an optimisation which was not run, failing every request which joined it
+	 * @param key Roster fingerprint and options of the optimisation
+	 * @param result Result of the optimisation
+	 * @param cause Reason it was not run
+	 */
+	private void fail(String key, CompletableFuture<TournamentSnapshot> result, Throwable cause) {
+		// leave the running map first, so no further request joins a failed optimisation
+		running.remove(key, result);
+		result.completeExceptionally(cause);
+	}
+
+	/**
+	 * Get the number of optimisations run
+	 * @return Number of runs
+	 */
+	public long getRuns() {
+		return runs.get();
+	}
+
+	/**
+	 * Get the number of requests which joined an optimisation started by another
+	 * @return Number of coalesced requests
+	 */
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+
+	/**
+	 * Get the state of the result cache and of the running optimisations
+	 * @return Status report with one "name=value" pair per line
+	 */
+	public String getStatus() {
+		return results.getStatus()
+				+ "make.running=" + running.size() + "\n"
+				+ "make.runs=" + runs.get() + "\n"
+				+ "make.coalesced=" + coalesced.get() + "\n";
+	}
+
+	/**
+	 * Class for the squads made for a request
+	 *
+	 * @author Geordie Tait
+	 *
+	 */
+	public static final class Result {
+
+		// the best arrangement found
+		private final TournamentSnapshot snapshot;
+
+		// true if other requests get the same arrangement
+		private final boolean shared;
+
+		/**
+		 * Constructor for Result
+		 * @param snapshot The best arrangement found
+		 * @param shared True if the arrangement came from the cache or another request's run
+		 */
+		Result(TournamentSnapshot snapshot, boolean shared) {
+			this.snapshot = snapshot;
+			this.shared = shared;
+		}
+
+		/**
+		 * Get the best arrangement found
+		 * @return Snapshot of the squads
+		 */
+		public TournamentSnapshot getSnapshot() {
+			return snapshot;
+		}
+
+		/**
+		 * Check if other requests get the same arrangement: it came from the result
+		 * cache, or from an optimisation another request started
+		 * @return True if shared
+		 */
+		public boolean isShared() {
+			return shared;
+		}
+	}
+}
@@ -0,0 +1,317 @@
+package com.geordietait.squadbuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class for serving the static files in a directory (the stylesheet and
+ * images used by the pages).
+ *
+ * The validators of each file are worked out once: its ETag, its
+ * Last-Modified date and its content type. Small files are also kept in
+ * memory, up to a total budget, and larger ones are sent from the file
+ * (by FileChannel.transferTo in selector mode). A file is checked for
+ * changes at most once per REVALIDATE_INTERVAL ms.
+ *
+ * Clients which already hold the current version get a 304 Not Modified
+ * with no body, using If-None-Match or If-Modified-Since. Clients which
+ * accept gzip get a precompressed "name.gz" variant when one exists and
+ * is at least as new as the original.
+ *
+ * @author Geordie Tait
+ *
+ */
+public class StaticFiles {
+
+	// largest file kept in memory
+	public static final int MAX_CACHED_FILE = 1 << 20;
+
+	// most bytes kept in memory across all files
+	public static final long MAX_CACHED_TOTAL = 16 << 20;
+
+	// milliseconds between checks of a file for changes
+	public static final long REVALIDATE_INTERVAL = 1000;
+
+	// content types by file extension
+	private static final HashMap<String, String> CONTENT_TYPES = new HashMap<String, String>();
+	static {
+		CONTENT_TYPES.put("html", "text/html");
+		CONTENT_TYPES.put("css", "text/css");
+		CONTENT_TYPES.put("js", "application/javascript");
+		CONTENT_TYPES.put("json", "application/json");
+		CONTENT_TYPES.put("txt", "text/plain");
+		CONTENT_TYPES.put("md", "text/plain");
+		CONTENT_TYPES.put("jpg", "image/jpeg");
+		CONTENT_TYPES.put("jpeg", "image/jpeg");
+		CONTENT_TYPES.put("png", "image/png");
+		CONTENT_TYPES.put("gif", "image/gif");
+		CONTENT_TYPES.put("svg", "image/svg+xml");
+		CONTENT_TYPES.put("ico", "image/x-icon");
+	}
+
+	// directory the files are served from
+	private File root;
+
+	// files seen so far by name
+	private ConcurrentHashMap<String, Asset> assets = new ConcurrentHashMap<String, Asset>();
+
+	// bytes currently kept in memory
+	private AtomicLong cachedBytes = new AtomicLong();
+
+	/**
+	 * Constructor for StaticFiles
+	 * @param root Directory to serve files from
+	 */
+	public StaticFiles(File root) {
+		this.root = root;
+	}
+
+	/**
+	 * Make the response for a request for a static file
+	 * @param request Parsed request
+	 * @param name File name, relative to the directory
+	 * @param keepAlive True if the connection will stay open after the response
+	 * @return Response to send, or null if there is no such file
+	 */
+	public HttpResponse respond(HttpRequest request, String name, boolean keepAlive) {
+		Asset asset = get(name);
+		if (asset == null)
+			return null;
+
+		// use the precompressed variant if the client accepts it
+		Asset variant = asset;
+		if (asset.gzip != null && request.acceptsEncoding("gzip"))
+			variant = asset.gzip;
+
+		HttpResponse response;
+		if (isNotModified(request, variant)) {
+			// the client's copy is current, so send only the validators
+			response = new HttpResponse("304 Not Modified", keepAlive);
+			response.setHeadOnly(true);
+		}
+		else {
+			response = new HttpResponse("200 OK", keepAlive);
+			response.addHeader("Content-Type", asset.contentType);
+			if (variant.bytes != null)
+				response.setBody(variant.bytes);
+			else
+				response.setFile(variant.file);
+			response.setHeadOnly(request.getMethod().equals("HEAD"));
+		}
+		response.addHeader("Last-Modified", variant.lastModifiedText);
+		response.addHeader("ETag", variant.etag);
+		if (variant != asset)
+			response.addHeader("Content-Encoding", "gzip");
+		if (asset.gzip != null)
+			response.addHeader("Vary", "Accept-Encoding");
+		return response;
+	}
+
+	/**
+	 * Get the number of bytes kept in memory
+	 * @return Cached bytes
+	 */
+	public long getCachedBytes() {
+		return cachedBytes.get();
+	}
+
+	/**
+	 * Check if the client already holds the current version of a file:
+	 * If-None-Match takes precedence over If-Modified-Since
+	 * @param request Parsed request
+	 * @param asset File requested
+	 * @return True if a 304 Not Modified should be sent
+	 */
+	private static boolean isNotModified(HttpRequest request, Asset asset) {
+		String method = request.getMethod();
+		if (!method.equals("GET") && !method.equals("HEAD"))
+			return false;
+
+		String match = request.getHeader("if-none-match");
+		if (match != null) {
+			for (String tag : match.split(",")) {
+				tag = tag.trim();
+				if (tag.startsWith("W/"))
+					tag = tag.substring(2);
+				if (tag.equals("*") || tag.equals(asset.etag))
+					return true;
+			}
+			return false;
+		}
+
+		String since = request.getHeader("if-modified-since");
+		if (since != null) {
+			try {
+				long time = ZonedDateTime.parse(since, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+				return asset.lastModified / 1000 <= time / 1000;
+			}
+			catch (DateTimeParseException e) {
+				// ignore malformed dates
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Get the current version of a file
+	 * @param name File name, relative to the directory
+	 * @return File, or null if there is no such file
+	 */
+	private Asset get(String name) {
+		long now = System.currentTimeMillis();
+		Asset asset = assets.get(name);
+		if (asset != null && now - asset.checkedAt < REVALIDATE_INTERVAL)
+			return asset;
+
+		// check the file system, and reload the file if it has changed
+		File file = new File(root, name);
+		if (!file.isFile()) {
+			if (asset != null && assets.remove(name, asset))
+				release(asset);
+			return null;
+		}
+		File gzipFile = new File(root, name + ".gz");
+		if (asset != null && asset.isCurrent(file, gzipFile)) {
+			asset.checkedAt = now;
+			return asset;
+		}
+
+		Asset loaded = load(file, gzipFile, now);
+		if (loaded == null)
+			return null;
+		Asset previous = assets.put(name, loaded);
+		if (previous != null)
+			release(previous);
+		return loaded;
+	}
+
+	/**
+	 * Load a file and its precompressed variant, if there is a current one
+	 * @param file File to load
+	 * @param gzipFile Precompressed variant of the file
+	 * @param now Current time in milliseconds
+	 * @return Loaded file, or null if it could not be read
+	 */
+	private Asset load(File file, File gzipFile, long now) {
+		Asset asset = loadFile(file, now);
+		if (asset != null && gzipFile.isFile() && gzipFile.lastModified() >= file.lastModified())
+			asset.gzip = loadFile(gzipFile, now);
+		return asset;
+	}
+
+	/**
+	 * Work out the validators of a single file, reading it into memory if it fits
+	 * @param file File to load
+	 * @param now Current time in milliseconds
+	 * @return Loaded file, or null if it could not be read
+	 */
+	private Asset loadFile(File file, long now) {
+		Asset asset = new Asset();
+		asset.file = file;
+		asset.length = file.length();
+		asset.lastModified = file.lastModified();
+		asset.lastModifiedText = DateTimeFormatter.RFC_1123_DATE_TIME.format(
+				ZonedDateTime.ofInstant(Instant.ofEpochMilli(asset.lastModified), ZoneOffset.UTC));
+		asset.etag = "\"" + Long.toHexString(asset.lastModified) + "-" + Long.toHexString(asset.length) + "\"";
+		asset.contentType = getContentType(file.getName());
+		asset.checkedAt = now;
+
+		// keep small files in memory while the budget allows
+		if (asset.length <= MAX_CACHED_FILE && cachedBytes.addAndGet(asset.length) <= MAX_CACHED_TOTAL) {
+			try {
+				asset.bytes = Files.readAllBytes(file.toPath());
+			}
+			catch (IOException e) {
+				cachedBytes.addAndGet(-asset.length);
+				return null;
+			}
+
+			// the file may have changed between the check and the read
+			if (asset.bytes.length != asset.length) {
+				cachedBytes.addAndGet(asset.bytes.length - asset.length);
+				asset.length = asset.bytes.length;
+				asset.etag = "\"" + Long.toHexString(asset.lastModified) + "-" + Long.toHexString(asset.length) + "\"";
+			}
+		}
+		else if (asset.length <= MAX_CACHED_FILE) {
+			cachedBytes.addAndGet(-asset.length);
+		}
+		return asset;
+	}
+
+	/**
+	 * Return the memory held by a file that is no longer cached
+	 * @param asset File being dropped
+	 */
+	private void release(Asset asset) {
+		if (asset.bytes != null)
+			cachedBytes.addAndGet(-asset.bytes.length);
+		if (asset.gzip != null)
+			release(asset.gzip);
+	}
+
+	/**
+	 * Get the content type of a file from its extension
+	 * @param name File name
+	 * @return Content type
+	 */
+	static String getContentType(String name) {
+		int dot = name.lastIndexOf('.');
+		String type = dot < 0 ? null : CONTENT_TYPES.get(name.substring(dot + 1).toLowerCase());
+		return type != null ? type : "application/octet-stream";
+	}
+
+	/**
+	 * Class for a file seen by the server
+	 *
+	 * @author Geordie Tait
+	 *
+	 */
+	private static class Asset {
+
+		// the file on disk
+		private File file;
+
+		// length and modification time when the file was loaded
+		private long length;
+		private long lastModified;
+
+		// precomputed validators and content type
+		private String lastModifiedText;
+		private String etag;
+		private String contentType;
+
+		// the contents, or null if the file is sent from disk
+		private byte[] bytes;
+
+		// the precompressed variant, or null if there is none
+		private Asset gzip;
+
+		// the time the file was last checked for changes
+		private volatile long checkedAt;
+
+		/**
+		 * Check if this is still the current version of a file and its variant
+		 * @param current The file on disk
+		 * @param gzipFile The precompressed variant on disk
+		 * @return True if neither has changed since loading
+		 */
+		boolean isCurrent(File current, File gzipFile) {
+			if (current.length() != length || current.lastModified() != lastModified)
+				return false;
+			boolean hasVariant = gzipFile.isFile() && gzipFile.lastModified() >= lastModified;
+			if (gzip == null)
+				return !hasVariant;
+			return hasVariant && gzipFile.length() == gzip.length && gzipFile.lastModified() == gzip.lastModified;
+		}
+	}
+}
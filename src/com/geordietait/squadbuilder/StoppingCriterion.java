@@ -0,0 +1,95 @@
+package com.geordietait.squadbuilder;
+
+/**
+ * Interface for rules deciding when an optimisation should stop.
+ * Several criteria can be combined, in which case the search stops as
+ * soon as any one of them is met, and reports which one it was.
+ * @author Geordie Tait
+ *
+ */
+public interface StoppingCriterion {
+
+	/**
+	 * Check if the criterion is met
+	 * @param progress Progress of the running optimisation
+	 * @return True if the optimisation should stop
+	 */
+	boolean isMet(SearchProgress progress);
+
+	/**
+	 * Criterion which is met after a wall-clock budget has been used
+	 * @param milliseconds How many ms to run for
+	 * @return Stopping criterion
+	 */
+	static StoppingCriterion timeLimit(final long milliseconds) {
+		return new StoppingCriterion() {
+			@Override
+			public boolean isMet(SearchProgress progress) {
+				return progress.getElapsedMillis() >= milliseconds;
+			}
+
+			@Override
+			public String toString() {
+				return "time limit (" + milliseconds + " ms)";
+			}
+		};
+	}
+
+	/**
+	 * Criterion which is met after a number of generations
+	 * @param generations How many generations to run for
+	 * @return Stopping criterion
+	 */
+	static StoppingCriterion generationLimit(final int generations) {
+		return new StoppingCriterion() {
+			@Override
+			public boolean isMet(SearchProgress progress) {
+				return progress.getGeneration() >= generations;
+			}
+
+			@Override
+			public String toString() {
+				return "generation limit (" + generations + ")";
+			}
+		};
+	}
+
+	/**
+	 * Criterion which is met when the best variance has not improved
+	 * for a number of generations
+	 * @param generations Length of the stagnation window in generations
+	 * @return Stopping criterion
+	 */
+	static StoppingCriterion stagnation(final int generations) {
+		return new StoppingCriterion() {
+			@Override
+			public boolean isMet(SearchProgress progress) {
+				return progress.getStagnantGenerations() >= generations;
+			}
+
+			@Override
+			public String toString() {
+				return "stagnation (" + generations + " generations without improvement)";
+			}
+		};
+	}
+
+	/**
+	 * Criterion which is met when the best variance reaches a target
+	 * @param variance Target variance
+	 * @return Stopping criterion
+	 */
+	static StoppingCriterion targetVariance(final double variance) {
+		return new StoppingCriterion() {
+			@Override
+			public boolean isMet(SearchProgress progress) {
+				return progress.getBestVariance() <= variance;
+			}
+
+			@Override
+			public String toString() {
+				return "target variance (" + variance + ")";
+			}
+		};
+	}
+}
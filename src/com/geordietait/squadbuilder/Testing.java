@@ -1,7 +1,31 @@
 package com.geordietait.squadbuilder;
 
 import static org.junit.jupiter.api.Assertions.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import org.junit.jupiter.api.Test;
 
 /**
@@ -62,6 +86,48 @@ class Testing {
 		assertFalse(psBad3.checkPlayers());
 	}
 
+	/**
+	 * Test the packed roster of the Players class
+	 */
+	@Test
+	void testPackedRoster() {
+		
+		// prepare skill objects (in a different order than the ordinals)
+		ArrayList<Skill> skills1 = new ArrayList<Skill>();
+		skills1.add(new Skill("Checking", 5));
+		skills1.add(new Skill("Skating", 1));
+		skills1.add(new Skill("Shooting", 3));
+		
+		ArrayList<Skill> skills2 = new ArrayList<Skill>();
+		skills2.add(new Skill("Shooting", 5));
+		skills2.add(new Skill("Skating", 3));
+		skills2.add(new Skill("Checking", 7));
+		
+		// prepare players object
+		Players ps = new Players();
+		ps.getList().add(new Player("1234", "Curie", "Marie", skills1));
+		ps.getList().add(new Player("4321", "Lovelace", "Ada", skills2));
+		ps.pack();
+		
+		// test player indices
+		assertEquals(0, ps.getList().get(0).getIndex());
+		assertEquals(1, ps.getList().get(1).getIndex());
+		
+		// test packed columns
+		int[][] columns = ps.getColumns();
+		assertEquals(1, columns[Skill.SKATING][0]);
+		assertEquals(3, columns[Skill.SHOOTING][0]);
+		assertEquals(7, columns[Skill.CHECKING][1]);
+		
+		// test squad averages read from the packed roster
+		Squad s = new Squad(ps);
+		s.addMember(ps.getList().get(0));
+		s.addMember(ps.getList().get(1));
+		assertEquals(2, s.getSkatingAvg());
+		assertEquals(4, s.getShootingAvg());
+		assertEquals(6, s.getCheckingAvg());
+	}
+
 	/**
 	 * Test the Squad class
 	 */
@@ -180,6 +246,42 @@ class Testing {
 		assertEquals(1.5, t.getVariance());
 	}
 	
+	/**
+	 * Test incremental variance updates for swaps in the Tournament class
+	 */
+	@Test
+	void testSwapVariance() {
+		
+		// prepare players with a spread of ratings
+		Players ps = makePlayers(9);
+		
+		// prepare tournament object (4 squads of 2, with 1 on the waitlist)
+		Tournament t = new Tournament(ps, 4);
+		t.fillSquadsRandom();
+		
+		// test that scoring a swap predicts the variance without applying it
+		Player before = t.getSquads().get(0).getMembers().get(1);
+		double predicted = t.scoreSwap(0, 1, 2, 0);
+		assertSame(before, t.getSquads().get(0).getMembers().get(1));
+		t.swap(0, 1, 2, 0);
+		assertEquals(predicted, t.getVariance(), 1e-9);
+		assertEquals(t.getSkatingVariance() + t.getShootingVariance() + t.getCheckingVariance(), 
+				t.getVariance(), 1e-9);
+		
+		// test the same for a swap with the waitlist
+		predicted = t.scoreWaitlistSwap(1, 0, 0);
+		t.swapWithWaitlist(1, 0, 0);
+		assertEquals(predicted, t.getVariance(), 1e-9);
+		assertEquals(t.getSkatingVariance() + t.getShootingVariance() + t.getCheckingVariance(), 
+				t.getVariance(), 1e-9);
+		
+		// test that a copy carries the running sums along
+		Tournament copy = new Tournament(t);
+		copy.swap(1, 1, 0, 0);
+		assertEquals(copy.getSkatingVariance() + copy.getShootingVariance() + copy.getCheckingVariance(), 
+				copy.getVariance(), 1e-9);
+	}
+	
 	/**
 	 * Test the Population class
 	 */
@@ -289,4 +391,1193 @@ class Testing {
 		}
 		assertFalse(completeMatch);
 	}
+	
+	/**
+	 * Test survivor selection in the Population class
+	 */
+	@Test
+	void testSurvivorSelection() {
+		
+		// prepare players with a spread of ratings
+		Players ps = makePlayers(40);
+		
+		// prepare population object and advance a generation
+		Population pop = new Population(ps, 5, 200);
+		pop.nextGeneration();
+		
+		// test that the survivors are in order of fitness
+		for (int i = 1; i < 20; i++)
+			assertTrue(pop.getIndividuals().get(i - 1).getVariance() <= pop.getIndividuals().get(i).getVariance());
+		
+		// test that no culled individual is fitter than a survivor
+		for (int i = 20; i < 200; i++)
+			assertTrue(pop.getIndividuals().get(19).getVariance() <= pop.getIndividuals().get(i).getVariance());
+		
+		// test that a full sort orders the whole population
+		pop.sortByFitness();
+		for (int i = 1; i < 200; i++)
+			assertTrue(pop.getIndividuals().get(i - 1).getVariance() <= pop.getIndividuals().get(i).getVariance());
+	}
+	
+	/**
+	 * Test the stopping criteria for the Population class
+	 */
+	@Test
+	void testStoppingCriteria() {
+		
+		// prepare players with identical ratings (every arrangement is perfect)
+		Players ps = new Players();
+		for (int i = 0; i < 8; i++) {
+			ArrayList<Skill> skills = new ArrayList<Skill>();
+			skills.add(new Skill("Skating", 5));
+			skills.add(new Skill("Shooting", 5));
+			skills.add(new Skill("Checking", 5));
+			ps.getList().add(new Player(Integer.toString(i), "Player" + i, "Test", skills));
+		}
+		
+		// test that the target variance ends the run before any generation
+		StoppingCriterion target = StoppingCriterion.targetVariance(0.0);
+		Population pop = new Population(ps, 2, 50);
+		assertSame(target, pop.evolve(StoppingCriterion.timeLimit(60000), target));
+		assertEquals(0, pop.getGeneration());
+		
+		// test that the stagnation window ends the run
+		StoppingCriterion stagnation = StoppingCriterion.stagnation(20);
+		pop = new Population(ps, 2, 50);
+		assertSame(stagnation, pop.evolve(StoppingCriterion.timeLimit(60000), stagnation));
+		assertEquals(20, pop.getGeneration());
+		
+		// test that the generation budget ends the run
+		StoppingCriterion generations = StoppingCriterion.generationLimit(10);
+		pop = new Population(ps, 2, 50);
+		assertSame(generations, pop.evolve(generations, StoppingCriterion.timeLimit(60000)));
+		assertEquals(10, pop.getGeneration());
+	}
+	
+	/**
+	 * Test that seeded optimisations are reproducible
+	 */
+	@Test
+	void testSeededPopulation() {
+		
+		// prepare players with a spread of ratings
+		Players ps = makePlayers(30);
+		
+		// test that two populations with the same seed evolve identically
+		Population pop1 = new Population(ps, 4, 100, 1234L);
+		pop1.evolve(StoppingCriterion.generationLimit(50));
+		Population pop2 = new Population(ps, 4, 100, 1234L);
+		pop2.evolve(StoppingCriterion.generationLimit(50));
+		assertEquals(describe(pop1.getBest()), describe(pop2.getBest()));
+		
+		// test that two island models with the same seed evolve identically
+		IslandModel islands1 = new IslandModel(ps, 4, 100, 3, 10, 99L);
+		islands1.evolve(StoppingCriterion.generationLimit(50));
+		IslandModel islands2 = new IslandModel(ps, 4, 100, 3, 10, 99L);
+		islands2.evolve(StoppingCriterion.generationLimit(50));
+		assertEquals(describe(islands1.getBest()), describe(islands2.getBest()));
+	}
+	
+	/**
+	 * Test the IslandModel class
+	 */
+	@Test
+	void testIslandModel() {
+		Players ps = makePlayers(30);
+		
+		// test that the same seed gives the same islands, not just the same best
+		IslandModel model1 = new IslandModel(ps, 4, 60, 4, 5, 2024L);
+		model1.evolve(StoppingCriterion.generationLimit(40));
+		IslandModel model2 = new IslandModel(ps, 4, 60, 4, 5, 2024L);
+		model2.evolve(StoppingCriterion.generationLimit(40));
+		assertEquals(40, model1.getGeneration());
+		for (int i = 0; i < 4; i++)
+			assertEquals(describe(model1.getIslands()[i].getBest()), describe(model2.getIslands()[i].getBest()));
+		
+		// test that no island's best gets worse across the migrations (the listener
+		// is told after each migration)
+		final IslandModel model = new IslandModel(ps, 4, 60, 4, 2, 7L);
+		final double[] bests = new double[4];
+		Arrays.fill(bests, Double.MAX_VALUE);
+		final int[] reports = new int[1];
+		model.setProgressListener((progress, best) -> {
+			for (int i = 0; i < 4; i++) {
+				double variance = model.getIslands()[i].getBest().getVariance();
+				assertTrue(variance <= bests[i]);
+				bests[i] = variance;
+			}
+			reports[0]++;
+		}, 1);
+		model.evolve(StoppingCriterion.generationLimit(30));
+		assertTrue(reports[0] >= 15);
+		
+		// test the report of the shared island pool
+		assertTrue(IslandModel.getPoolStatus().contains("islands.maxThreads="
+				+ Runtime.getRuntime().availableProcessors() + "\n"));
+		
+		// test that an immigrant replaces the worst individual, wherever it is
+		Population island = model.getIslands()[0];
+		Tournament best = island.getBest();
+		double worst = 0.0;
+		for (Tournament t : island.getIndividuals())
+			worst = Math.max(worst, t.getVariance());
+		final double highest = worst;
+		long before = island.getIndividuals().stream().filter(t -> t.getVariance() == highest).count();
+		island.immigrate(best);
+		assertEquals(before - 1, island.getIndividuals().stream().filter(t -> t.getVariance() == highest).count());
+		
+		// test that an immigrant worse than an island's best leaves the best alone
+		best = island.getBest();
+		Tournament worse = new Tournament(ps, 4);
+		worse.fillSquadsRandom();
+		if (worse.getVariance() > best.getVariance()) {
+			double variance = best.getVariance();
+			island.immigrate(worse);
+			assertEquals(variance, island.getBest().getVariance(), 1e-9);
+		}
+	}
+	
+	/**
+	 * Test the Seeder class
+	 */
+	@Test
+	void testSeeder() {
+		
+		// prepare players with a spread of ratings
+		Players ps = makePlayers(30);
+		ps.pack();
+		
+		// test that every strategy fills full squads, places each player exactly once,
+		// and keeps the cached variance correct (4 squads of 7, with 2 on the waitlist)
+		Seeder seeder = new Seeder();
+		SplittableRandom rand = new SplittableRandom(42);
+		Tournament t = new Tournament(ps, 4);
+		for (Seeder.Strategy strategy : Seeder.Strategy.values()) {
+			seeder.fill(t, strategy, rand);
+			HashSet<Player> placed = new HashSet<Player>(t.getWaitList());
+			assertEquals(2, t.getWaitList().size());
+			assertEquals(4, t.getSquads().size());
+			for (Squad s : t.getSquads()) {
+				assertEquals(7, s.getMembers().size());
+				placed.addAll(s.getMembers());
+			}
+			assertEquals(30, placed.size());
+			double variance = t.getVariance();
+			t.recalculateVariance();
+			assertEquals(t.getVariance(), variance, 1e-9);
+		}
+		
+		// test that the greedy and differencing heuristics beat random fills on average
+		double[] totals = new double[Seeder.Strategy.values().length];
+		for (int i = 0; i < 20; i++) {
+			for (Seeder.Strategy strategy : Seeder.Strategy.values()) {
+				seeder.fill(t, strategy, rand);
+				totals[strategy.ordinal()] += t.getVariance();
+			}
+		}
+		assertTrue(totals[Seeder.Strategy.GREEDY.ordinal()] < totals[Seeder.Strategy.RANDOM.ordinal()]);
+		assertTrue(totals[Seeder.Strategy.DIFFERENCING.ordinal()] < totals[Seeder.Strategy.RANDOM.ordinal()]);
+		
+		// test that the seeding weights are checked
+		assertThrows(IllegalArgumentException.class, () -> new Seeder(-1.0, 1.0, 0.0, 0.0));
+		assertThrows(IllegalArgumentException.class, () -> new Seeder(0.0, 0.0, 0.0, 0.0));
+	}
+	
+	/**
+	 * Test the HttpRequest class
+	 */
+	@Test
+	void testHttpRequest() throws IOException {
+		
+		// test that two pipelined requests are read in turn, with headers, queries and bodies
+		String raw = "GET /make?squads=4&solver=hill%20climb HTTP/1.1\r\nHost: localhost\r\n"
+				+ "X-Test: a\r\nX-Test: b\r\n\r\n"
+				+ "POST /make HTTP/1.0\r\nContent-Type: application/x-www-form-urlencoded\r\n"
+				+ "Content-Length: 9\r\n\r\nsquads=12";
+		InputStream in = new ByteArrayInputStream(raw.getBytes("US-ASCII"));
+		HttpRequest get = HttpRequest.read(in);
+		assertFalse(get.isBadRequest());
+		assertEquals("GET", get.getMethod());
+		assertEquals("make", get.getPath());
+		assertEquals("4", get.getParams().get("squads"));
+		assertEquals("hill climb", get.getParams().get("solver"));
+		assertEquals("a, b", get.getHeader("x-test"));
+		assertTrue(get.isKeepAlive());
+		HttpRequest post = HttpRequest.read(in);
+		assertFalse(post.isBadRequest());
+		assertEquals("12", post.getParams().get("squads"));
+		assertEquals(9, post.getBody().length);
+		assertFalse(post.isKeepAlive());
+		assertNull(HttpRequest.read(in));
+		
+		// test the connection options
+		assertFalse(parse("GET / HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n").isKeepAlive());
+		assertTrue(parse("GET / HTTP/1.0\r\nConnection: Keep-Alive\r\n\r\n").isKeepAlive());
+		
+		// test that malformed requests are marked as bad
+		assertTrue(parse("GET /\r\n\r\n").isBadRequest());
+		assertTrue(parse("GET index.html HTTP/1.1\r\nHost: x\r\n\r\n").isBadRequest());
+		assertTrue(parse("GET / HTTP/1.1\r\n\r\n").isBadRequest());
+		assertTrue(parse("GET / HTTP/1.1\r\nHost: x\r\nBroken header\r\n\r\n").isBadRequest());
+		assertTrue(parse("POST / HTTP/1.1\r\nHost: x\r\nContent-Length: 5\r\n\r\nab").isBadRequest());
+		
+		// test finding where buffered requests end, as the selector server does
+		byte[] data = raw.getBytes("US-ASCII");
+		int first = HttpRequest.getRequestLength(data, data.length);
+		assertEquals(raw.indexOf("POST"), first);
+		assertEquals(0, HttpRequest.getRequestLength(data, first - 1));
+		byte[] rest = raw.substring(first).getBytes("US-ASCII");
+		assertEquals(rest.length, HttpRequest.getRequestLength(rest, rest.length));
+		assertEquals(0, HttpRequest.getRequestLength(rest, rest.length - 1));
+		assertEquals(-1, HttpRequest.getRequestLength(new byte[HttpRequest.MAX_HEADER_LENGTH + 1], 
+				HttpRequest.MAX_HEADER_LENGTH + 1));
+	}
+	
+	/**
+	 * Test the StaticFiles class
+	 */
+	@Test
+	void testStaticFiles() throws IOException {
+		
+		// prepare a directory with a stylesheet and its precompressed variant
+		File root = Files.createTempDirectory("static").toFile();
+		File css = new File(root, "site.css");
+		File gz = new File(root, "site.css.gz");
+		Files.write(css.toPath(), "body {}".getBytes("US-ASCII"));
+		Files.write(gz.toPath(), "zipped".getBytes("US-ASCII"));
+		gz.setLastModified(css.lastModified());
+		StaticFiles files = new StaticFiles(root);
+		
+		// test a plain request, served from memory
+		HttpResponse plain = files.respond(parse("GET /site.css HTTP/1.1\r\nHost: x\r\n\r\n"), "site.css", true);
+		assertEquals("200 OK", plain.getStatus());
+		assertEquals("body {}", new String(plain.getBody(), "US-ASCII"));
+		String header = new String(plain.getHeaderBytes(), "US-ASCII");
+		assertTrue(header.contains("Content-Type: text/css\r\n"));
+		assertTrue(header.contains("Content-Length: 7\r\n"));
+		assertFalse(header.contains("Content-Encoding"));
+		String etag = header.substring(header.indexOf("ETag: ") + 6, header.indexOf("\r\n", header.indexOf("ETag: ")));
+		
+		// test the precompressed variant, and that q=0 refuses it
+		HttpResponse zipped = files.respond(parse("GET /site.css HTTP/1.1\r\nHost: x\r\n"
+				+ "Accept-Encoding: deflate, gzip\r\n\r\n"), "site.css", true);
+		assertEquals("zipped", new String(zipped.getBody(), "US-ASCII"));
+		assertTrue(new String(zipped.getHeaderBytes(), "US-ASCII").contains("Content-Encoding: gzip\r\n"));
+		HttpResponse refused = files.respond(parse("GET /site.css HTTP/1.1\r\nHost: x\r\n"
+				+ "Accept-Encoding: gzip;q=0, *\r\n\r\n"), "site.css", true);
+		assertEquals("body {}", new String(refused.getBody(), "US-ASCII"));
+		
+		// test conditional requests: a current copy gets 304 with no body or length
+		HttpResponse cached = files.respond(parse("GET /site.css HTTP/1.1\r\nHost: x\r\n"
+				+ "If-None-Match: \"other\", " + etag + "\r\n\r\n"), "site.css", true);
+		assertEquals("304 Not Modified", cached.getStatus());
+		assertTrue(cached.isHeadOnly());
+		assertFalse(new String(cached.getHeaderBytes(), "US-ASCII").contains("Content-Length"));
+		HttpResponse stale = files.respond(parse("GET /site.css HTTP/1.1\r\nHost: x\r\n"
+				+ "If-None-Match: \"other\"\r\n\r\n"), "site.css", true);
+		assertEquals("200 OK", stale.getStatus());
+		HttpResponse since = files.respond(parse("GET /site.css HTTP/1.1\r\nHost: x\r\n"
+				+ "If-Modified-Since: Fri, 31 Dec 2100 23:59:59 GMT\r\n\r\n"), "site.css", true);
+		assertEquals("304 Not Modified", since.getStatus());
+		
+		// test that missing files are not found
+		assertNull(files.respond(parse("GET /none.css HTTP/1.1\r\nHost: x\r\n\r\n"), "none.css", true));
+		
+		// test that a changed file is reloaded once it is checked again
+		Files.write(css.toPath(), "body { margin: 0 }".getBytes("US-ASCII"));
+		css.setLastModified(css.lastModified() + 2000);
+		StaticFiles reloaded = new StaticFiles(root);
+		HttpResponse changed = reloaded.respond(parse("GET /site.css HTTP/1.1\r\nHost: x\r\n"
+				+ "Accept-Encoding: gzip\r\n\r\n"), "site.css", true);
+		assertEquals("body { margin: 0 }", new String(changed.getBody(), "US-ASCII"));
+		
+		css.delete();
+		gz.delete();
+		root.delete();
+	}
+	
+	/**
+	 * Test background optimisation jobs and their event streams
+	 */
+	@Test
+	void testJobs() throws IOException {
+		Players ps = makePlayers(23);
+		
+		// hold submitted jobs until the test runs them
+		ArrayList<Runnable> pool = new ArrayList<Runnable>();
+		Jobs jobs = new Jobs(new AdmissionControl(pool::add, 4), StoppingCriterion.generationLimit(60));
+		
+		// test bad requests
+		assertEquals("400 Bad Request", jobs.respond(parse("POST /jobs?squads=1 HTTP/1.1\r\nHost: x\r\n\r\n"),
+				"jobs", ps, true).getStatus());
+		assertEquals("400 Bad Request", jobs.respond(parse("POST /jobs?squads=4&every=0 HTTP/1.1\r\nHost: x\r\n\r\n"),
+				"jobs", ps, true).getStatus());
+		assertEquals("405 Method Not Allowed", jobs.respond(parse("GET /jobs?squads=4 HTTP/1.1\r\nHost: x\r\n\r\n"),
+				"jobs", ps, true).getStatus());
+		assertEquals("404 Not Found", jobs.respond(parse("GET /jobs/none HTTP/1.1\r\nHost: x\r\n\r\n"),
+				"jobs/none", ps, true).getStatus());
+		assertTrue(pool.isEmpty());
+		
+		// test that a submitted job is answered at once, before it runs
+		HttpResponse submitted = jobs.respond(parse("POST /jobs?squads=4&solver=annealing&seed=7&every=10 HTTP/1.1\r\n"
+				+ "Host: x\r\n\r\n"), "jobs", ps, true);
+		assertEquals("202 Accepted", submitted.getStatus());
+		String header = new String(submitted.getHeaderBytes(), "US-ASCII");
+		int location = header.indexOf("Location: /jobs/") + 16;
+		String id = header.substring(location, header.indexOf("\r\n", location));
+		Job job = jobs.get(id);
+		assertEquals(Job.State.QUEUED, job.getState());
+		assertEquals(1, pool.size());
+		assertEquals("202 Accepted", jobs.respond(parse("GET /jobs/" + id + "/result HTTP/1.1\r\nHost: x\r\n\r\n"),
+				"jobs/" + id + "/result", ps, true).getStatus());
+		
+		// follow the job's events, which stream until the connection closes
+		HttpResponse events = jobs.respond(parse("GET /jobs/" + id + "/events HTTP/1.1\r\nHost: x\r\n\r\n"),
+				"jobs/" + id + "/events", ps, true);
+		header = new String(events.getHeaderBytes(), "US-ASCII");
+		assertTrue(header.contains("Content-Type: text/event-stream"));
+		assertFalse(header.contains("Content-Length"));
+		assertFalse(events.isKeepAlive());
+		final StringBuilder received = new StringBuilder();
+		final boolean[] closed = new boolean[1];
+		ResponseStream collector = new ResponseStream() {
+			@Override
+			public boolean send(byte[] data) {
+				received.append(new String(data));
+				return true;
+			}
+			
+			@Override
+			public void close() {
+				closed[0] = true;
+			}
+		};
+		events.getProducer().start(collector);
+		
+		// run the job, and test that progress was pushed before the final event
+		pool.get(0).run();
+		assertEquals(Job.State.DONE, job.getState());
+		assertTrue(closed[0]);
+		String stream = received.toString();
+		assertTrue(stream.startsWith("event: progress\ndata: {\"generation\":0,"));
+		assertTrue(stream.contains("\n\nevent: done\ndata: {\"id\":\"" + id + "\",\"state\":\"done\""));
+		assertTrue(stream.endsWith("}\n\n"));
+		
+		// test the finished squads
+		HttpResponse result = jobs.respond(parse("GET /jobs/" + id + "/result HTTP/1.1\r\nHost: x\r\n\r\n"),
+				"jobs/" + id + "/result", ps, true);
+		assertEquals("200 OK", result.getStatus());
+		assertTrue(new String(result.getBody(), "UTF-8").contains("\"squads\":[["));
+		assertEquals(4, job.getResult().getNumSquads());
+		
+		// test that a late follower gets the latest progress and the final event at once
+		received.setLength(0);
+		closed[0] = false;
+		job.start(collector);
+		assertTrue(closed[0]);
+		assertTrue(received.toString().startsWith("event: progress\n"));
+		assertTrue(received.toString().contains("event: done\n"));
+		
+		// test that a job whose solver throws an error fails, ending its followers' streams
+		Job broken = new Job("broken", ps, new MakeOptions(4, Solver.ANNEALING, 7L), 10, progress -> {
+			throw new StackOverflowError();
+		});
+		received.setLength(0);
+		closed[0] = false;
+		broken.start(collector);
+		assertThrows(StackOverflowError.class, () -> broken.run());
+		assertEquals(Job.State.FAILED, broken.getState());
+		assertTrue(closed[0]);
+		assertTrue(received.toString().contains("\"state\":\"failed\""));
+	}
+	
+	/**
+	 * Test the result cache and the roster fingerprint
+	 */
+	@Test
+	void testResultCache() {
+		Players ps = makePlayers(23);
+		Tournament filled = new Tournament(ps, 4);
+		filled.fillSquadsRandom(new SplittableRandom(3));
+		TournamentSnapshot t = TournamentSnapshot.of(filled);
+		
+		// test that the fingerprint depends only on the contents of the roster
+		String fingerprint = ps.getFingerprint();
+		assertEquals(64, fingerprint.length());
+		assertEquals(fingerprint, makePlayers(23).getFingerprint());
+		assertNotEquals(fingerprint, makePlayers(24).getFingerprint());
+		
+		// test the keys: requests without a seed share a result, seeded requests do not
+		HashMap<String, String> params = new HashMap<String, String>();
+		params.put("squads", "4");
+		MakeOptions unseeded = MakeOptions.parse(params, 23);
+		assertEquals("4/genetic/*", unseeded.getCacheKey());
+		assertTrue(unseeded.isCacheable());
+		params.put("seed", "9");
+		params.put("cache", "0");
+		MakeOptions seeded = MakeOptions.parse(params, 23);
+		assertEquals("4/genetic/9", seeded.getCacheKey());
+		assertFalse(seeded.isCacheable());
+		
+		// test a hit, which is the stored snapshot itself
+		ResultCache cache = new ResultCache(2, 60000);
+		assertNull(cache.get(ps, unseeded));
+		cache.put(ps, unseeded, t);
+		assertSame(t, cache.get(ps, unseeded));
+		assertNull(cache.get(ps, seeded));
+		
+		// test that the least recently used result is dropped
+		cache.put(ps, seeded, t);
+		cache.get(ps, unseeded);
+		cache.put(ps, new MakeOptions(4, Solver.ANNEALING, 1L), t);
+		assertEquals(2, cache.size());
+		assertNotNull(cache.get(ps, unseeded));
+		assertNull(cache.get(ps, seeded));
+		
+		// test that the results of another roster are kept apart, and that a late result
+		// for the old roster leaves the new roster's results alone
+		Players changed = makePlayers(24);
+		assertNull(cache.get(changed, unseeded));
+		cache.put(changed, unseeded, t);
+		cache.put(ps, unseeded, t);
+		assertSame(t, cache.get(changed, unseeded));
+		assertEquals(2, cache.size());
+		assertTrue(cache.getStatus().contains("cache.hits=4\n"));
+		
+		// test that results expire
+		ResultCache expired = new ResultCache(2, 0);
+		expired.put(ps, unseeded, t);
+		assertNull(expired.get(ps, unseeded));
+	}
+	
+	/**
+	 * Test that identical requests made at the same time share one optimisation
+	 */
+	@Test
+	void testSquadMaker() throws InterruptedException {
+		final Players ps = makePlayers(23);
+		final SquadMaker maker = new SquadMaker(new ResultCache());
+		final MakeOptions options = new MakeOptions(4, Solver.HILL_CLIMB, 5L);
+		
+		// hold the first optimisation open until the test releases it
+		final CountDownLatch release = new CountDownLatch(1);
+		final StoppingCriterion gate = new StoppingCriterion() {
+			@Override
+			public boolean isMet(SearchProgress progress) {
+				try {
+					release.await();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return true;
+			}
+		};
+		
+		// start three identical requests, and wait until two are waiting for the first
+		final TournamentSnapshot[] results = new TournamentSnapshot[3];
+		Thread[] threads = new Thread[3];
+		for (int i = 0; i < 3; i++) {
+			final int index = i;
+			threads[i] = new Thread(() -> results[index] = maker.make(ps, options, gate));
+			threads[i].start();
+			if (i == 0) {
+				while (maker.getRuns() == 0)
+					Thread.sleep(1);
+			}
+		}
+		while (maker.getCoalesced() < 2)
+			Thread.sleep(1);
+		release.countDown();
+		for (Thread t : threads)
+			t.join();
+		
+		// test that the solver ran once, and every request shares the same result
+		assertEquals(1, maker.getRuns());
+		assertEquals(2, maker.getCoalesced());
+		assertSame(results[0], results[1]);
+		assertSame(results[0], results[2]);
+		assertEquals(4, results[0].getNumSquads());
+		
+		// test that a later request is answered from the cache
+		assertSame(results[0], maker.make(ps, options, gate));
+		assertEquals(1, maker.getRuns());
+		assertTrue(maker.getStatus().contains("make.running=0\n"));
+		
+		// run optimisations on a pool with one thread and no room to wait
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>());
+		AdmissionControl admission = new AdmissionControl(pool, 1, 0, 60000);
+		final CountDownLatch hold = new CountDownLatch(1);
+		StoppingCriterion held = new StoppingCriterion() {
+			@Override
+			public boolean isMet(SearchProgress progress) {
+				try {
+					hold.await();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return true;
+			}
+		};
+		
+		// test that a request joining a running optimisation takes no turn on the pool,
+		// while a request which needs a run of its own is turned away
+		MakeOptions annealing = new MakeOptions(4, Solver.ANNEALING, 5L);
+		CompletableFuture<SquadMaker.Result> first = maker.make(ps, annealing, admission, held);
+		while (maker.getRuns() == 1)
+			Thread.sleep(1);
+		CompletableFuture<SquadMaker.Result> joined = maker.make(ps, annealing, admission, held);
+		assertEquals(3, maker.getCoalesced());
+		CompletableFuture<SquadMaker.Result> refused = maker.make(ps, new MakeOptions(5, Solver.ANNEALING, 5L),
+				admission, held);
+		ExecutionException e = assertThrows(ExecutionException.class, () -> refused.get());
+		assertTrue(e.getCause() instanceof RejectedExecutionException);
+		assertFalse(joined.isDone());
+		hold.countDown();
+		
+		// test that the result, and a later cached one, complete every request, and that
+		// only the request which ran the optimisation has a result of its own
+		assertEquals(4, joined.join().getSnapshot().getNumSquads());
+		assertSame(first.join().getSnapshot(), joined.join().getSnapshot());
+		assertFalse(first.join().isShared());
+		assertTrue(joined.join().isShared());
+		CompletableFuture<SquadMaker.Result> cached = maker.make(ps, annealing, admission, held);
+		assertTrue(cached.isDone());
+		assertTrue(cached.join().isShared());
+		assertEquals(2, maker.getRuns());
+		assertEquals(1, admission.getRejected());
+		pool.shutdown();
+	}
+	
+	/**
+	 * Test published snapshots of tournaments
+	 */
+	@Test
+	void testTournamentSnapshot() throws IOException {
+		Players ps = makePlayers(23);
+		Tournament t = new Tournament(ps, 4);
+		t.fillSquadsRandom(new SplittableRandom(11));
+		TournamentSnapshot snapshot = TournamentSnapshot.of(t);
+		
+		// test that the snapshot matches the tournament, sorted by last name
+		assertEquals(4, snapshot.getNumSquads());
+		assertEquals(t.getWaitList().size(), snapshot.getWaitList().size());
+		assertEquals(t.getVariance(), snapshot.getVariance(), 1e-9);
+		for (int i = 0; i < 4; i++) {
+			assertEquals(t.getSquads().get(i).getMembers().size(), snapshot.getSquad(i).size());
+			for (int skill = 0; skill < Skill.NUM_TYPES; skill++)
+				assertEquals(t.getSquads().get(i).getAvg(skill), snapshot.getAverage(i, skill), 1e-9);
+			for (int j = 1; j < snapshot.getSquad(i).size(); j++)
+				assertTrue(snapshot.getSquad(i).get(j - 1).getLastName()
+						.compareTo(snapshot.getSquad(i).get(j).getLastName()) <= 0);
+		}
+		
+		// test that later changes to the tournament do not show through
+		String before = snapshot.getSquad(0).toString();
+		t.fillSquadsRandom(new SplittableRandom(12));
+		assertEquals(before, snapshot.getSquad(0).toString());
+		assertThrows(UnsupportedOperationException.class, () -> snapshot.getWaitList().clear());
+		
+		// test the homepage snapshot, with everyone waiting
+		TournamentSnapshot roster = TournamentSnapshot.of(ps);
+		assertEquals(0, roster.getNumSquads());
+		assertEquals(23, roster.getWaitList().size());
+		
+		// test that concurrent pages render the same snapshot identically
+		assertEquals(render(snapshot), render(snapshot));
+	}
+	
+	/**
+	 * Test per-visitor sessions
+	 */
+	@Test
+	void testSessions() throws IOException {
+		Sessions sessions = new Sessions(60000, 2);
+		
+		// test that requests without the cookie have no session
+		assertNull(sessions.get(parse("GET / HTTP/1.1\r\nHost: x\r\n\r\n")));
+		assertNull(sessions.get(parse("GET / HTTP/1.1\r\nHost: x\r\nCookie: " + Sessions.COOKIE_NAME
+				+ "=unknown\r\n\r\n")));
+		
+		// test that a new session is found from its cookie, among others
+		Sessions.Session session = sessions.create();
+		assertEquals(32, session.getId().length());
+		String cookie = Sessions.toCookie(session);
+		assertTrue(cookie.startsWith(Sessions.COOKIE_NAME + "=" + session.getId() + ";"));
+		assertTrue(cookie.contains("HttpOnly"));
+		assertSame(session, sessions.get(parse("GET / HTTP/1.1\r\nHost: x\r\nCookie: a=1; "
+				+ Sessions.COOKIE_NAME + "=" + session.getId() + "; b=2\r\n\r\n")));
+		
+		// test that each session keeps its own squads
+		Sessions.Session other = sessions.create();
+		assertNotEquals(session.getId(), other.getId());
+		TournamentSnapshot roster = TournamentSnapshot.of(makePlayers(23));
+		session.setCurrent(roster);
+		assertSame(roster, session.getCurrent());
+		assertNull(other.getCurrent());
+		
+		// test that a full store starts no more sessions
+		assertNull(sessions.create());
+		assertEquals(2, sessions.size());
+		
+		// test that idle sessions expire
+		Sessions expiring = new Sessions(0, 2);
+		Sessions.Session old = expiring.create();
+		assertNull(expiring.get(parse("GET / HTTP/1.1\r\nHost: x\r\nCookie: " + Sessions.COOKIE_NAME
+				+ "=" + old.getId() + "\r\n\r\n")));
+		assertEquals(0, expiring.size());
+	}
+	
+	/**
+	 * Test admission control for the optimiser pool
+	 */
+	@Test
+	void testAdmissionControl() throws InterruptedException {
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>());
+		AdmissionControl admission = new AdmissionControl(pool, 1, 1, 60000);
+		
+		// hold the only thread until the test releases it
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		admission.execute(() -> {
+			started.countDown();
+			try {
+				release.await();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		started.await();
+		
+		// test that one task may wait, and the next is turned away at once
+		final CountDownLatch ran = new CountDownLatch(1);
+		admission.execute(ran::countDown, 1, () -> fail("expired"));
+		assertEquals(1, admission.getWaiting());
+		assertThrows(RejectedExecutionException.class, () -> admission.execute(() -> fail("admitted")));
+		assertEquals(1, admission.getRejected());
+		release.countDown();
+		ran.await();
+		
+		// test that a task which waits longer than the timeout is dropped at its deadline,
+		// while the processor it waited for is still busy, and is not counted as admitted
+		admission.setQueueLimit(2);
+		admission.setQueueTimeout(20);
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch expired = new CountDownLatch(1);
+		admission.execute(() -> {
+			try {
+				blocked.await();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		admission.execute(() -> fail("ran late"), 1, expired::countDown);
+		assertEquals(1, admission.getWaiting());
+		expired.await();
+		assertEquals(1, admission.getExpired());
+		assertEquals(0, admission.getWaiting());
+		assertEquals(1, admission.getBusy());
+		assertEquals(3, admission.getAdmitted());
+		blocked.countDown();
+		
+		// test the response for a turned away request
+		String header = new String(admission.busyResponse().getHeaderBytes());
+		assertTrue(header.startsWith("HTTP/1.1 503 Service Unavailable\r\n"));
+		assertTrue(header.contains("Retry-After: 1\r\n"));
+		assertTrue(admission.getStatus().contains("admission.rejected=1\n"));
+		pool.shutdown();
+		
+		// test that tasks run only while their processors fit: a task which takes every
+		// processor waits for the running one, and holds up a later small task behind it
+		ArrayList<Runnable> held = new ArrayList<Runnable>();
+		AdmissionControl processors = new AdmissionControl(held::add, 4, 8, 60000);
+		processors.execute(() -> { }, 2, null);
+		processors.execute(() -> { }, 8, null);
+		processors.execute(() -> { }, 1, null);
+		assertEquals(1, held.size());
+		assertEquals(2, processors.getBusy());
+		assertEquals(2, processors.getWaiting());
+		held.get(0).run();
+		assertEquals(2, held.size());
+		assertEquals(4, processors.getBusy());
+		held.get(1).run();
+		assertEquals(3, held.size());
+		assertEquals(1, processors.getBusy());
+		held.get(2).run();
+		assertEquals(0, processors.getBusy());
+		assertTrue(processors.getStatus().contains("admission.processors=4\n"));
+	}
+	
+	/**
+	 * Test streaming a large page with chunked transfer encoding
+	 */
+	@Test
+	void testChunkedPage() throws IOException {
+		Players ps = makePlayers(2000);
+		TournamentSnapshot roster = TournamentSnapshot.of(ps);
+		String page = render(roster);
+		assertTrue(page.startsWith("<html><head><title>SquadBuilder</title>"));
+		assertTrue(page.endsWith("</center></body></html>"));
+		assertEquals(2000 + 1, page.split("<tr>").length - 1);
+		
+		// a writer which writes the page as the server does
+		HttpResponse.BodyWriter writer = pageWriter(roster);
+		
+		// test that a chunked body keeps the connection open, and decodes to the page
+		HttpResponse chunked = new HttpResponse("200 OK", true);
+		chunked.setWriter(writer, true);
+		String header = new String(chunked.getHeaderBytes(), "US-ASCII");
+		assertTrue(header.contains("Transfer-Encoding: chunked\r\n"));
+		assertFalse(header.contains("Content-Length"));
+		assertTrue(chunked.isKeepAlive());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		chunked.writeTo(out);
+		String response = new String(out.toByteArray(), "US-ASCII");
+		assertTrue(response.startsWith(header));
+		String body = response.substring(header.length());
+		assertTrue(body.endsWith("\r\n0\r\n\r\n"));
+		StringBuilder decoded = new StringBuilder();
+		int chunks = 0;
+		int position = 0;
+		while (true) {
+			int end = body.indexOf("\r\n", position);
+			int size = Integer.parseInt(body.substring(position, end), 16);
+			if (size == 0)
+				break;
+			assertTrue(size <= 8192);
+			decoded.append(body, end + 2, end + 2 + size);
+			position = end + 2 + size + 2;
+			chunks++;
+		}
+		assertTrue(chunks > 2);
+		assertEquals(page, decoded.toString());
+		
+		// test that without chunks the body runs until the connection closes
+		HttpResponse plain = new HttpResponse("200 OK", true);
+		plain.setWriter(writer, false);
+		assertFalse(plain.isKeepAlive());
+		assertFalse(new String(plain.getHeaderBytes(), "US-ASCII").contains("Transfer-Encoding"));
+		out.reset();
+		plain.writeBody(out);
+		assertEquals(page, new String(out.toByteArray(), "US-ASCII"));
+		assertFalse(parse("GET / HTTP/1.0\r\n\r\n").acceptsChunked());
+	}
+	
+	/**
+	 * Test the JSON API and its streamed responses
+	 */
+	@Test
+	void testApi() throws IOException {
+		Players ps = makePlayers(400);
+		ps.pack();
+		Api api = new Api(new SquadMaker(new ResultCache()), StoppingCriterion.generationLimit(20));
+		
+		// test the roster, which is written to the connection in chunks
+		HttpResponse roster = api.respond(parse("GET /api/players HTTP/1.1\r\nHost: x\r\n\r\n"),
+				"api/players", ps, true);
+		assertEquals("200 OK", roster.getStatus());
+		assertTrue(new String(roster.getHeaderBytes(), "US-ASCII").contains("Content-Type: application/json"));
+		assertTrue(roster.isChunked());
+		assertTrue(roster.isKeepAlive());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		roster.getWriter().writeBody(out);
+		JsonObject players = new JsonParser().parse(new String(out.toByteArray(), "UTF-8")).getAsJsonObject();
+		assertEquals(400, players.get("count").getAsInt());
+		JsonObject first = players.getAsJsonArray("players").get(0).getAsJsonObject();
+		assertEquals("0", first.get("id").getAsString());
+		assertEquals(ps.getList().get(0).getRating(Skill.SHOOTING),
+				first.getAsJsonObject("ratings").get("Shooting").getAsInt());
+		
+		// test the squads, with their averages and the variances
+		out.reset();
+		api.respond(parse("GET /api/make?squads=4&solver=hillclimb&seed=3 HTTP/1.1\r\nHost: x\r\n\r\n"),
+				"api/make", ps, true).getWriter().writeBody(out);
+		JsonObject made = new JsonParser().parse(new String(out.toByteArray(), "UTF-8")).getAsJsonObject();
+		assertEquals(4, made.get("numSquads").getAsInt());
+		assertEquals(4, made.getAsJsonArray("squads").size());
+		int placed = made.getAsJsonArray("waitList").size();
+		double skillVariances = 0.0;
+		for (int skill = 0; skill < Skill.NUM_TYPES; skill++)
+			skillVariances += made.getAsJsonObject("skillVariances").get(Skill.getTypeName(skill)).getAsDouble();
+		assertEquals(made.get("variance").getAsDouble(), skillVariances, 1e-9);
+		for (int i = 0; i < 4; i++) {
+			JsonObject squad = made.getAsJsonArray("squads").get(i).getAsJsonObject();
+			assertEquals(i + 1, squad.get("number").getAsInt());
+			assertTrue(squad.getAsJsonObject("averages").has("Checking"));
+			placed += squad.getAsJsonArray("players").size();
+		}
+		assertEquals(400, placed);
+		
+		// test that a client which goes away stops the writing at the first piece
+		final int[] writes = new int[1];
+		OutputStream gone = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+			
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				writes[0]++;
+				throw new IOException("The connection has closed");
+			}
+		};
+		assertThrows(IOException.class, () -> roster.getWriter().writeBody(gone));
+		assertEquals(1, writes[0]);
+		
+		// test errors and HEAD requests
+		assertEquals("400 Bad Request", api.respond(parse("GET /api/make?squads=1 HTTP/1.1\r\nHost: x\r\n\r\n"),
+				"api/make", ps, true).getStatus());
+		assertEquals("404 Not Found", api.respond(parse("GET /api/players/none HTTP/1.1\r\nHost: x\r\n\r\n"),
+				"api/players/none", ps, true).getStatus());
+		assertEquals("405 Method Not Allowed", api.respond(parse("POST /api/players HTTP/1.1\r\nHost: x\r\n\r\n"),
+				"api/players", ps, true).getStatus());
+		assertTrue(api.respond(parse("HEAD /api/players/7 HTTP/1.1\r\nHost: x\r\n\r\n"),
+				"api/players/7", ps, true).isHeadOnly());
+	}
+	
+	/**
+	 * Test the Compression class
+	 */
+	@Test
+	void testCompression() throws IOException {
+		Compression compression = new Compression(1024, 6);
+		HttpRequest gzip = parse("GET / HTTP/1.1\r\nAccept-Encoding: deflate, gzip\r\n\r\n");
+		HttpRequest deflate = parse("GET / HTTP/1.1\r\nAccept-Encoding: gzip;q=0, deflate\r\n\r\n");
+		HttpRequest identity = parse("GET / HTTP/1.1\r\n\r\n");
+		assertEquals("gzip", Compression.negotiate(gzip));
+		assertEquals("deflate", Compression.negotiate(deflate));
+		assertNull(Compression.negotiate(identity));
+		assertThrows(IllegalArgumentException.class, () -> compression.setLevel(0));
+		
+		// a large page of squads
+		TournamentSnapshot roster = TournamentSnapshot.of(makePlayers(2000));
+		String page = render(roster);
+		byte[] pageBytes = page.getBytes("US-ASCII");
+		
+		// test that a small body is sent as it is
+		HttpResponse small = new HttpResponse("200 OK", true);
+		small.addHeader("Content-Type", "text/plain");
+		small.setBody(new byte[100]);
+		compression.apply(gzip, small, null);
+		assertNull(small.getHeader("Content-Encoding"));
+		assertEquals(100, small.getBody().length);
+		
+		// test that a large body is compressed in the coding the client prefers
+		for (HttpRequest request : new HttpRequest[] { gzip, deflate }) {
+			HttpResponse large = new HttpResponse("200 OK", true);
+			large.addHeader("Content-Type", "text/plain");
+			large.setBody(pageBytes);
+			compression.apply(request, large, null);
+			assertEquals(Compression.negotiate(request), large.getHeader("Content-Encoding"));
+			assertEquals("Accept-Encoding", large.getHeader("Vary"));
+			assertTrue(large.getBody().length * 5 < pageBytes.length);
+			assertEquals(page, inflate(large.getBody(), request == gzip));
+		}
+		
+		// test that a client which does not accept compression gets the body as it is
+		HttpResponse plain = new HttpResponse("200 OK", true);
+		plain.addHeader("Content-Type", "text/plain");
+		plain.setBody(pageBytes);
+		compression.apply(identity, plain, null);
+		assertNull(plain.getHeader("Content-Encoding"));
+		assertEquals("Accept-Encoding", plain.getHeader("Vary"));
+		assertSame(pageBytes, plain.getBody());
+		
+		// test that images and errors are not compressed
+		HttpResponse image = new HttpResponse("200 OK", true);
+		image.addHeader("Content-Type", "image/png");
+		image.setBody(pageBytes);
+		compression.apply(gzip, image, null);
+		assertSame(pageBytes, image.getBody());
+		HttpResponse error = new HttpResponse("404 Not Found", true);
+		error.addHeader("Content-Type", "text/plain");
+		error.setBody(pageBytes);
+		compression.apply(gzip, error, null);
+		assertSame(pageBytes, error.getBody());
+		
+		// test that a streamed body is compressed as it is produced, and stays chunked
+		HttpResponse streamed = new HttpResponse("200 OK", true);
+		streamed.addHeader("Content-Type", "text/html");
+		streamed.setWriter(pageWriter(roster), true);
+		compression.apply(gzip, streamed, null);
+		assertEquals("gzip", streamed.getHeader("Content-Encoding"));
+		assertTrue(streamed.isChunked());
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		streamed.getWriter().writeBody(compressed);
+		assertEquals(page, inflate(compressed.toByteArray(), true));
+		
+		// test that a body which fails part way is not ended, so it cannot look complete
+		HttpResponse failing = new HttpResponse("200 OK", false);
+		failing.addHeader("Content-Type", "text/html");
+		failing.setWriter(out -> {
+			out.write(pageBytes, 0, pageBytes.length / 2);
+			throw new IOException("The page could not be written");
+		}, false);
+		compression.apply(gzip, failing, null);
+		compressed.reset();
+		IOException failure = assertThrows(IOException.class, () -> failing.getWriter().writeBody(compressed));
+		assertEquals("The page could not be written", failure.getMessage());
+		assertTrue(compressed.size() > 0);
+		assertThrows(IOException.class, () -> inflate(compressed.toByteArray(), true));
+		
+		// test that a page shared by many requests is compressed once, as it is first
+		// sent, and only once it has been sent whole
+		HttpResponse[] shared = new HttpResponse[4];
+		for (int i = 0; i < shared.length; i++) {
+			shared[i] = new HttpResponse("200 OK", true);
+			shared[i].addHeader("Content-Type", "text/html");
+			shared[i].setWriter(pageWriter(roster), true);
+		}
+		compression.apply(gzip, shared[0], roster);
+		assertThrows(IOException.class, () -> shared[0].getWriter().writeBody(new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				throw new IOException("The connection has closed");
+			}
+		}));
+		compression.apply(gzip, shared[1], roster);
+		assertNotNull(shared[1].getWriter());
+		compressed.reset();
+		shared[1].getWriter().writeBody(compressed);
+		assertEquals(page, inflate(compressed.toByteArray(), true));
+		compression.apply(gzip, shared[2], roster);
+		compression.apply(gzip, shared[3], roster);
+		assertNull(shared[2].getWriter());
+		assertArrayEquals(compressed.toByteArray(), shared[2].getBody());
+		assertSame(shared[2].getBody(), shared[3].getBody());
+		assertTrue(new String(shared[3].getHeaderBytes(), "US-ASCII").contains("Content-Length: "
+				+ shared[3].getBody().length + "\r\n"));
+		assertTrue(compression.getStatus().contains("compression.cached=1\n"));
+		assertTrue(compression.getStatus().contains("compression.hits=2\n"));
+		assertTrue(compression.getStatus().contains("compression.misses=2\n"));
+	}
+	
+	/**
+	 * Test reading player data with the streaming JsonReader
+	 */
+	@Test
+	void testJsonReader() throws IOException {
+		
+		// test that the players read match those bound by Gson, in the same order
+		Players bound = makePlayers(500);
+		String json = new Gson().toJson(bound);
+		Players read = JsonReader.parse(new StringReader(json));
+		assertEquals(500, read.getNumber());
+		assertEquals(bound.getFingerprint(), read.getFingerprint());
+		assertTrue(read.checkPlayers());
+		
+		// test reading from a file
+		File file = File.createTempFile("players", ".json");
+		try {
+			Files.write(file.toPath(), json.getBytes("UTF-8"));
+			assertEquals(bound.getFingerprint(), new JsonReader(file.getPath()).read().getFingerprint());
+		}
+		finally {
+			file.delete();
+		}
+		
+		// test that unknown fields and skill types are skipped, and the last rating of a type is kept
+		Players extra = JsonReader.parse(new StringReader("{\"version\": [1, {}], \"players\": [{\"_id\": \"7\", "
+				+ "\"team\": null, \"firstName\": \"Ann\", \"lastName\": \"Lee\", \"skills\": ["
+				+ "{\"type\": \"Skating\", \"rating\": 5}, {\"type\": \"Passing\", \"rating\": -3}, "
+				+ "{\"type\": \"Shooting\", \"rating\": 6}, {\"type\": \"Checking\", \"rating\": 7}, "
+				+ "{\"rating\": 8, \"type\": \"Skating\"}]}]}"));
+		Player ann = extra.getList().get(0);
+		assertEquals("7", ann.getID());
+		assertEquals("Ann Lee", ann.getName());
+		assertEquals(8, ann.getSkatingRating());
+		assertEquals(6, ann.getShootingRating());
+		assertEquals(7, ann.getCheckingRating());
+		assertEquals(0, JsonReader.parse(new StringReader("{}")).getNumber());
+		
+		// test that bad players and malformed data are rejected
+		String[] bad = {
+				"{\"players\": [{\"firstName\": \"\", \"skills\": []}]}",
+				"{\"players\": [{\"firstName\": \"Ann\", \"skills\": [{\"type\": \"Skating\", \"rating\": 1}]}]}",
+				"{\"players\": [{\"firstName\": \"Ann\", \"skills\": [{\"type\": \"Skating\", \"rating\": \"high\"}]}]}",
+				"{\"players\": [{\"firstName\": \"Ann\"",
+				"[]" };
+		for (final String text : bad)
+			assertThrows(IOException.class, () -> JsonReader.parse(new StringReader(text)));
+	}
+	
+	/**
+	 * Test loading and reloading the roster with the RosterLoader class
+	 */
+	@Test
+	void testRosterLoader() throws IOException, InterruptedException {
+		File dir = Files.createTempDirectory("roster").toFile();
+		File file = new File(dir, "players.json");
+		try {
+			Files.write(file.toPath(), new Gson().toJson(makePlayers(10)).getBytes("UTF-8"));
+			RosterLoader loader = new RosterLoader(file.getPath());
+			assertNull(loader.get());
+			assertTrue(loader.load());
+			RosterLoader.Roster first = loader.get();
+			assertEquals(10, first.getPlayers().getNumber());
+			assertEquals(10, first.getSnapshot().getWaitList().size());
+			
+			// test that an unchanged roster is kept, and a bad one is rejected without replacing it
+			assertFalse(loader.load());
+			assertSame(first, loader.get());
+			Files.write(file.toPath(), "{\"players\": [{\"firstName\": \"\"}]}".getBytes("UTF-8"));
+			assertThrows(IOException.class, () -> loader.load());
+			assertSame(first, loader.get());
+			
+			// test that writing the file publishes the new roster, while the old one is unchanged
+			loader.start();
+			try {
+				Files.write(file.toPath(), new Gson().toJson(makePlayers(12)).getBytes("UTF-8"));
+				long deadline = System.currentTimeMillis() + 10000;
+				while (loader.get() == first && System.currentTimeMillis() < deadline)
+					Thread.sleep(50);
+			}
+			finally {
+				loader.stop();
+			}
+			assertEquals(12, loader.get().getPlayers().getNumber());
+			assertEquals(10, first.getPlayers().getNumber());
+			assertTrue(loader.getStatus().contains("roster.reloads=1\n"));
+		}
+		finally {
+			file.delete();
+			dir.delete();
+		}
+	}
+	
+	/**
+	 * Test the Solver implementations
+	 */
+	@Test
+	void testSolvers() {
+		
+		// prepare players with a spread of ratings
+		Players ps = makePlayers(23);
+		
+		// test an unknown solver name
+		assertNull(Solver.forName("bogus", 1L));
+		
+		for (String name : new String[] {Solver.GENETIC, Solver.ANNEALING, Solver.HILL_CLIMB}) {
+			Solver solver = Solver.forName(name, 1L);
+			assertEquals(name, solver.getName());
+			
+			// run the solver for a fixed number of generations
+			StoppingCriterion limit = StoppingCriterion.generationLimit(30);
+			Tournament t = solver.solve(ps, 4, limit, StoppingCriterion.timeLimit(60000));
+			assertSame(limit, solver.getStoppedBy());
+			
+			// test the squad sizes and waitlist size
+			assertEquals(4, t.getSquads().size());
+			for (Squad s : t.getSquads())
+				assertEquals(5, s.getSize());
+			assertEquals(3, t.getWaitList().size());
+			
+			// test that every player appears exactly once
+			HashSet<String> ids = new HashSet<String>();
+			for (Squad s : t.getSquads())
+				for (Player p : s.getMembers())
+					assertTrue(ids.add(p.getID()));
+			for (Player p : t.getWaitList())
+				assertTrue(ids.add(p.getID()));
+			assertEquals(23, ids.size());
+			
+			// test that the tracked variance matches a full recalculation
+			double variance = t.getVariance();
+			assertEquals(t.recalculateVariance(), variance, 1e-9);
+		}
+	}
+	
+	/**
+	 * Make players with a spread of ratings
+	 * @param number Number of players
+	 * @return Players object
+	 */
+	private static Players makePlayers(int number) {
+		Players ps = new Players();
+		for (int i = 0; i < number; i++) {
+			ArrayList<Skill> skills = new ArrayList<Skill>();
+			skills.add(new Skill("Skating", i * 7 % 11));
+			skills.add(new Skill("Shooting", i * 3 % 13));
+			skills.add(new Skill("Checking", i % 10));
+			ps.getList().add(new Player(Integer.toString(i), "Player" + i, "Test", skills));
+		}
+		return ps;
+	}
+	
+	/**
+	 * Render a whole page for a snapshot
+	 * @param snapshot Arrangement to show
+	 * @return HTML text
+	 * @throws IOException If writing fails
+	 */
+	private static String render(TournamentSnapshot snapshot) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new HtmlGenerator(snapshot, out).generatePage();
+		return new String(out.toByteArray(), "US-ASCII");
+	}
+	
+	/**
+	 * Make a writer which writes a whole page as the server does
+	 * @param snapshot Arrangement to show
+	 * @return Writer of the page
+	 */
+	private static HttpResponse.BodyWriter pageWriter(final TournamentSnapshot snapshot) {
+		return new HttpResponse.BodyWriter() {
+			@Override
+			public void writeBody(OutputStream out) throws IOException {
+				new HtmlGenerator(snapshot, out).generatePage();
+			}
+		};
+	}
+	
+	/**
+	 * Decompress a compressed body
+	 * @param bytes Compressed bytes
+	 * @param gzip True for gzip, false for deflate
+	 * @return Body text
+	 * @throws IOException If the bytes are not compressed correctly
+	 */
+	private static String inflate(byte[] bytes, boolean gzip) throws IOException {
+		InputStream in = gzip ? new GZIPInputStream(new ByteArrayInputStream(bytes))
+				: new InflaterInputStream(new ByteArrayInputStream(bytes));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) > 0)
+			out.write(buffer, 0, n);
+		return new String(out.toByteArray(), "US-ASCII");
+	}
+	
+	/**
+	 * Parse a single request
+	 * @param raw Raw request text
+	 * @return Parsed request
+	 * @throws IOException If reading fails
+	 */
+	private static HttpRequest parse(String raw) throws IOException {
+		return HttpRequest.read(new ByteArrayInputStream(raw.getBytes("US-ASCII")));
+	}
+	
+	/**
+	 * Describe the squad assignments of a tournament by player ID
+	 * @param t Tournament to describe
+	 * @return String listing the squads and waitlist
+	 */
+	private static String describe(Tournament t) {
+		String result = "";
+		for (Squad s : t.getSquads()) {
+			for (Player p : s.getMembers())
+				result += p.getID() + " ";
+			result += "| ";
+		}
+		for (Player p : t.getWaitList())
+			result += p.getID() + " ";
+		return result;
+	}
 }
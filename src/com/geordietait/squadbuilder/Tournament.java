@@ -3,6 +3,7 @@ package com.geordietait.squadbuilder;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.SplittableRandom;
 
 /**
  * Class representing an organization of the tournament
@@ -29,6 +30,18 @@ public class Tournament {
 	// the total variance value among all 3 ratings for each squad
 	private double variance;
 	
+	// packed roster ratings, indexed by skill ordinal and then player index
+	private int[][] columns;
+	
+	// running sums of the squad rating totals, indexed by skill ordinal
+	private long[] sums;
+	
+	// running sums of the squared squad rating totals, indexed by skill ordinal
+	private long[] sumSquares;
+	
+	// whether the running sums describe the current squads
+	private boolean sumsValid;
+	
 	/**
 	 * Main constructor
 	 * @param players Players object
@@ -43,6 +56,9 @@ public class Tournament {
 		squads = new ArrayList<Squad>();
 		waitList = new ArrayList<Player>();
 		variance = -1.0;
+		columns = players.getColumns();
+		sums = new long[Skill.NUM_TYPES];
+		sumSquares = new long[Skill.NUM_TYPES];
 		
 		// initially populate waitlist with all players
 		for (Player p : this.getPlayers()) {
@@ -60,7 +76,13 @@ public class Tournament {
 		players = original.players;
 		numSquads = original.numSquads;
 		maxPlayers = original.maxPlayers;
-		variance = -1.0;
+		columns = original.columns;
+		
+		// copy the running sums and the variance they describe
+		variance = original.variance;
+		sums = original.sums.clone();
+		sumSquares = original.sumSquares.clone();
+		sumsValid = original.sumsValid;
 		
 		// copy squads
 		squads = new ArrayList<Squad>();
@@ -75,6 +97,37 @@ public class Tournament {
 		}
 	}
 	
+	/**
+	 * Overwrite this tournament with the state of another tournament for the
+	 * same players and number of squads, reusing the existing squad objects
+	 * and lists so that no new objects are allocated
+	 * @param original The tournament object to copy from
+	 */
+	public void copyFrom(Tournament original) {
+		
+		// copy squads in place
+		for (int i = 0; i < original.squads.size(); i++) {
+			if (i < squads.size())
+				squads.get(i).copyFrom(original.squads.get(i));
+			else
+				squads.add(new Squad(original.squads.get(i)));
+		}
+		while (squads.size() > original.squads.size())
+			squads.remove(squads.size() - 1);
+		
+		// copy waitlist in place
+		waitList.clear();
+		for (int i = 0; i < original.waitList.size(); i++) {
+			waitList.add(original.waitList.get(i));
+		}
+		
+		// copy the running sums and the variance they describe
+		variance = original.variance;
+		System.arraycopy(original.sums, 0, sums, 0, Skill.NUM_TYPES);
+		System.arraycopy(original.sumSquares, 0, sumSquares, 0, Skill.NUM_TYPES);
+		sumsValid = original.sumsValid;
+	}
+	
 	/**
 	 * Get the list of all players in the tournament
 	 * @return List of all players
@@ -103,6 +156,7 @@ public class Tournament {
 	 * Reset the tournament
 	 */
 	public void reset() {
+		variance = -1.0;
 		squads.clear();
 		waitList.clear();
 		for (Player p : this.getPlayers()) {
@@ -111,55 +165,107 @@ public class Tournament {
 	}
 	
 	/**
-	 * Fill the squads randomly with available players
+	 * Fill the squads randomly with available players. Any existing
+	 * assignment is discarded, and the squad objects are reused.
 	 */
 	public void fillSquadsRandom() {
+		fillSquadsRandom(new SplittableRandom());
+	}
+	
+	/**
+	 * Fill the squads randomly with available players, drawing from the given
+	 * random number generator. Any existing assignment is discarded, and the
+	 * squad objects are reused.
+	 * @param rand Random number generator
+	 */
+	public void fillSquadsRandom(SplittableRandom rand) {
 		
-		// make a copy of player list and shuffle it
-		ArrayList<Player> playersRandom = new ArrayList<Player>();
-		for (Player p : getPlayers()) {
-			playersRandom.add(p);
+		// return every player to the waitlist
+		waitList.clear();
+		for (int i = 0; i < getPlayers().size(); i++) {
+			waitList.add(getPlayers().get(i));
 		}
-		Collections.shuffle(playersRandom);
 		
-		// fill squads randomly
-		int j = 0;
+		// reuse the existing squads, making any that are missing
+		for (int i = 0; i < squads.size(); i++) {
+			squads.get(i).clear();
+		}
+		while (squads.size() < numSquads) {
+			squads.add(new Squad(players));
+		}
+		
+		// fill squads with players drawn at random from the waitlist
 		for (int i = 0; i < numSquads; i++) {
-			Squad s = new Squad();
-			while (j < players.getNumber() && s.getSize() < maxPlayers) {
-				Player p = playersRandom.get(j);
+			Squad s = squads.get(i);
+			while (!waitList.isEmpty() && s.getSize() < maxPlayers) {
+				
+				// move the last waitlisted player into the drawn player's place
+				int j = rand.nextInt(waitList.size());
+				int last = waitList.size() - 1;
+				Player p = waitList.get(j);
+				waitList.set(j, waitList.get(last));
+				waitList.remove(last);
 				s.addMember(p);
-				waitList.remove(p);
-				j++;
 			}
-			squads.add(s);
 		}
 		
 		// pre-calculate the variance for this tournament
+		variance = -1.0;
 		getVariance();
 	}
 	
 	/**
-	 * Calculate variance for a list of doubles
-	 * @param values List of double values
-	 * @return Variance for the list of doubles
+	 * Fill the squads with a given assignment of players. Any existing
+	 * assignment is discarded, and the squad objects are reused.
+	 * @param squadOf Squad number for each player index (-1 for the waitlist)
 	 */
-	private static double calcVariance(ArrayList<Double> values) {
+	public void fillSquads(int[] squadOf) {
+		
+		// reuse the existing squads, making any that are missing
+		for (int i = 0; i < squads.size(); i++) {
+			squads.get(i).clear();
+		}
+		while (squads.size() < numSquads) {
+			squads.add(new Squad(players));
+		}
+		
+		// place each player in their squad or on the waitlist
+		waitList.clear();
+		for (int i = 0; i < getPlayers().size(); i++) {
+			Player p = getPlayers().get(i);
+			if (squadOf[i] >= 0)
+				squads.get(squadOf[i]).addMember(p);
+			else
+				waitList.add(p);
+		}
+		
+		// pre-calculate the variance for this tournament
+		variance = -1.0;
+		getVariance();
+	}
+	
+	/**
+	 * Get the variance in the averages of squads for a skill
+	 * @param skill Skill ordinal
+	 * @return Variance in squad averages for the skill
+	 */
+	public double getSkillVariance(int skill) {
+		int n = squads.size();
 		
 		// calculate mean
 		double sum = 0.0;
-		for (Double value : values) {
-			sum += value;
+		for (int i = 0; i < n; i++) {
+			sum += squads.get(i).getAvg(skill);
 		}
-		double mean = sum / (double) values.size(); 
-				
+		double mean = sum / (double) n;
+		
 		// calculate variance
 		double vSum = 0.0;
-		for (Double value : values) {
-			double diff = value - mean;
+		for (int i = 0; i < n; i++) {
+			double diff = squads.get(i).getAvg(skill) - mean;
 			vSum += diff * diff;
 		}
-		return vSum / ((double) values.size() - 1);
+		return vSum / ((double) n - 1);
 	}
 	
 	/**
@@ -167,15 +273,7 @@ public class Tournament {
 	 * @return Variance in skating averages
 	 */
 	public double getSkatingVariance() {
-		
-		// extract values into a list
-		ArrayList<Double> values = new ArrayList<Double>();
-		for (Squad s : squads) {
-			values.add(s.getSkatingAvg());
-		}
-		
-		// get the variance of the values
-		return calcVariance(values);
+		return getSkillVariance(Skill.SKATING);
 	}
 	
 	/**
@@ -183,15 +281,7 @@ public class Tournament {
 	 * @return Variance in shooting averages
 	 */
 	public double getShootingVariance() {
-		
-		// extract values into a list
-		ArrayList<Double> values = new ArrayList<Double>();
-		for (Squad s : squads) {
-			values.add(s.getShootingAvg());
-		}
-		
-		// get the variance of the values
-		return calcVariance(values);
+		return getSkillVariance(Skill.SHOOTING);
 	}
 	
 	/** 
@@ -199,15 +289,7 @@ public class Tournament {
 	 * @return Variance in checking averages
 	 */
 	public double getCheckingVariance() {
-		
-		// extract values into a list
-		ArrayList<Double> values = new ArrayList<Double>();
-		for (Squad s : squads) {
-			values.add(s.getCheckingAvg());
-		}
-		
-		// get the variance of the values
-		return calcVariance(values);
+		return getSkillVariance(Skill.CHECKING);
 	}
 	
 	/**
@@ -218,13 +300,252 @@ public class Tournament {
 		
 		// determine the variance if it hasn't been set yet
 		if (variance < 0.0) {
-			variance = getSkatingVariance() + getShootingVariance() + getCheckingVariance();
+			if (calcSums())
+				variance = getVarianceFromSums();
+			else
+				variance = getSkatingVariance() + getShootingVariance() + getCheckingVariance();
 			return variance;
 		}
 		else
 			return variance;
 	}
 	
+	/**
+	 * Recalculate the variance from scratch, for use after the squads
+	 * have been edited directly rather than through swaps
+	 * @return Total variance in all ratings
+	 */
+	public double recalculateVariance() {
+		variance = -1.0;
+		return getVariance();
+	}
+	
+	/**
+	 * Recalculate the running sums from the squads. The sums are only used
+	 * when every squad has the same size, which is always the case for
+	 * squads filled by the optimiser.
+	 * @return True if the running sums are valid
+	 */
+	private boolean calcSums() {
+		sumsValid = false;
+		if (squads.size() < 2)
+			return false;
+		int size = squads.get(0).getSize();
+		for (int k = 0; k < Skill.NUM_TYPES; k++) {
+			sums[k] = 0;
+			sumSquares[k] = 0;
+		}
+		for (int i = 0; i < squads.size(); i++) {
+			Squad s = squads.get(i);
+			if (s.getSize() != size || size == 0)
+				return false;
+			for (int k = 0; k < Skill.NUM_TYPES; k++) {
+				long total = s.getTotal(k);
+				sums[k] += total;
+				sumSquares[k] += total * total;
+			}
+		}
+		sumsValid = true;
+		return true;
+	}
+	
+	/**
+	 * Calculate the variance of squad averages in one skill from running sums.
+	 * For n squads of m players with rating totals T, the variance of the
+	 * averages is (n * sum(T^2) - sum(T)^2) / (n * m^2 * (n - 1)), which is
+	 * exact in integer arithmetic up to the final division.
+	 * @param sum Sum of squad rating totals
+	 * @param sumSquare Sum of squared squad rating totals
+	 * @return Variance in squad averages
+	 */
+	private double getVarianceFromSums(long sum, long sumSquare) {
+		long n = squads.size();
+		long m = squads.get(0).getSize();
+		return (double) (n * sumSquare - sum * sum) / ((double) (n * m * m) * (n - 1));
+	}
+	
+	/**
+	 * Calculate the total variance from the running sums
+	 * @return Total variance in all ratings
+	 */
+	private double getVarianceFromSums() {
+		double result = 0.0;
+		for (int k = 0; k < Skill.NUM_TYPES; k++)
+			result += getVarianceFromSums(sums[k], sumSquares[k]);
+		return result;
+	}
+	
+	/**
+	 * Get a player's rating in a skill by their index in the packed roster
+	 * @param p Player to look up
+	 * @param skill Skill ordinal
+	 * @return Player rating in the skill
+	 */
+	private int getRating(Player p, int skill) {
+		int index = p.getIndex();
+		if (index >= 0 && index < columns[skill].length)
+			return columns[skill][index];
+		return p.getRating(skill);
+	}
+	
+	/**
+	 * Score a swap of players between two squads without applying it
+	 * @param squad1 Index of the first squad
+	 * @param pos1 Position of the player in the first squad
+	 * @param squad2 Index of the second squad
+	 * @param pos2 Position of the player in the second squad
+	 * @return Total variance the tournament would have after the swap
+	 */
+	public double scoreSwap(int squad1, int pos1, int squad2, int pos2) {
+		getVariance();
+		Squad s1 = squads.get(squad1);
+		Squad s2 = squads.get(squad2);
+		
+		// fall back to applying and reverting the swap if the sums are not usable
+		if (!sumsValid) {
+			swap(squad1, pos1, squad2, pos2);
+			double result = getVariance();
+			swap(squad1, pos1, squad2, pos2);
+			return result;
+		}
+		
+		Player p1 = s1.getMembers().get(pos1);
+		Player p2 = s2.getMembers().get(pos2);
+		double result = 0.0;
+		for (int k = 0; k < Skill.NUM_TYPES; k++) {
+			long d = getRating(p2, k) - getRating(p1, k);
+			long t1 = s1.getTotal(k);
+			long t2 = s2.getTotal(k);
+			long sumSquare = sumSquares[k] - t1 * t1 - t2 * t2 
+					+ (t1 + d) * (t1 + d) + (t2 - d) * (t2 - d);
+			result += getVarianceFromSums(sums[k], sumSquare);
+		}
+		return result;
+	}
+	
+	/**
+	 * Swap players between two squads, updating the variance in constant time
+	 * @param squad1 Index of the first squad
+	 * @param pos1 Position of the player in the first squad
+	 * @param squad2 Index of the second squad
+	 * @param pos2 Position of the player in the second squad
+	 */
+	public void swap(int squad1, int pos1, int squad2, int pos2) {
+		getVariance();
+		Squad s1 = squads.get(squad1);
+		Squad s2 = squads.get(squad2);
+		
+		// remove the old totals from the running sums
+		if (sumsValid) {
+			for (int k = 0; k < Skill.NUM_TYPES; k++) {
+				long t1 = s1.getTotal(k);
+				long t2 = s2.getTotal(k);
+				sumSquares[k] -= t1 * t1 + t2 * t2;
+			}
+		}
+		
+		// swap the players
+		Player p1 = s1.getMembers().get(pos1);
+		Player p2 = s2.setMember(pos2, p1);
+		s1.setMember(pos1, p2);
+		
+		// add the new totals to the running sums
+		if (sumsValid) {
+			for (int k = 0; k < Skill.NUM_TYPES; k++) {
+				long t1 = s1.getTotal(k);
+				long t2 = s2.getTotal(k);
+				sumSquares[k] += t1 * t1 + t2 * t2;
+			}
+			variance = getVarianceFromSums();
+		}
+		else
+			variance = -1.0;
+	}
+	
+	/**
+	 * Score a swap of a squad member with a waitlisted player without applying it
+	 * @param squad Index of the squad
+	 * @param pos Position of the player in the squad
+	 * @param waitPos Position of the player in the waitlist
+	 * @return Total variance the tournament would have after the swap
+	 */
+	public double scoreWaitlistSwap(int squad, int pos, int waitPos) {
+		getVariance();
+		Squad s = squads.get(squad);
+		
+		// fall back to applying and reverting the swap if the sums are not usable
+		if (!sumsValid) {
+			swapWithWaitlist(squad, pos, waitPos);
+			double result = getVariance();
+			swapWithWaitlist(squad, pos, waitPos);
+			return result;
+		}
+		
+		Player p1 = s.getMembers().get(pos);
+		Player p2 = waitList.get(waitPos);
+		double result = 0.0;
+		for (int k = 0; k < Skill.NUM_TYPES; k++) {
+			long d = getRating(p2, k) - getRating(p1, k);
+			long t = s.getTotal(k);
+			long sumSquare = sumSquares[k] - t * t + (t + d) * (t + d);
+			result += getVarianceFromSums(sums[k] + d, sumSquare);
+		}
+		return result;
+	}
+	
+	/**
+	 * Swap a squad member with a waitlisted player, updating the variance in constant time
+	 * @param squad Index of the squad
+	 * @param pos Position of the player in the squad
+	 * @param waitPos Position of the player in the waitlist
+	 */
+	public void swapWithWaitlist(int squad, int pos, int waitPos) {
+		getVariance();
+		Squad s = squads.get(squad);
+		
+		// remove the old totals from the running sums
+		if (sumsValid) {
+			for (int k = 0; k < Skill.NUM_TYPES; k++) {
+				long t = s.getTotal(k);
+				sums[k] -= t;
+				sumSquares[k] -= t * t;
+			}
+		}
+		
+		// swap the players
+		Player p2 = waitList.get(waitPos);
+		Player p1 = s.setMember(pos, p2);
+		waitList.set(waitPos, p1);
+		
+		// add the new totals to the running sums
+		if (sumsValid) {
+			for (int k = 0; k < Skill.NUM_TYPES; k++) {
+				long t = s.getTotal(k);
+				sums[k] += t;
+				sumSquares[k] += t * t;
+			}
+			variance = getVarianceFromSums();
+		}
+		else
+			variance = -1.0;
+	}
+	
+	/**
+	 * Get the desired number of squads
+	 * @return Number of squads
+	 */
+	public int getNumSquads() {
+		return numSquads;
+	}
+	
+	/**
+	 * Get the packed roster ratings
+	 * @return Ratings indexed by skill ordinal and then player index
+	 */
+	public int[][] getColumns() {
+		return columns;
+	}
+	
 	/**
 	 * Get the maximum number of players per team
 	 * @return Max players per team
@@ -0,0 +1,164 @@
+package com.geordietait.squadbuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Class for a finished arrangement of players, as published to pages and
+ * caches. A snapshot is copied from a tournament once, with each squad and
+ * the waitlist sorted by last name and the squad averages worked out, and
+ * never changes afterwards. Any number of threads can read and render the
+ * same snapshot without locks or copies.
+ * @author Geordie Tait
+ *
+ */
+public final class TournamentSnapshot {
+
+	// orders players alphabetically by last name
+	private static final Comparator<Player> BY_LAST_NAME = new Comparator<Player>() {
+		@Override
+		public int compare(final Player p1, final Player p2) {
+			return p1.getLastName().compareTo(p2.getLastName());
+		}
+	};
+
+	// the members of each squad, sorted by last name
+	private final List<List<Player>> squads;
+
+	// the players on the waitlist, sorted by last name
+	private final List<Player> waitList;
+
+	// average rating of each squad, indexed by squad and then skill ordinal
+	private final double[][] averages;
+
+	// variance of the squad averages in each skill, indexed by skill ordinal
+	private final double[] skillVariances;
+
+	// the total variance of the squad averages
+	private final double variance;
+
+	/**
+	 * Constructor for TournamentSnapshot
+	 * @param squads Members of each squad
+	 * @param waitList Players on the waitlist
+	 * @param averages Average rating of each squad by skill
+	 * @param skillVariances Variance of the squad averages in each skill
+	 * @param variance Total variance of the squad averages
+	 */
+	private TournamentSnapshot(List<List<Player>> squads, List<Player> waitList, double[][] averages,
+			double[] skillVariances, double variance) {
+		this.squads = squads;
+		this.waitList = waitList;
+		this.averages = averages;
+		this.skillVariances = skillVariances;
+		this.variance = variance;
+	}
+
+	/**
+	 * Take a snapshot of a tournament
+	 * @param t Tournament to copy (not changed)
+	 * @return Snapshot
+	 */
+	public static TournamentSnapshot of(Tournament t) {
+		List<List<Player>> squads = new ArrayList<List<Player>>();
+		double[][] averages = new double[t.getSquads().size()][];
+		for (int i = 0; i < t.getSquads().size(); i++) {
+			Squad s = t.getSquads().get(i);
+			squads.add(sorted(s.getMembers()));
+			averages[i] = new double[Skill.NUM_TYPES];
+			for (int skill = 0; skill < Skill.NUM_TYPES; skill++)
+				averages[i][skill] = s.getAvg(skill);
+		}
+		double[] skillVariances = new double[Skill.NUM_TYPES];
+		if (squads.size() > 1) {
+			for (int skill = 0; skill < Skill.NUM_TYPES; skill++)
+				skillVariances[skill] = t.getSkillVariance(skill);
+		}
+		return new TournamentSnapshot(Collections.unmodifiableList(squads), sorted(t.getWaitList()),
+				averages, skillVariances, t.getVariance());
+	}
+
+	/**
+	 * Take a snapshot with every player on the waitlist, as on the homepage
+	 * @param players Players object
+	 * @return Snapshot with no squads
+	 */
+	public static TournamentSnapshot of(Players players) {
+		List<List<Player>> none = Collections.emptyList();
+		return new TournamentSnapshot(none, sorted(players.getList()), new double[0][],
+				new double[Skill.NUM_TYPES], 0.0);
+	}
+
+	/**
+	 * Copy a list of players, sorted by last name
+	 * @param list Players to copy
+	 * @return Unmodifiable sorted copy
+	 */
+	private static List<Player> sorted(List<Player> list) {
+		ArrayList<Player> copy = new ArrayList<Player>(list);
+		Collections.sort(copy, BY_LAST_NAME);
+		return Collections.unmodifiableList(copy);
+	}
+
+	/**
+	 * Get the number of squads
+	 * @return Number of squads (0 if every player is waiting)
+	 */
+	public int getNumSquads() {
+		return squads.size();
+	}
+
+	/**
+	 * Get the members of every squad
+	 * @return Unmodifiable list of squads, each sorted by last name
+	 */
+	public List<List<Player>> getSquads() {
+		return squads;
+	}
+
+	/**
+	 * Get the members of a squad
+	 * @param squad Squad index (from 0)
+	 * @return Unmodifiable list of players, sorted by last name
+	 */
+	public List<Player> getSquad(int squad) {
+		return squads.get(squad);
+	}
+
+	/**
+	 * Get the waitlist
+	 * @return Unmodifiable list of players, sorted by last name
+	 */
+	public List<Player> getWaitList() {
+		return waitList;
+	}
+
+	/**
+	 * Get the average rating of a squad in a skill
+	 * @param squad Squad index (from 0)
+	 * @param skill Skill ordinal
+	 * @return Average rating
+	 */
+	public double getAverage(int squad, int skill) {
+		return averages[squad][skill];
+	}
+
+	/**
+	 * Get the variance of the squad averages in a skill
+	 * @param skill Skill ordinal
+	 * @return Variance (0 if there are fewer than two squads)
+	 */
+	public double getSkillVariance(int skill) {
+		return skillVariances[skill];
+	}
+
+	/**
+	 * Get the total variance of the squad averages
+	 * @return Variance (0 if there are no squads)
+	 */
+	public double getVariance() {
+		return variance;
+	}
+}
@@ -2,22 +2,54 @@ package com.geordietait.squadbuilder;
 
 import java.net.Socket;
 import java.io.BufferedInputStream;
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.SocketTimeoutException;
-import java.text.SimpleDateFormat;
+import java.nio.charset.StandardCharsets;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 /**
  * Class for serving web requests for SquadBuilder.
  * 
- * A main thread listens for connections and then spawns worker
- * threads to handle each one.
+ * A main thread listens for connections. In selector mode (the default)
+ * it hands them to a SelectorServer, whose few event loops serve every
+ * connection without blocking, while a bounded pool of I/O threads writes
+ * the generated pages and JSON for them. In blocking mode it hands each
+ * connection to the I/O pool, whose threads parse requests and send
+ * responses. Either way a generated body is written as it is generated,
+ * and writing it waits while the client is slow to take it.
+ * HTTP/1.1 connections stay open for further requests until they are
+ * idle for KEEP_ALIVE_TIMEOUT ms or have served MAX_KEEP_ALIVE_REQUESTS.
+ * The CPU-bound optimisation behind /make runs on a second pool, and only
+ * as many at once as the processors allow, so a burst of requests queues
+ * up instead of oversubscribing the cores. A local search runs on its CPU
+ * pool thread. A genetic run's thread only waits while its islands evolve
+ * on IslandModel's pool (one thread per processor), so it takes one
+ * processor per island; the CPU pool has a thread per processor, enough
+ * for every run admitted at once, and /status reports both pools. Only a
+ * limited number may wait, each for a limited time, and requests beyond
+ * that are turned away with 503 (see AdmissionControl).
+ * Requests answered from the result cache, or sharing a running
+ * optimisation, do not wait at all. Optimisations can also run as background
+ * jobs under /jobs, whose progress is streamed as Server-Sent Events
+ * instead of holding the connection until the squads are made. The
+ * roster and squads are also served as JSON under /api. The state
+ * of the front end and the pools is reported at /status.
  * 
  * This is not implemented with current, modern practices, but it is
  * functional and this is how I learned. A simpler, easier-to-edit
@@ -29,29 +61,180 @@ import java.util.Scanner;
  */
 public class WebServer extends Thread {
 
+	// default number of threads serving connections (blocking mode) or writing generated bodies (selector mode)
+	public static final int DEFAULT_IO_THREADS = 64;
+
+	// default number of processors the optimisations may use at once (also the
+	// number of threads running optimisations, as each takes at least one)
+	public static final int DEFAULT_CPU_THREADS = Runtime.getRuntime().availableProcessors();
+	
+	// milliseconds an idle persistent connection stays open
+	public static final int KEEP_ALIVE_TIMEOUT = 5000;
+	
+	// most requests served over one persistent connection
+	public static final int MAX_KEEP_ALIVE_REQUESTS = 100;
+	
+	// default number of event loops in selector mode
+	public static final int DEFAULT_EVENT_LOOPS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	
+	// run each optimisation until the time budget is used up, the best
+	// variance stops improving, or the squads are perfectly balanced
+	private static final StoppingCriterion[] MAKE_CRITERIA = {
+			StoppingCriterion.timeLimit(2500),
+			StoppingCriterion.stagnation(250),
+			StoppingCriterion.targetVariance(0.0) };
+	
+	/**
+	 * Ways of serving connections
+	 */
+	public enum Mode {
+		// one pool thread per connection, reading and writing with blocking streams
+		BLOCKING,
+		
+		// a few event-loop threads multiplexing all connections with selectors
+		SELECTOR
+	}
+
 	// flag for if the WebServer should continue the listening loop or halt
 	private volatile boolean shutdown = false;
 		
 	// port for the WebServer to listen on
 	private int port;
 	
-	// location of JSON data (filename or URL)
-	private String jsonLocation;
+	// loads the roster, and again whenever it changes
+	private RosterLoader rosterLoader;
+	
+	// the squads each visitor last made
+	private Sessions sessions = new Sessions();
+	
+	// pool of threads which serve connections (blocking mode) or write generated bodies (selector mode)
+	private ThreadPoolExecutor ioPool;
+	
+	// pool of threads which run optimisations
+	private ThreadPoolExecutor cpuPool;
+	
+	// limits the optimisations running and waiting for the CPU pool
+	private AdmissionControl admission;
+	
+	// how connections are served
+	private Mode mode = Mode.SELECTOR;
+	
+	// number of event loops in selector mode
+	private int eventLoops = DEFAULT_EVENT_LOOPS;
 	
-	// players object containing the list of all players
-	private Players players;
+	// the non-blocking front end (null in blocking mode)
+	private volatile SelectorServer selectorServer;
 	
-	// the tournament arrangement to display to the user
-	private Tournament tournament;
+	// the static files served from the working directory
+	private StaticFiles staticFiles = new StaticFiles(new File("."));
+	
+	// the optimisations running in the background
+	private Jobs jobs;
+	
+	// makes squads for /make, reusing recent and running optimisations
+	private SquadMaker squadMaker = new SquadMaker(new ResultCache());
+	
+	// the JSON API for scripts
+	private Api api = new Api(squadMaker, MAKE_CRITERIA);
+	
+	// compresses pages, JSON and the status report for clients which accept it
+	private Compression compression = new Compression();
 
 	/**
 	 * Constructor for WebServer
 	 * 
 	 * @param port	Port number to listen on
+	 * @param jsonLocation	Location of JSON data (filename or URL)
 	 */
 	public WebServer(int port, String jsonLocation) {
+		this(port, jsonLocation, DEFAULT_IO_THREADS, DEFAULT_CPU_THREADS);
+	}
+	
+	/**
+	 * Constructor for WebServer with given pool sizes
+	 * 
+	 * @param port	Port number to listen on
+	 * @param jsonLocation	Location of JSON data (filename or URL)
+	 * @param ioThreads	Maximum number of threads serving connections, or writing generated bodies in selector mode
+	 * @param cpuThreads	Processors the optimisations may use at once (a genetic run takes one per
+	 * island, up to all of them)
+	 */
+	public WebServer(int port, String jsonLocation, int ioThreads, int cpuThreads) {
 		this.port = port;
-		this.jsonLocation = jsonLocation;
+		rosterLoader = new RosterLoader(jsonLocation);
+		ioPool = newPool("squadbuilder-io-", Math.max(1, ioThreads));
+		cpuPool = newPool("squadbuilder-cpu-", Math.max(1, cpuThreads));
+		admission = new AdmissionControl(cpuPool, cpuPool.getMaximumPoolSize());
+		jobs = new Jobs(admission, MAKE_CRITERIA);
+	}
+	
+	/**
+	 * Make a pool with a fixed maximum number of threads and an unbounded queue.
+	 * Idle threads time out, so an idle server holds no pool threads.
+	 * 
+	 * @param name	Prefix for thread names
+	 * @param threads	Maximum number of threads
+	 * @return Thread pool
+	 */
+	private static ThreadPoolExecutor newPool(final String name, int threads) {
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+					
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, name + count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+	
+	/**
+	 * Set how connections are served (before the server is started)
+	 * @param mode Blocking or selector mode
+	 */
+	public void setMode(Mode mode) {
+		this.mode = mode;
+	}
+	
+	/**
+	 * Set the number of event loops for selector mode (before the server is started)
+	 * @param eventLoops Number of event-loop threads
+	 */
+	public void setEventLoops(int eventLoops) {
+		this.eventLoops = eventLoops;
+	}
+	
+	/**
+	 * Set how many optimisations may wait for processors, and for how long
+	 * @param queueLimit Most optimisations waiting
+	 * @param queueTimeout Milliseconds a request may wait before it is turned away
+	 */
+	public void setAdmission(int queueLimit, long queueTimeout) {
+		admission.setQueueLimit(queueLimit);
+		admission.setQueueTimeout(queueTimeout);
+	}
+	
+	/**
+	 * Set which generated responses are compressed, and how hard
+	 * @param threshold Smallest body compressed, in bytes
+	 * @param level Compression level, from 1 (fastest) to 9 (smallest)
+	 */
+	public void setCompression(int threshold, int level) {
+		compression.setThreshold(threshold);
+		compression.setLevel(level);
+	}
+	
+	/**
+	 * Set how often a roster at a URL is fetched again (before the server is started;
+	 * a roster in a file is reloaded whenever it is written)
+	 * @param pollInterval Milliseconds between fetches
+	 */
+	public void setRosterPollInterval(long pollInterval) {
+		rosterLoader.setPollInterval(pollInterval);
 	}
 	
 	/**
@@ -61,27 +244,8 @@ public class WebServer extends Thread {
 		
 		System.out.println("Starting the SquadBuilder server on port " + port);
 		
-		// start the listening thread
-		start();
-		
-		// attempt to read player data from JSON
-		// (can be entered as a filename or a URL)
-		JsonReader json = new JsonReader(jsonLocation);
-		players = json.getData();
-		
-		// check if player data is good
-		if (players == null) {
-			System.err.println("Could not read player data from JSON.");
-			System.exit(-1);
-		}
-		
-		if (players.checkPlayers() == false) {
-			System.err.println("Invalid player data.");
-			System.exit(-1);
-		}
-		
-		// initialize tournament
-		tournament = new Tournament(players, 1);
+		// load the players and start the listening thread
+		startServer();
 		
 		System.out.println("Server started. Type \"quit\" to stop");
 		System.out.println(".....................................");
@@ -96,6 +260,33 @@ public class WebServer extends Thread {
 		keyboard.close();
 		System.out.println("Server stopped.\n");
 	}
+	
+	/**
+	 * Read the player data, start watching it for changes, and start the listening thread
+	 */
+	public void startServer() {
+		
+		// attempt to read and check player data from JSON
+		// (can be entered as a filename or a URL)
+		try {
+			rosterLoader.load();
+		}
+		catch (IOException e) {
+			System.err.println("Could not read player data from JSON (" + e.getMessage() + ").");
+			System.exit(-1);
+		}
+		
+		// reload the roster in the background whenever it changes
+		try {
+			rosterLoader.start();
+		}
+		catch (IOException e) {
+			System.err.println("Could not watch player data for changes: " + e.toString());
+		}
+		
+		// start the listening thread
+		start();
+	}
 		
 	/* Run method for main WebServer thread which listens for incoming requests/connections
 	 * 
@@ -103,12 +294,35 @@ public class WebServer extends Thread {
 	 * @see java.lang.Thread#run()
 	 */
 	public void run() {
+		try {
+			if (mode == Mode.SELECTOR) {
+				selectorServer = new SelectorServer(this, port, eventLoops, ioPool);
+				selectorServer.run();
+			}
+			else {
+				runBlocking();
+			}
+		}
+		catch (IOException e) {
+			System.err.println("Main thread exception: " + e.toString());
+		}
+		finally {
+			// let requests in progress finish, but take no new work
+			rosterLoader.stop();
+			ioPool.shutdown();
+			cpuPool.shutdown();
+		}
+	}
+	
+	/**
+	 * Listen for connections and hand each one to the I/O pool
+	 * @throws IOException If the server socket fails
+	 */
+	private void runBlocking() throws IOException {
 		
-		ServerSocket serverSock = null;
+		// open server socket
+		ServerSocket serverSock = new ServerSocket(port);
 		try {
-			// open server socket
-			serverSock = new ServerSocket(port);
-			
 			// set socket timeout option
 			serverSock.setSoTimeout(1000);
 
@@ -118,22 +332,279 @@ public class WebServer extends Thread {
 					// accept a new connection
 					Socket clientSock = serverSock.accept();
 					
-					// create a worker thread to handle the new connection
-					WebServerWorker worker = new WebServerWorker(clientSock);
-					(new Thread(worker)).start();
+					// hand the new connection to the I/O pool
+					ioPool.execute(new WebServerWorker(clientSock));
 				}
 				catch (SocketTimeoutException e) {
 					// do nothing, this is OK
 					// allows the process to check the shutdown flag
 				}
 			}
-			
+		}
+		finally {
 			// clean up (close the socket)
 			serverSock.close();
 		}
-		catch (IOException e) {
-			System.err.println("Main thread exception: " + e.toString());
+	}
+	
+	/**
+	 * Get the size, activity and queue depth of the worker pools (including the
+	 * pool the genetic algorithm's islands run on)
+	 * @return Status report with one "name=value" pair per line
+	 */
+	public String getStatus() {
+		String status = "mode=" + mode.name().toLowerCase() + "\n";
+		if (selectorServer != null)
+			status += selectorServer.getStatus();
+		status += describePool("io", ioPool);
+		status += describePool("cpu", cpuPool);
+		status += IslandModel.getPoolStatus();
+		status += admission.getStatus();
+		status += "jobs.count=" + jobs.getCount() + "\n";
+		status += squadMaker.getStatus();
+		status += rosterLoader.getStatus();
+		status += "sessions.count=" + sessions.size() + "\n";
+		status += compression.getStatus();
+		return status + "static.cachedBytes=" + staticFiles.getCachedBytes() + "\n";
+	}
+	
+	/**
+	 * Describe the state of a worker pool
+	 * @param name	Name of the pool
+	 * @param pool	Pool to describe
+	 * @return Lines of "name.property=value" pairs
+	 */
+	private static String describePool(String name, ThreadPoolExecutor pool) {
+		return name + ".maxThreads=" + pool.getMaximumPoolSize() + "\n"
+				+ name + ".threads=" + pool.getPoolSize() + "\n"
+				+ name + ".active=" + pool.getActiveCount() + "\n"
+				+ name + ".queued=" + pool.getQueue().size() + "\n"
+				+ name + ".completed=" + pool.getCompletedTaskCount() + "\n";
+	}
+	
+	/**
+	 * Make the response to a request. Requests for /make and /api/make wait
+	 * here for their squads, so the front ends call respondLater for them.
+	 * 
+	 * @param request	Parsed request
+	 * @param keepAlive	True if the connection will stay open after the response
+	 * @return Response to send
+	 */
+	HttpResponse respond(HttpRequest request, boolean keepAlive) {
+		boolean isBadRequest = request.isBadRequest();
+		boolean isHead = request.getMethod().equals("HEAD");
+		String fileName = request.getPath();
+		
+		// use the same roster throughout the request, even if a new one is published meanwhile
+		RosterLoader.Roster roster = rosterLoader.get();
+		
+		// check the HTTP method
+		if (!request.getMethod().equals("GET") && !request.getMethod().equals("POST") && !isHead)
+			isBadRequest = true;
+		
+		// start or follow a background optimisation
+		if (!isBadRequest && (fileName.equals("jobs") || fileName.startsWith("jobs/")))
+			return jobs.respond(request, fileName, roster.getPlayers(), keepAlive);
+		
+		// read the roster or make squads as JSON
+		if (!isBadRequest && Api.isApiPath(fileName)) {
+			HttpResponse response = api.respond(request, fileName, roster.getPlayers(), keepAlive);
+			compression.apply(request, response, null);
+			return response;
+		}
+		
+		// only files in the working directory can be requested
+		if (fileName.contains("/") || fileName.contains("\\"))
+			isBadRequest = true;
+		
+		if (isBadRequest)
+			return new HttpResponse("400 Bad Request", false);
+		
+		// squads are made without holding this thread, so wait for them here
+		if (fileName.equals("make"))
+			return await(respondLater(request, keepAlive));
+		
+		// if request is not a file, stream the generated HTML to the client
+		if (fileName.equals("") || fileName.equals("index.html")) {
+			HttpResponse response = newPageResponse(keepAlive);
+			
+			// show the squads the visitor last made, or everyone on the waitlist,
+			// returning all the players to the waitlist on reset
+			Sessions.Session session = sessions.get(request);
+			TournamentSnapshot shown = session != null ? session.getCurrent() : null;
+			if (request.getMethod().equals("POST") && session != null) {
+				session.setCurrent(null);
+				shown = null;
+			}
+			if (shown == null)
+				shown = roster.getSnapshot();
+			
+			// the roster's page is the same for every visitor, so it is compressed once
+			return finishPage(request, response, new PageWriter(shown, null),
+					shown == roster.getSnapshot() ? shown : null);
+		}
+		
+		// report the state of the worker pools
+		if (fileName.equals("status")) {
+			HttpResponse response = new HttpResponse("200 OK", keepAlive);
+			response.addHeader("Content-Type", "text/plain");
+			response.setBody(getStatus().getBytes(StandardCharsets.US_ASCII));
+			response.setHeadOnly(isHead);
+			compression.apply(request, response, null);
+			return response;
 		}
+		
+		// send a requested file
+		HttpResponse response = staticFiles.respond(request, fileName, keepAlive);
+		return response != null ? response : new HttpResponse("404 Not Found", keepAlive);
+	}
+	
+	/**
+	 * Check if a request runs the optimiser, and so should be answered with respondLater
+	 * 
+	 * @param request	Parsed request
+	 * @return True if the request is for /make or /api/make
+	 */
+	static boolean isOptimiserRequest(HttpRequest request) {
+		return !request.isBadRequest()
+				&& (request.getPath().equals("make") || request.getPath().equals("api/make"));
+	}
+	
+	/**
+	 * Make the response to a request for /make or /api/make without holding a
+	 * thread while the squads are made. A request answered from the result
+	 * cache, or sharing an optimisation which is already running, takes no
+	 * turn on the CPU pool; any other starts an optimisation through admission
+	 * control. Other requests are answered at once.
+	 * 
+	 * @param request	Parsed request
+	 * @param keepAlive	True if the connection will stay open after the response
+	 * @return Response to send, when it is ready (see failureResponse if it fails)
+	 */
+	CompletableFuture<HttpResponse> respondLater(final HttpRequest request, boolean keepAlive) {
+		String method = request.getMethod();
+		if (!isOptimiserRequest(request)
+				|| !method.equals("GET") && !method.equals("POST") && !method.equals("HEAD"))
+			return CompletableFuture.completedFuture(respond(request, keepAlive));
+		
+		// use the same roster throughout the request, even if a new one is published meanwhile
+		RosterLoader.Roster roster = rosterLoader.get();
+		
+		// make squads as JSON
+		if (request.getPath().equals("api/make")) {
+			return api.make(request, roster.getPlayers(), keepAlive, admission).thenApply(
+					new Function<HttpResponse, HttpResponse>() {
+						@Override
+						public HttpResponse apply(HttpResponse response) {
+							compression.apply(request, response, null);
+							return response;
+						}
+					});
+		}
+		
+		// find the visitor's session, starting one when they first make squads
+		final HttpResponse response = newPageResponse(keepAlive);
+		Sessions.Session session = sessions.get(request);
+		if (session == null) {
+			session = sessions.create();
+			if (session != null)
+				response.addHeader("Set-Cookie", Sessions.toCookie(session));
+		}
+		final Sessions.Session visitor = session;
+		
+		// parse the number of squads, solver and seed, and check for bad inputs
+		MakeOptions options;
+		try {
+			options = MakeOptions.parse(request.getParams(), roster.getPlayers().getNumber());
+		}
+		catch (IllegalArgumentException e) {
+			return CompletableFuture.completedFuture(
+					finishPage(request, response, new PageWriter(roster.getSnapshot(), e.getMessage()), null));
+		}
+		
+		// reuse the result of an earlier or running request for the same roster and
+		// options, otherwise run the solver until any of the stopping criteria is met
+		return squadMaker.make(roster.getPlayers(), options, admission, MAKE_CRITERIA).thenApply(
+				new Function<SquadMaker.Result, HttpResponse>() {
+					@Override
+					public HttpResponse apply(SquadMaker.Result made) {
+						TournamentSnapshot shown = made.getSnapshot();
+						if (visitor != null)
+							visitor.setCurrent(shown);
+						
+						// the page of squads shared with other requests is compressed once
+						return finishPage(request, response, new PageWriter(shown, null),
+								made.isShared() ? shown : null);
+					}
+				});
+	}
+	
+	/**
+	 * Wait for a response made by respondLater
+	 * 
+	 * @param response	Response, when it is ready
+	 * @return Response to send
+	 */
+	HttpResponse await(CompletableFuture<HttpResponse> response) {
+		try {
+			return response.get();
+		}
+		catch (InterruptedException e) {
+			// the server is shutting down
+			Thread.currentThread().interrupt();
+			return admission.busyResponse();
+		}
+		catch (ExecutionException e) {
+			return failureResponse(e.getCause());
+		}
+	}
+	
+	/**
+	 * Make the response for a request whose squads could not be made
+	 * 
+	 * @param e	Why the response failed
+	 * @return 503 response if the optimisation was turned away, otherwise 500
+	 */
+	HttpResponse failureResponse(Throwable e) {
+		if (e instanceof CompletionException && e.getCause() != null)
+			e = e.getCause();
+		if (e instanceof RejectedExecutionException)
+			return admission.busyResponse();
+		System.err.println("Optimiser exception: " + e.toString());
+		return new HttpResponse("500 Internal Server Error", false);
+	}
+	
+	/**
+	 * Make the response for a page, with its headers but not yet its body
+	 * 
+	 * @param keepAlive	True if the connection will stay open after the response
+	 * @return Response
+	 */
+	private static HttpResponse newPageResponse(boolean keepAlive) {
+		HttpResponse response = new HttpResponse("200 OK", keepAlive);
+		response.addHeader("Content-Type", "text/html");
+		
+		// pages show the visitor's own squads, so shared caches must not keep them
+		response.addHeader("Cache-Control", "private");
+		return response;
+	}
+	
+	/**
+	 * Give a page its body, streamed as the HTML is generated
+	 * 
+	 * @param request	Parsed request
+	 * @param response	Response made by newPageResponse
+	 * @param page	Writer of the page
+	 * @param cacheKey	Arrangement the page shows if other requests are shown it too, so it
+	 * is compressed once for all of them, or null to compress it as it is written
+	 * @return The response
+	 */
+	private HttpResponse finishPage(HttpRequest request, HttpResponse response, PageWriter page,
+			TournamentSnapshot cacheKey) {
+		response.setWriter(page, request.acceptsChunked());
+		response.setHeadOnly(request.getMethod().equals("HEAD"));
+		compression.apply(request, response, cacheKey);
+		return response;
 	}
 	
 	/**
@@ -143,6 +614,14 @@ public class WebServer extends Thread {
 		shutdown = true;
 	}
 	
+	/**
+	 * Check if the WebServer has been signalled to shut down
+	 * @return True if shutting down
+	 */
+	boolean isShutdown() {
+		return shutdown;
+	}
+	
 	/**
 	 * Class for worker threads which serve requests
 	 * 
@@ -163,191 +642,165 @@ public class WebServer extends Thread {
 			this.sock = sock;
 		}
 
-		/* Run method for worker threads which serve requests
+		/* Run method for worker threads which serve requests. The connection is
+		 * kept open for further requests until the client asks to close it, it
+		 * stays idle for too long, or it reaches the per-connection request limit.
 		 * 
 		 * (non-Javadoc)
 		 * @see java.lang.Runnable#run()
 		 */
 		@Override
 		public void run() {
-			boolean isBadRequest = false;
-			boolean isNotFound = false;
-			byte[] bytes = new byte[16384];
-			String fileName = "";
-			String output = "";
-			
 			try {
-				// read and parse HTTP request
-				BufferedReader in = new BufferedReader(new InputStreamReader(sock.getInputStream()));
-				OutputStream out = sock.getOutputStream();
-				String request = in.readLine();
-				if (request == null) return;
+				sock.setSoTimeout(KEEP_ALIVE_TIMEOUT);
 				
-				// ensure request is well formed
-				String[] reqSplit = request.split("/");
-				if (reqSplit.length != 3) {
-					isBadRequest = true;
-				}
-				else {
-					// check the HTTP method
-					if (!reqSplit[0].trim().equals("GET") && !reqSplit[0].trim().equals("POST"))
-						isBadRequest = true;
+				// each response is flushed whole, so send it without waiting on Nagle's algorithm
+				sock.setTcpNoDelay(true);
+				InputStream in = new BufferedInputStream(sock.getInputStream());
+				OutputStream out = new BufferedOutputStream(sock.getOutputStream());
+				
+				boolean keepAlive = true;
+				for (int served = 0; keepAlive && served < MAX_KEEP_ALIVE_REQUESTS; served++) {
 					
-					// check if the request is well-formed
-					String[] fileNameSplit = reqSplit[1].split(" ");
-					if (fileNameSplit.length != 2) {
-						isBadRequest = true;
-					}
-					else {
-						if (!fileNameSplit[1].trim().equals("HTTP")) 
-							isBadRequest = true;
-						
-						fileName = fileNameSplit[0];
-						
-						// if request is valid and not a file, generate HTML to output
-						if (fileName.equals("") || fileName.equals("index.html") || fileName.startsWith("make?"))
-							output = generateOutput(fileName);
+					// wait for the next request, closing the connection when idle
+					HttpRequest request;
+					try {
+						request = HttpRequest.read(in);
 					}
-				}
-				
-				// determine if requested object exists, unless we are transmitting HTML
-				File f = new File(fileName);
-				if (!f.exists() && output.equals(""))
-					isNotFound = true;
-				
-				// transmit content over existing connection
-				// first send HTTP header
-				String header = generateHTTPHeader(isBadRequest, isNotFound, f);
-				out.write(header.getBytes("US-ASCII"));
-				out.flush();
-				
-				// send file if OK and applicable
-				if (!isBadRequest && !isNotFound && output.equals("")) {					
-					FileInputStream fStream = new FileInputStream(f);
-					BufferedInputStream fBuffer = new BufferedInputStream(fStream);
-					int n;
-		            
-					while ((n = fBuffer.read(bytes)) > 0) {
-						out.write(bytes, 0, n);
-						out.flush();
+					catch (SocketTimeoutException e) {
+						break;
 					}
-		            
-					fBuffer.close();
-					fStream.close();
-				}
-				
-				// otherwise send output string if OK
-				else if (!isBadRequest && !output.equals("")) {
-					out.write(output.getBytes("US-ASCII"));
+					if (request == null) break;
+					
+					// a bad request may leave the stream out of step, so close after it
+					keepAlive = request.isKeepAlive() && !request.isBadRequest()
+							&& served + 1 < MAX_KEEP_ALIVE_REQUESTS;
+					HttpResponse response = isOptimiserRequest(request)
+							? await(respondLater(request, keepAlive)) : respond(request, keepAlive);
+					
+					// a written body goes straight to the connection as it is generated
+					response.writeTo(out);
 					out.flush();
+					
+					// a pushed body holds the connection until its producer ends it
+					if (response.getProducer() != null && !response.isHeadOnly())
+						stream(response, out);
+					if (!response.isKeepAlive())
+						break;
 				}
-				
-				// close connection
-				in.close();
-				out.close();
-				sock.close();
 			}
 			catch (IOException e) {
 				System.err.println("Worker thread exception: " + e.toString());
 			}
+			finally {
+				// close connection
+				try {
+					sock.close();
+				}
+				catch (IOException e) {
+					// nothing more to do
+				}
+			}
 		}
-		
+	
 		/**
-		 * Generate HTTP response header
+		 * Send a pushed body as its producer queues it, until the producer
+		 * ends it or the client goes away. The pieces are small and come
+		 * from another thread (such as a job's events), so they are queued
+		 * rather than written by the producer.
 		 * 
-		 * @param isBadRequest	True if bad request
-		 * @param isNotFound	True if file not found
-		 * @param f	File object
-		 * @return HTTP header string
+		 * @param response	Response with a streamed body
+		 * @param out	Output stream of the connection
+		 * @throws IOException	If writing fails or the worker is interrupted
 		 */
-		private String generateHTTPHeader(boolean isBadRequest, boolean isNotFound, File f) {
-			String header = "HTTP/1.1 ";
-
-			// response code
-			if (isBadRequest) header += "400 Bad Request\r\n";
-			else if (isNotFound) header += "404 Not Found\r\n";
-			else header += "200 OK\r\n";
-			
-			// server name and version
-			header += "Server: SquadBuilder/1.0\r\n";
-			
-			// file info if applicable
-			if (!isBadRequest && !isNotFound && f.exists()) {
-				SimpleDateFormat sdf = new SimpleDateFormat("EEE, dd MMM yyyy hh:mm:ss zzz");
-				header += "Last-Modified: " + sdf.format(f.lastModified()) + "\r\n";
-				header += "Content-Length: " + f.length() + "\r\n";
+		private void stream(HttpResponse response, OutputStream out) throws IOException {
+			QueuedStream stream = new QueuedStream();
+			response.getProducer().start(stream);
+			try {
+				byte[] data;
+				while ((data = stream.queue.take()) != QueuedStream.END) {
+					out.write(data);
+					
+					// send everything queued so far together
+					if (stream.queue.isEmpty())
+						out.flush();
+				}
+				out.flush();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while streaming");
+			}
+			finally {
+				stream.open = false;
 			}
-			
-			header += "Connection: close\r\n\r\n";
-			return header;
 		}
+	}
+	
+	/**
+	 * Class for writing a page to the connection as it is generated
+	 * 
+	 * @author Geordie Tait
+	 *
+	 */
+	private static class PageWriter implements HttpResponse.BodyWriter {
+		
+		// the arrangement the page shows
+		private TournamentSnapshot snapshot;
+		
+		// error shown above the waitlist (null for a page of squads)
+		private String error;
 		
 		/**
-		 * Generate HTML output
-		 * @param request Requested content from URL
-		 * @return HTML as a string
+		 * Constructor for PageWriter
+		 * 
+		 * @param snapshot	Arrangement to show
+		 * @param error	Error to show, or null to show the squads
 		 */
-		private String generateOutput(String request) {
-			HtmlGenerator html = new HtmlGenerator(tournament, players);
-			
-			// begin html, set the title, make the top bar
-			String htmlOut = html.generateTop();
-			
-			// make the input and buttons
-			htmlOut += html.generateForm();
-			
-			// display the waitlist with all the players in it
-			if (request.equals("") || request.equals("index.html")) {
-				tournament = new Tournament(players, 1);
-				html.setTournament(tournament);
-				htmlOut += html.generateWaitList();
-			}
-			
-			// display the waitlist and squads if requested
-			else if (request.startsWith("make")) {
-				
-				// parse desired number of squads and check for bad inputs
-				String makeSplit[] = request.split("=");
-				if (makeSplit.length < 2)
-					return html.generateError("You must enter a number.");
-						
-				int numSquads = 0;
-				try {
-					numSquads = Integer.valueOf(makeSplit[1]);
-				}
-				catch (NumberFormatException e) {
-					return html.generateError("You must enter a number.");
-				}
-				
-				if (numSquads < 2 || numSquads > players.getNumber())
-					return html.generateError("Number of squads must be greater than 1 and less than the number of players (" + players.getNumber() + ").");
+		PageWriter(TournamentSnapshot snapshot, String error) {
+			this.snapshot = snapshot;
+			this.error = error;
+		}
+		
+		@Override
+		public void writeBody(OutputStream out) throws IOException {
+			HtmlGenerator html = new HtmlGenerator(snapshot, out);
+			if (error != null)
+				html.generateError(error);
+			else
+				html.generatePage();
+		}
+	}
 	
-				// create the first generation of random individuals (tournaments)
-				Population pop = new Population(players, numSquads, 500);
-				
-				// run the genetic algorithm for a set amount of milliseconds
-				pop.evolve(2500);
-				
-				// pick the best individual
-				tournament = pop.getIndividuals().get(0);
-				html.setTournament(tournament);
-				
-				// display the wait list
-				htmlOut += html.generateWaitList();
-				
-				// display the squads
-				int count = 1;
-				for (Squad s : tournament.getSquads()) {
-					htmlOut += html.generateSquad(count, s);
-					count++;
-				}
-			}
-			
-			// make the closing tags
-			htmlOut += html.generateEnd();
-			return htmlOut;
+	/**
+	 * Class for the stream of a pushed body in blocking mode, which queues
+	 * each piece for the worker thread to write
+	 * 
+	 * @author Geordie Tait
+	 *
+	 */
+	private static class QueuedStream implements ResponseStream {
+		
+		// marker queued when the producer ends the body
+		private static final byte[] END = new byte[0];
+		
+		// pieces waiting to be written
+		private LinkedBlockingQueue<byte[]> queue = new LinkedBlockingQueue<byte[]>();
+		
+		// false once the connection has closed
+		private volatile boolean open = true;
+		
+		@Override
+		public boolean send(byte[] data) {
+			if (!open)
+				return false;
+			queue.add(data);
+			return true;
 		}
-
 		
+		@Override
+		public void close() {
+			queue.add(END);
+		}
 	}
 }